@@ -0,0 +1,71 @@
+package medilabo.bulk;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Result of a bulk insertion: the number of inserted and rejected items, the result of each batch, and the errors of the rejected items.
+ * Only the first errors are listed, up to the limit given at creation, so that a badly formatted body does not produce a huge response.
+ * Items are identified by their item number, starting at 1: the line number in a NDJSON or CSV body, or the position in a JSON array.
+ */
+public class BulkInsertReport {
+
+    private final int maxReportedErrors;
+    private long inserted;
+    private long rejected;
+    private final List<BatchResult> batches = new ArrayList<>();
+    private final List<ItemError> errors = new ArrayList<>();
+
+    public BulkInsertReport(int maxReportedErrors) {
+        this.maxReportedErrors = maxReportedErrors;
+    }
+
+    public void addBatch(BatchResult batchResult) {
+        batches.add(batchResult);
+        inserted += batchResult.inserted();
+    }
+
+    public void reject(long item, String message) {
+        rejected++;
+        if (errors.size() < maxReportedErrors) {
+            errors.add(new ItemError(item, message));
+        }
+    }
+
+    public long getInserted() {
+        return inserted;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    public List<BatchResult> getBatches() {
+        return batches;
+    }
+
+    public List<ItemError> getErrors() {
+        return errors;
+    }
+
+    /**
+     * The result of one batch.
+     *
+     * @param batch     the batch number, starting at 1
+     * @param firstItem the item number of the first item of the batch
+     * @param lastItem  the item number of the last item of the batch
+     * @param inserted  the number of items inserted
+     * @param failed    the number of items rejected by the database, which are also listed as errors
+     */
+    public record BatchResult(int batch, long firstItem, long lastItem, int inserted, int failed) {
+    }
+
+    /**
+     * The error of a rejected item.
+     *
+     * @param item    the item number of the item
+     * @param message the reason of the rejection
+     */
+    public record ItemError(long item, String message) {
+    }
+}
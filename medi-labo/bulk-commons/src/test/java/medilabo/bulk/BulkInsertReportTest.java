@@ -0,0 +1,40 @@
+package medilabo.bulk;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class BulkInsertReportTest {
+
+    @Test
+    public void addBatchAndReject_shouldCountItemsAndListBatches() {
+
+        BulkInsertReport report = new BulkInsertReport(10);
+
+        report.reject(2, "invalid");
+        report.addBatch(new BulkInsertReport.BatchResult(1, 1, 3, 2, 0));
+        report.reject(5, "Rejected by the database");
+        report.addBatch(new BulkInsertReport.BatchResult(2, 4, 5, 1, 1));
+
+        assertEquals(3, report.getInserted());
+        assertEquals(2, report.getRejected());
+        assertEquals(List.of(new BulkInsertReport.BatchResult(1, 1, 3, 2, 0), new BulkInsertReport.BatchResult(2, 4, 5, 1, 1)),
+                report.getBatches());
+        assertEquals(List.of(2L, 5L), report.getErrors().stream().map(BulkInsertReport.ItemError::item).toList());
+    }
+
+    @Test
+    public void reject_beyondMaxReportedErrors_shouldCountButNotListErrors() {
+
+        BulkInsertReport report = new BulkInsertReport(2);
+
+        for (long item = 1; item <= 5; item++) {
+            report.reject(item, "invalid");
+        }
+
+        assertEquals(5, report.getRejected());
+        assertEquals(List.of(1L, 2L), report.getErrors().stream().map(BulkInsertReport.ItemError::item).toList());
+    }
+}
@@ -0,0 +1,186 @@
+package medilabo.cache;
+
+import feign.Capability;
+import feign.Client;
+import feign.Request;
+import feign.Response;
+import feign.Util;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Feign Capability that revalidates GET responses with their ETag instead of downloading them again.
+ * The last response of each URL that had an ETag is kept, and its ETag is sent as If-None-Match. When the service answers 304, the kept response is returned with the headers of the 304, so that a new X-Service-Token is still seen by the response interceptors.
+ * Responses without an ETag, or with a body larger than maxEntrySize, are not kept. The bodies kept take at most maxSize bytes in total, and the least recently used ones are evicted when it is full.
+ * Services calling others through Feign declare it as a bean, which Spring Cloud OpenFeign adds to every client.
+ */
+public class ConditionalGetCapability implements Capability {
+
+    private static final String ETAG_HEADER = "ETag";
+    private static final String IF_NONE_MATCH_HEADER = "If-None-Match";
+    // Headers describing the 304 body, which must not replace those of the cached body
+    private static final Set<String> BODY_HEADERS = Set.of("content-length", "content-type", "transfer-encoding");
+
+    private final long maxSize;
+    private final long maxEntrySize;
+    // Access-ordered, so that iteration starts with the least recently used response
+    private final LinkedHashMap<String, CachedResponse> responses = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalSize;
+
+    /**
+     * @param maxSize      the maximum total size of the bodies kept
+     * @param maxEntrySize the maximum size of a body kept, 0 to disable revalidation
+     */
+    public ConditionalGetCapability(DataSize maxSize, DataSize maxEntrySize) {
+        this.maxSize = maxSize.toBytes();
+        this.maxEntrySize = Math.min(maxEntrySize.toBytes(), this.maxSize);
+    }
+
+    @Override
+    public Client enrich(Client client) {
+        return (request, options) -> execute(client, request, options);
+    }
+
+    /**
+     * Sends a GET request with the ETag of the cached response if there is one, and returns the cached response if the service answers 304.
+     * Other requests are sent unchanged.
+     *
+     * @param client  the client sending the requests
+     * @param request
+     * @param options
+     * @return the Response of the service, or the cached Response if it was not modified
+     * @throws IOException
+     */
+    Response execute(Client client, Request request, Request.Options options) throws IOException {
+        if (request.httpMethod() != Request.HttpMethod.GET || maxEntrySize <= 0) {
+            return client.execute(request, options);
+        }
+        String url = request.url();
+        CachedResponse cached;
+        synchronized (responses) {
+            cached = responses.get(url);
+        }
+        if (cached == null) {
+            return store(url, client.execute(request, options));
+        }
+        Map<String, Collection<String>> headers = new LinkedHashMap<>(request.headers());
+        headers.put(IF_NONE_MATCH_HEADER, List.of(cached.eTag));
+        Response response = client.execute(
+                Request.create(request.httpMethod(), url, headers, request.body(), request.charset(), request.requestTemplate()), options);
+        if (response.status() == 304) {
+            response.close();
+            return cached.toResponse(request, response.headers());
+        }
+        return store(url, response);
+    }
+
+    public int size() {
+        synchronized (responses) {
+            return responses.size();
+        }
+    }
+
+    /**
+     * @return the total size of the bodies kept, in bytes
+     */
+    public long totalSize() {
+        synchronized (responses) {
+            return totalSize;
+        }
+    }
+
+    /**
+     * Keeps a 200 response that has an ETag, reading its body so that it can be returned again. Any other response evicts the URL.
+     * A body announced as larger than maxEntrySize is not read here.
+     */
+    private Response store(String url, Response response) throws IOException {
+        Collection<String> eTags = response.headers().getOrDefault(ETAG_HEADER, List.of());
+        Integer length = response.body() == null ? null : response.body().length();
+        if (response.status() != 200 || eTags.isEmpty() || response.body() == null || (length != null && length > maxEntrySize)) {
+            evict(url);
+            return response;
+        }
+        byte[] body;
+        try (InputStream input = response.body().asInputStream()) {
+            body = Util.toByteArray(input);
+        }
+        if (body.length > maxEntrySize) {
+            evict(url);
+        } else {
+            put(url, new CachedResponse(eTags.iterator().next(), response.status(), response.reason(), response.headers(), body));
+        }
+        return response.toBuilder().body(body).build();
+    }
+
+    private void put(String url, CachedResponse cached) {
+        synchronized (responses) {
+            CachedResponse previous = responses.put(url, cached);
+            totalSize += cached.body.length - (previous == null ? 0 : previous.body.length);
+            Iterator<CachedResponse> leastRecentlyUsed = responses.values().iterator();
+            while (totalSize > maxSize) {
+                totalSize -= leastRecentlyUsed.next().body.length;
+                leastRecentlyUsed.remove();
+            }
+        }
+    }
+
+    private void evict(String url) {
+        synchronized (responses) {
+            CachedResponse previous = responses.remove(url);
+            if (previous != null) {
+                totalSize -= previous.body.length;
+            }
+        }
+    }
+
+    /**
+     * A response kept with its ETag.
+     */
+    private static class CachedResponse {
+
+        private final String eTag;
+        private final int status;
+        private final String reason;
+        private final Map<String, Collection<String>> headers;
+        private final byte[] body;
+
+        private CachedResponse(String eTag, int status, String reason, Map<String, Collection<String>> headers, byte[] body) {
+            this.eTag = eTag;
+            this.status = status;
+            this.reason = reason;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        /**
+         * @param request              the request being answered
+         * @param revalidationHeaders the headers of the 304 response, which replace the cached ones
+         * @return a new Response with the cached body
+         */
+        private Response toResponse(Request request, Map<String, Collection<String>> revalidationHeaders) {
+            Map<String, Collection<String>> mergedHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            mergedHeaders.putAll(headers);
+            revalidationHeaders.forEach((name, values) -> {
+                if (!BODY_HEADERS.contains(name.toLowerCase())) {
+                    mergedHeaders.put(name, values);
+                }
+            });
+            return Response.builder()
+                    .status(status)
+                    .reason(reason)
+                    .headers(mergedHeaders)
+                    .body(body)
+                    .request(request)
+                    .build();
+        }
+    }
+}
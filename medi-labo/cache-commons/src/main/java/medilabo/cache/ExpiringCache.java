@@ -0,0 +1,243 @@
+package medilabo.cache;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded in-memory cache whose entries expire after a time-to-live given when they are put.
+ * Entries are held in a ConcurrentHashMap, so that reads take no lock. When the maximum size is reached, expired entries are removed,
+ * then the entries that expire first until a tenth of the cache is free, so that the entries are only scanned once every maxSize / 10 puts.
+ * Keys are spread over stripes, each with a generation incremented on each invalidation of one of its keys,
+ * so that a value loaded before an invalidation is not cached after it, while the loads of keys of other stripes are not affected.
+ * Hits, misses, evictions and size can be registered as cache.* metrics with {@link #bindMetrics(MeterRegistry, String)}.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values, which may be null to cache a failed lookup
+ */
+public class ExpiringCache<K, V> {
+
+    private static final int STRIPES = 256;
+    private static final int EVICTION_DIVISOR = 10;
+
+    private final int maxSize;
+    private final LongSupplier ticker;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLongArray generations = new AtomicLongArray(STRIPES);
+    private final Object evictionLock = new Object();
+
+    private final Map<K, Entry<V>> entries = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxSize the maximum number of entries, 0 to disable the cache
+     * @param ticker  the source of the current time in nanoseconds, System::nanoTime outside of tests
+     */
+    public ExpiringCache(int maxSize, LongSupplier ticker) {
+        this.maxSize = maxSize;
+        this.ticker = ticker;
+    }
+
+    /**
+     * @param key
+     * @return the cached Entry, or null if there is none or if it has expired
+     */
+    public Entry<V> getEntry(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry != null && entry.expiresAt - ticker.getAsLong() <= 0) {
+            if (entries.remove(key, entry)) {
+                evictionCount.incrementAndGet();
+            }
+            entry = null;
+        }
+        (entry == null ? missCount : hitCount).incrementAndGet();
+        return entry;
+    }
+
+    /**
+     * @param key
+     * @return the cached value, or null if there is none, if it has expired or if a failure is cached
+     */
+    public V get(K key) {
+        Entry<V> entry = getEntry(key);
+        return entry == null ? null : entry.value;
+    }
+
+    /**
+     * @param key
+     * @return the current generation of the stripe of the key, to be read before loading its value and given back to {@link #put(Object, Object, long, long)}
+     */
+    public long generation(K key) {
+        return generations.get(stripe(key));
+    }
+
+    /**
+     * Caches a value.
+     *
+     * @param key
+     * @param value
+     * @param ttlNanos the time-to-live of the entry, 0 or less to not cache it
+     */
+    public void put(K key, V value, long ttlNanos) {
+        put(key, value, ttlNanos, generation(key));
+    }
+
+    /**
+     * Caches a loaded value, unless an invalidation happened since its loading started.
+     *
+     * @param key
+     * @param value
+     * @param ttlNanos   the time-to-live of the entry, 0 or less to not cache it
+     * @param generation the generation of the key read before loading the value, with {@link #generation(Object)}
+     */
+    public void put(K key, V value, long ttlNanos, long generation) {
+        int stripe = stripe(key);
+        if (ttlNanos <= 0 || maxSize <= 0 || generation != generations.get(stripe)) {
+            return;
+        }
+        if (!entries.containsKey(key) && entries.size() >= maxSize) {
+            evict();
+        }
+        Entry<V> entry = new Entry<>(value, ticker.getAsLong() + ttlNanos);
+        entries.put(key, entry);
+        // An invalidation may have happened between the check above and the put, in which case it may not have removed the entry
+        if (generation != generations.get(stripe)) {
+            entries.remove(key, entry);
+        }
+    }
+
+    public void invalidate(K key) {
+        generations.incrementAndGet(stripe(key));
+        entries.remove(key);
+    }
+
+    public void invalidateAll() {
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            generations.incrementAndGet(stripe);
+        }
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Registers the hits, misses, evictions and size of the cache as cache.* metrics.
+     *
+     * @param meterRegistry
+     * @param cacheName the value of the cache tag
+     */
+    public void bindMetrics(MeterRegistry meterRegistry, String cacheName) {
+        FunctionCounter.builder("cache.gets", this, ExpiringCache::getHitCount)
+                .tag("cache", cacheName).tag("result", "hit")
+                .description("The number of times values were found in the cache")
+                .register(meterRegistry);
+        FunctionCounter.builder("cache.gets", this, ExpiringCache::getMissCount)
+                .tag("cache", cacheName).tag("result", "miss")
+                .description("The number of times values had to be loaded")
+                .register(meterRegistry);
+        FunctionCounter.builder("cache.evictions", this, ExpiringCache::getEvictionCount)
+                .tag("cache", cacheName)
+                .description("The number of entries evicted because of size or expiry")
+                .register(meterRegistry);
+        Gauge.builder("cache.size", this, ExpiringCache::size)
+                .tag("cache", cacheName)
+                .description("The number of entries in the cache")
+                .register(meterRegistry);
+    }
+
+    private static int stripe(Object key) {
+        int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+    }
+
+    /**
+     * Removes the expired entries, then the entries that expire first until a tenth of the cache is free.
+     * The entries are scanned once, keeping the ones that expire first in a heap, which only happens when a value is loaded into a full cache.
+     * Threads waiting for the lock do not scan again if the cache is no longer full when they get it.
+     */
+    private void evict() {
+        synchronized (evictionLock) {
+            if (entries.size() < maxSize) {
+                return;
+            }
+            int target = maxSize - Math.max(1, maxSize / EVICTION_DIVISOR);
+            long now = ticker.getAsLong();
+            // Heap of the entries that expire first, with the one that expires last on top
+            PriorityQueue<Map.Entry<K, Entry<V>>> firstToExpire = new PriorityQueue<>(
+                    Comparator.comparingLong((Map.Entry<K, Entry<V>> candidate) -> candidate.getValue().expiresAt - now).reversed());
+            for (Map.Entry<K, Entry<V>> candidate : entries.entrySet()) {
+                Entry<V> entry = candidate.getValue();
+                if (entry.expiresAt - now <= 0) {
+                    if (entries.remove(candidate.getKey(), entry)) {
+                        evictionCount.incrementAndGet();
+                    }
+                } else {
+                    firstToExpire.add(Map.entry(candidate.getKey(), entry));
+                    if (firstToExpire.size() > maxSize - target) {
+                        firstToExpire.poll();
+                    }
+                }
+            }
+            int toRemove = entries.size() - target;
+            if (toRemove <= 0) {
+                return;
+            }
+            // Only the entries that expire first are left in the heap, polled from the one that expires last
+            while (firstToExpire.size() > toRemove) {
+                firstToExpire.poll();
+            }
+            for (Map.Entry<K, Entry<V>> candidate : firstToExpire) {
+                if (entries.remove(candidate.getKey(), candidate.getValue())) {
+                    evictionCount.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * A cached value, with its expiry time.
+     *
+     * @param <V> the type of the value
+     */
+    public static class Entry<V> {
+
+        private final V value;
+        private final long expiresAt;
+
+        private Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        /**
+         * @return the value, or null for a cached failure
+         */
+        public V getValue() {
+            return value;
+        }
+    }
+}
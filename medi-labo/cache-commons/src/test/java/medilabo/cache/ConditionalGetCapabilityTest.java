@@ -0,0 +1,138 @@
+package medilabo.cache;
+
+import feign.Client;
+import feign.Request;
+import feign.Response;
+import feign.Util;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class ConditionalGetCapabilityTest {
+
+    private static final String URL = "http://gateway-service/service/resources/1";
+
+    private final List<Request> sentRequests = new ArrayList<>();
+    private final Deque<Response.Builder> responses = new ArrayDeque<>();
+    private ConditionalGetCapability capability;
+    private Client client;
+
+    @BeforeEach
+    public void beforeEach() {
+        capability = new ConditionalGetCapability(DataSize.ofBytes(20), DataSize.ofBytes(10));
+        client = capability.enrich((Client) (request, options) -> {
+            sentRequests.add(request);
+            return responses.poll().request(request).build();
+        });
+    }
+
+    @Test
+    public void execute_withETag_shouldRevalidateAndReturnCachedBodyOnNotModified() throws IOException {
+
+        responses.add(response(200, "\"v1\"", "content"));
+        responses.add(response(304, "\"v1\"", null).headers(Map.of("ETag", List.of("\"v1\""), "X-Service-Token", List.of("token"))));
+
+        Response first = client.execute(get(URL), new Request.Options());
+        Response second = client.execute(get(URL), new Request.Options());
+
+        assertEquals("content", body(first));
+        assertEquals(List.of("\"v1\""), sentRequests.get(1).headers().get("If-None-Match"));
+        assertEquals(200, second.status());
+        assertEquals("content", body(second));
+        assertEquals(List.of("token"), List.copyOf(second.headers().get("X-Service-Token")));
+    }
+
+    @Test
+    public void execute_withoutETag_shouldNotRevalidate() throws IOException {
+
+        responses.add(response(200, null, "content"));
+        responses.add(response(200, null, "content"));
+
+        client.execute(get(URL), new Request.Options());
+        client.execute(get(URL), new Request.Options());
+
+        assertFalse(sentRequests.get(1).headers().containsKey("If-None-Match"));
+        assertEquals(0, capability.size());
+    }
+
+    @Test
+    public void execute_withNotFound_shouldEvictResponse() throws IOException {
+
+        responses.add(response(200, "\"v1\"", "content"));
+        responses.add(response(404, null, null));
+        responses.add(response(200, "\"v2\"", "content"));
+
+        client.execute(get(URL), new Request.Options());
+        Response notFound = client.execute(get(URL), new Request.Options());
+        client.execute(get(URL), new Request.Options());
+
+        assertEquals(404, notFound.status());
+        assertNull(sentRequests.get(2).headers().get("If-None-Match"));
+        assertEquals(1, capability.size());
+    }
+
+    @Test
+    public void execute_withPost_shouldNotKeepResponse() throws IOException {
+
+        responses.add(response(200, "\"v1\"", "content"));
+
+        client.execute(Request.create(Request.HttpMethod.POST, URL, Map.of(), null, StandardCharsets.UTF_8, null), new Request.Options());
+
+        assertEquals(0, capability.size());
+    }
+
+    @Test
+    public void execute_withMaxSizeReached_shouldEvictLeastRecentlyUsed() throws IOException {
+
+        for (int i = 1; i <= 3; i++) {
+            responses.add(response(200, "\"v1\"", "content"));
+            client.execute(get(URL + i), new Request.Options());
+        }
+
+        assertEquals(2, capability.size());
+        assertEquals(14, capability.totalSize());
+    }
+
+    @Test
+    public void execute_withBodyLargerThanMaxEntrySize_shouldReturnItWithoutKeepingIt() throws IOException {
+
+        responses.add(response(200, "\"v1\"", "a larger content"));
+
+        Response response = client.execute(get(URL), new Request.Options());
+
+        assertEquals("a larger content", body(response));
+        assertEquals(0, capability.size());
+        assertEquals(0, capability.totalSize());
+    }
+
+    private static Request get(String url) {
+        return Request.create(Request.HttpMethod.GET, url, Map.of(), null, StandardCharsets.UTF_8, null);
+    }
+
+    private static Response.Builder response(int status, String eTag, String body) {
+        Map<String, Collection<String>> headers = new HashMap<>();
+        if (eTag != null) {
+            headers.put("ETag", List.of(eTag));
+        }
+        Response.Builder builder = Response.builder().status(status).reason("reason").headers(headers);
+        return body == null ? builder : builder.body(body, StandardCharsets.UTF_8);
+    }
+
+    private static String body(Response response) throws IOException {
+        return Util.toString(response.body().asReader(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,160 @@
+package medilabo.cache;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ExpiringCacheTest {
+
+    private static final long TTL = Duration.ofMinutes(10).toNanos();
+
+    private final AtomicLong time = new AtomicLong();
+    private ExpiringCache<Integer, String> cache;
+
+    @BeforeEach
+    public void beforeEach() {
+        cache = new ExpiringCache<>(2, time::get);
+    }
+
+    @Test
+    public void get_shouldCountHitsAndMisses() {
+
+        cache.put(1, "one", TTL);
+
+        assertEquals("one", cache.get(1));
+        assertNull(cache.get(2));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void getEntry_withCachedFailure_shouldReturnEntryWithNullValue() {
+
+        cache.put(1, null, TTL);
+
+        assertNotNull(cache.getEntry(1));
+        assertNull(cache.getEntry(1).getValue());
+        assertNull(cache.getEntry(2));
+    }
+
+    @Test
+    public void put_withMaxSizeReached_shouldEvictEntryExpiringFirst() {
+
+        cache.put(1, "one", TTL);
+        time.addAndGet(1);
+        cache.put(2, "two", TTL);
+        cache.put(3, "three", TTL);
+
+        assertNull(cache.get(1));
+        assertEquals("two", cache.get(2));
+        assertEquals("three", cache.get(3));
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void put_withMaxSizeReached_shouldRemoveExpiredEntriesFirst() {
+
+        cache.put(1, "one", Duration.ofSeconds(30).toNanos());
+        cache.put(2, "two", TTL);
+        time.addAndGet(Duration.ofSeconds(30).toNanos());
+        cache.put(3, "three", TTL);
+
+        assertEquals("two", cache.get(2));
+        assertEquals("three", cache.get(3));
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void put_withExistingKeyAndMaxSizeReached_shouldNotEvict() {
+
+        cache.put(1, "one", TTL);
+        cache.put(2, "two", TTL);
+        cache.put(2, "deux", TTL);
+
+        assertEquals("one", cache.get(1));
+        assertEquals("deux", cache.get(2));
+        assertEquals(0, cache.getEvictionCount());
+    }
+
+    @Test
+    public void get_withExpiredEntry_shouldReturnNull() {
+
+        cache.put(1, "one", TTL);
+        time.addAndGet(TTL);
+
+        assertNull(cache.get(1));
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void put_afterInvalidation_shouldNotCacheStaleValue() {
+
+        long generation = cache.generation(1);
+        cache.invalidate(1);
+        cache.put(1, "one", TTL, generation);
+
+        assertNull(cache.get(1));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void put_afterInvalidationOfAnotherKey_shouldCacheValue() {
+
+        long generation = cache.generation(1);
+        cache.invalidate(2);
+        cache.put(1, "one", TTL, generation);
+
+        assertEquals("one", cache.get(1));
+    }
+
+    @Test
+    public void put_withMaxSizeReached_shouldFreeATenthOfTheCache() {
+
+        ExpiringCache<Integer, String> largeCache = new ExpiringCache<>(20, time::get);
+        for (int key = 0; key < 20; key++) {
+            largeCache.put(key, "value", TTL);
+            time.addAndGet(1);
+        }
+        largeCache.put(20, "value", TTL);
+
+        assertNull(largeCache.get(0));
+        assertNull(largeCache.get(1));
+        assertEquals("value", largeCache.get(2));
+        assertEquals("value", largeCache.get(20));
+        assertEquals(19, largeCache.size());
+        assertEquals(2, largeCache.getEvictionCount());
+
+        largeCache.put(21, "value", TTL);
+
+        assertEquals(20, largeCache.size());
+        assertEquals(2, largeCache.getEvictionCount());
+    }
+
+    @Test
+    public void put_withZeroTtlOrSize_shouldNotCache() {
+
+        ExpiringCache<Integer, String> disabledCache = new ExpiringCache<>(0, time::get);
+        cache.put(1, "one", 0);
+        disabledCache.put(1, "one", TTL);
+
+        assertEquals(0, cache.size());
+        assertEquals(0, disabledCache.size());
+    }
+
+    @Test
+    public void invalidateAll_shouldRemoveAllEntries() {
+
+        cache.put(1, "one", TTL);
+        cache.put(2, "two", TTL);
+        cache.invalidateAll();
+
+        assertEquals(0, cache.size());
+    }
+}
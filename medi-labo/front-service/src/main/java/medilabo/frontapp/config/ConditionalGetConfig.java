@@ -0,0 +1,27 @@
+package medilabo.frontapp.config;
+
+import medilabo.cache.ConditionalGetCapability;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+@Configuration
+public class ConditionalGetConfig {
+
+    @Value("${medilabo.conditional-get.max-size}")
+    private DataSize maxSize;
+
+    @Value("${medilabo.conditional-get.max-entry-size}")
+    private DataSize maxEntrySize;
+
+    /**
+     * Declared in the application context rather than in FeignConfig, so that all Feign clients share the same responses.
+     *
+     * @return the Capability revalidating the GET responses of every Feign client with their ETag
+     */
+    @Bean
+    public ConditionalGetCapability conditionalGetCapability() {
+        return new ConditionalGetCapability(maxSize, maxEntrySize);
+    }
+}
@@ -0,0 +1,31 @@
+package medilabo.frontapp.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+@Configuration
+public class ExecutorConfig {
+
+    @Value("${medilabo.front.executor.pool-size}")
+    private int poolSize;
+
+    @Value("${medilabo.front.executor.queue-capacity}")
+    private int queueCapacity;
+
+    /**
+     * Bounded executor used to issue calls to backend services concurrently while a page is rendered. When the queue is full, tasks are rejected instead of running on the request thread, so that the page deadline is kept.
+     *
+     * @return the executor used by RiskService
+     */
+    @Bean
+    public ThreadPoolTaskExecutor frontExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("front-");
+        return executor;
+    }
+}
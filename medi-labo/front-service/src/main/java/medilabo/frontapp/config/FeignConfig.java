@@ -1,32 +1,19 @@
 package medilabo.frontapp.config;
 
-import feign.RequestInterceptor;
-import feign.RequestTemplate;
+import medilabo.security.ServiceTokenInterceptor;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
-import java.util.Base64;
-
 @Configuration
-public class FeignConfig implements RequestInterceptor {
-
-    @Value("${medilabo.user.username}")
-    private String username;
-
-    @Value("${medilabo.user.password}")
-    private String password;
+public class FeignConfig {
 
     /**
-     * Override of the apply method from RequestInterceptor.
-     * Adds Authorization header to requests for Http Basic authentication
-     *
-     * @param requestTemplate
+     * Authenticates the requests sent through the gateway with the ServiceToken it issued, or with Http Basic credentials until one is received.
      */
-    @Override
-    public void apply(RequestTemplate requestTemplate) {
-        String auth = username + ":" + password;
-        byte[] encodedAuth = Base64.getEncoder().encode(auth.getBytes());
-        String authHeader = "Basic " + new String(encodedAuth);
-        requestTemplate.header("Authorization", authHeader);
+    @Bean
+    public ServiceTokenInterceptor serviceTokenInterceptor(@Value("${medilabo.user.username}") String username,
+                                                           @Value("${medilabo.user.password}") String password) {
+        return new ServiceTokenInterceptor(username, password);
     }
 }
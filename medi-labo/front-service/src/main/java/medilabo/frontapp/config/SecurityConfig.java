@@ -1,5 +1,6 @@
 package medilabo.frontapp.config;
 
+import medilabo.security.CachingPasswordEncoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -13,9 +14,12 @@ import org.springframework.security.core.userdetails.User;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.provisioning.InMemoryUserDetailsManager;
 import org.springframework.security.web.SecurityFilterChain;
 
+import java.time.Duration;
+
 @Configuration
 @EnableWebSecurity
 public class SecurityConfig {
@@ -27,6 +31,12 @@ public class SecurityConfig {
     @Value("${medilabo.user.password}")
     private String password;
 
+    @Value("${medilabo.security.credential-cache.ttl}")
+    private Duration credentialCacheTtl;
+
+    @Value("${medilabo.security.credential-cache.max-size}")
+    private int credentialCacheMaxSize;
+
     /**
      * Security Filter Chain that sets up the authentication policy, and implements HTTP Basic authentication
      * @param http HttpSecurity object
@@ -58,8 +68,13 @@ public class SecurityConfig {
         return new InMemoryUserDetailsManager(user);
     }
 
+    /**
+     * BCrypt encoder, wrapped so that successful verifications are cached for a short time instead of being computed on every request.
+     *
+     * @return the PasswordEncoder used for authentication
+     */
     @Bean
-    public BCryptPasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder(10);
+    public PasswordEncoder passwordEncoder() {
+        return new CachingPasswordEncoder(new BCryptPasswordEncoder(10), credentialCacheTtl, credentialCacheMaxSize);
     }
-}
\ No newline at end of file
+}
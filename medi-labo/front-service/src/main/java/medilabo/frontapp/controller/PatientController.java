@@ -1,19 +1,27 @@
 package medilabo.frontapp.controller;
 
 import jakarta.validation.Valid;
-import medilabo.frontapp.model.Note;
+import medilabo.frontapp.model.NotePage;
 import medilabo.frontapp.model.Patient;
+import medilabo.frontapp.model.PatientPage;
 import medilabo.frontapp.service.NoteService;
 import medilabo.frontapp.service.PatientService;
 import medilabo.frontapp.service.RiskService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
 
 @Controller
 public class PatientController {
@@ -22,41 +30,75 @@ public class PatientController {
     private final PatientService patientService;
     private final NoteService noteService;
     private final RiskService riskService;
+    private final Executor frontExecutor;
+    private final int defaultPatientsPageSize;
+    private final int maxPatientsPageSize;
+    private final int defaultNotesPageSize;
+    private final int maxNotesPageSize;
 
-    public PatientController(PatientService patientService, NoteService noteService, RiskService riskService) {
+    public PatientController(PatientService patientService, NoteService noteService, RiskService riskService,
+                             @Qualifier("frontExecutor") Executor frontExecutor,
+                             @Value("${medilabo.front.patients.page.default-size}") int defaultPatientsPageSize,
+                             @Value("${medilabo.front.patients.page.max-size}") int maxPatientsPageSize,
+                             @Value("${medilabo.front.notes.page.default-size}") int defaultNotesPageSize,
+                             @Value("${medilabo.front.notes.page.max-size}") int maxNotesPageSize) {
         this.patientService = patientService;
         this.noteService = noteService;
         this.riskService = riskService;
+        this.frontExecutor = frontExecutor;
+        this.defaultPatientsPageSize = defaultPatientsPageSize;
+        this.maxPatientsPageSize = maxPatientsPageSize;
+        this.defaultNotesPageSize = defaultNotesPageSize;
+        this.maxNotesPageSize = maxNotesPageSize;
     }
 
     /**
-     * Displays the patients template populated with the list of patients. Model services request patient data from backend services.
+     * Displays the patients template populated with a page of patients. Model services request patient data from backend services.
+     * Risk levels are requested concurrently, and patients whose risk level is not retrieved in time are displayed with a pending risk level.
      *
+     * @param cursor the cursor of the page, absent for the first page
+     * @param size   the number of patients per page, capped to the maximum page size
      * @param model
-     * @return patients template
+     * @return patients template, or error template with 400 status if the size is not positive
      */
     @GetMapping("/patients")
-    public String getPatients(Model model) {
+    public String getPatients(@RequestParam(value = "cursor", required = false) String cursor,
+                              @RequestParam(value = "size", required = false) Integer size, Model model) {
         logger.info("GetMapping for /patients");
-        List<Patient> patients = patientService.getAllPatients();
-        if (patients == null) {
+        int pageSize = pageSize(size, defaultPatientsPageSize, maxPatientsPageSize);
+        if (pageSize < 1) {
+            logger.error("Invalid page request: size {}", size);
+            model.addAttribute("status", 400);
+            model.addAttribute("error", "Bad request");
+            model.addAttribute("message", "Le nombre de patients par page doit être positif.");
+            return "error";
+        }
+        model.addAttribute("pageSize", pageSize);
+        PatientPage patientPage = patientService.getPatientPage(pageSize, cursor);
+        if (patientPage == null) {
             model.addAttribute("emptyListError", "Il n'y a aucun patient");
             return "patients";
         }
+        List<Patient> patients = patientPage.getPatients();
 
+        Map<Integer, String> riskLevels = riskService.getRisksByPatientIds(patients.stream().map(Patient::getId).toList());
         for (Patient patient : patients) {
-            String riskLevel = riskService.getRiskByPatientId(patient.getId());
-            if (riskLevel != null) {
-                patient.setRiskLevel(riskLevel);
+            if (!riskLevels.containsKey(patient.getId())) {
+                patient.setRiskLevel(RiskService.PENDING);
+            } else if (riskLevels.get(patient.getId()) != null) {
+                patient.setRiskLevel(riskLevels.get(patient.getId()));
             }
         }
 
         model.addAttribute("patients", patients);
+        model.addAttribute("nextCursor", patientPage.getNextCursor());
+        model.addAttribute("firstPage", cursor == null);
         return "patients";
     }
 
     /**
      * Fetches the patient-details template and populates it with patient details gathered from backend services.
+     * Notes and risk level only need the id, so they are requested concurrently with the patient, and cancelled if the patient does not exist. Only the most recent notes are displayed, older ones are loaded on demand.
      *
      * @param id    the id of the desired patient
      * @param model
@@ -66,24 +108,32 @@ public class PatientController {
     public String getPatient(@PathVariable("id") int id, Model model) {
         logger.info("GetMapping for /patients/{}", id);
 
+        CompletableFuture<NotePage> notesFuture = supplyAsync(() -> noteService.getNotePage(id, defaultNotesPageSize, null));
+        CompletableFuture<String> riskFuture = supplyAsync(() -> riskService.getRiskByPatientId(id));
+
         Patient patient = patientService.getPatient(id);
         if (patient == null) {
+            // Notes and risk level are not displayed without the patient: requests still queued on frontExecutor will not be sent, and results of running ones are ignored
+            notesFuture.cancel(false);
+            riskFuture.cancel(false);
             model.addAttribute("status", 404);
             model.addAttribute("error", "Not found");
             model.addAttribute("message", "Le patient id : " + id + " n'existe pas.");
             return "error";
         }
 
-        List<Note> notes = noteService.getNotesByPatientId(id);
-        if (notes == null) {
+        NotePage notePage = notesFuture.join();
+        if (notePage == null) {
             model.addAttribute("noNotesError", "Impossible de récupérer les notes");
-        } else if (notes.isEmpty()) {
+        } else if (notePage.getNotes().isEmpty()) {
             model.addAttribute("noNotesError", "Aucune note pour ce patient");
         } else {
-            patient.setNotes(notes);
+            patient.setNotes(notePage.getNotes());
+            model.addAttribute("notesNextCursor", notePage.getNextCursor());
+            model.addAttribute("notesLimit", defaultNotesPageSize);
         }
 
-        String riskLevel = riskService.getRiskByPatientId(id);
+        String riskLevel = riskFuture.join();
         if (riskLevel == null) {
             model.addAttribute("riskError", "Impossible de calculer le risque");
         } else {
@@ -94,6 +144,37 @@ public class PatientController {
         return "patient-details";
     }
 
+    /**
+     * Fetches the next page of notes of a patient, displayed below the notes already loaded in the patient-details template.
+     *
+     * @param id     the id of the patient
+     * @param cursor the cursor of the page, given with the previous page
+     * @param limit  the number of notes of the page, capped to the maximum page size
+     * @param model
+     * @return the notes fragment of the patient-details template, with an error if the limit is not positive
+     */
+    @GetMapping("/patients/{id}/notes")
+    public String getMoreNotes(@PathVariable("id") int id, @RequestParam("cursor") String cursor,
+                               @RequestParam(value = "limit", required = false) Integer limit, Model model) {
+        logger.info("GetMapping for /patients/{}/notes", id);
+        int pageSize = pageSize(limit, defaultNotesPageSize, maxNotesPageSize);
+        NotePage notePage = null;
+        if (pageSize < 1) {
+            logger.error("Invalid page request: limit {}", limit);
+        } else {
+            notePage = noteService.getNotePage(id, pageSize, cursor);
+        }
+        if (notePage == null) {
+            model.addAttribute("notesError", "Impossible de récupérer les notes");
+        } else {
+            model.addAttribute("notes", notePage.getNotes());
+            model.addAttribute("notesNextCursor", notePage.getNextCursor());
+            model.addAttribute("notesLimit", pageSize);
+        }
+        model.addAttribute("patientId", id);
+        return "patient-details :: notes";
+    }
+
     /**
      * Fetches the add-patient template form for a new patient
      *
@@ -183,11 +264,32 @@ public class PatientController {
             return "redirect:/patients";
         } else {
             logger.error("Patient with id {} not found", id);
-            List<Patient> patients = patientService.getAllPatients();
-            model.addAttribute("patients", patients);
+            PatientPage patientPage = patientService.getPatientPage(defaultPatientsPageSize, null);
+            if (patientPage == null) {
+                model.addAttribute("emptyListError", "Il n'y a aucun patient");
+            } else {
+                model.addAttribute("patients", patientPage.getPatients());
+                model.addAttribute("nextCursor", patientPage.getNextCursor());
+                model.addAttribute("firstPage", true);
+            }
+            model.addAttribute("pageSize", defaultPatientsPageSize);
             model.addAttribute("deletePatientError", "Impossible de supprimer le Patient");
             return "patients";
         }
     }
-}
 
+    private static int pageSize(Integer size, int defaultSize, int maxSize) {
+        return size == null ? defaultSize : Math.min(size, maxSize);
+    }
+
+    /**
+     * Runs a backend request on frontExecutor, or on the calling thread if the executor is saturated.
+     */
+    private <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier) {
+        try {
+            return CompletableFuture.supplyAsync(supplier, frontExecutor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.completedFuture(supplier.get());
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package medilabo.frontapp.model;
+
+import java.util.List;
+
+/**
+ * One page of the notes of a patient as returned by the notes-service module, newest first, with the cursor of the next page.
+ */
+public class NotePage {
+
+    private final List<Note> notes;
+    private final String nextCursor;
+
+    public NotePage(List<Note> notes, String nextCursor) {
+        this.notes = notes;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<Note> getNotes() {
+        return notes;
+    }
+
+    /**
+     * @return the cursor to request the next (older) notes, or null if this page is the last one
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+}
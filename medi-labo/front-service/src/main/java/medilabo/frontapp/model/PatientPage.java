@@ -0,0 +1,28 @@
+package medilabo.frontapp.model;
+
+import java.util.List;
+
+/**
+ * One page of patients as returned by the patients-service module, with the cursor of the next page.
+ */
+public class PatientPage {
+
+    private final List<Patient> patients;
+    private final String nextCursor;
+
+    public PatientPage(List<Patient> patients, String nextCursor) {
+        this.patients = patients;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<Patient> getPatients() {
+        return patients;
+    }
+
+    /**
+     * @return the cursor to request the next page, or null if this page is the last one
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+}
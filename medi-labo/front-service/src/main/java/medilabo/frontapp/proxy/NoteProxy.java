@@ -9,6 +9,7 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 
 import java.util.List;
 
@@ -21,8 +22,15 @@ import java.util.List;
 @FeignClient(name = "gateway-service", contextId = "notes-service", configuration = FeignConfig.class)
 public interface NoteProxy {
 
+    String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    /**
+     * Gets a page of the notes of a patient, newest first. The cursor of the next page, if any, is sent in the X-Next-Cursor header.
+     */
     @GetMapping("/notes-service/notes/{patientId}")
-    ResponseEntity<List<Note>> getNotesByPatientId(@PathVariable("patientId") int patientId);
+    ResponseEntity<List<Note>> getNotesByPatientId(@PathVariable("patientId") int patientId,
+                                                   @RequestParam("limit") int limit,
+                                                   @RequestParam(value = "cursor", required = false) String cursor);
 
     @PostMapping("/notes-service/notes")
     ResponseEntity<Note> createNote(@RequestBody Note note);
@@ -18,8 +18,14 @@ import java.util.List;
 @FeignClient(name = "gateway-service", contextId = "patients-service", configuration = FeignConfig.class)
 public interface PatientProxy {
 
-    @GetMapping("/patients-service/patients")
-    ResponseEntity<List<Patient>> getAllPatients();
+    String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    /**
+     * Gets a page of patient summaries, without address and phone number. The cursor of the next page, if any, is sent in the X-Next-Cursor header.
+     */
+    @GetMapping("/patients-service/patients/list")
+    ResponseEntity<List<Patient>> getPatients(@RequestParam("size") int size,
+                                              @RequestParam(value = "cursor", required = false) String cursor);
 
     @GetMapping("/patients-service/patients/{id}")
     ResponseEntity<Patient> getPatient(@PathVariable("id") int id);
@@ -6,6 +6,11 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Repository;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+
+import java.util.Collection;
+import java.util.Map;
 
 /**
  * This interface uses Feign Client to build requests that are sent to the risks-service module, through the gateway.
@@ -18,4 +23,7 @@ public interface RiskProxy {
 
     @GetMapping("/risks-service/risks/{id}")
     ResponseEntity<String> getRiskLevelByPatientId(@PathVariable("id") int patientId);
+
+    @PostMapping("/risks-service/risks/batch")
+    ResponseEntity<Map<Integer, String>> getRiskLevelsByPatientIds(@RequestBody Collection<Integer> patientIds);
 }
@@ -2,6 +2,7 @@ package medilabo.frontapp.service;
 
 import feign.FeignException;
 import medilabo.frontapp.model.Note;
+import medilabo.frontapp.model.NotePage;
 import medilabo.frontapp.proxy.NoteProxy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -29,22 +30,24 @@ public class NoteService {
     }
 
     /**
-     * Retrieves notes for a patient, from the notes-service module
+     * Retrieves a page of notes for a patient, newest first, from the notes-service module
      *
      * @param patientId
-     * @return the list of Notes if successful, an empty List if patient has no notes, or null if an error is encountered.
+     * @param limit     the number of notes of the page
+     * @param cursor    the cursor of the page, or null for the first page
+     * @return the NotePage if successful, with an empty List if patient has no (more) notes, or null if an error is encountered.
      */
-    public List<Note> getNotesByPatientId(int patientId) {
+    public NotePage getNotePage(int patientId, int limit, String cursor) {
         try {
-            ResponseEntity<List<Note>> response = noteProxy.getNotesByPatientId(patientId);
+            ResponseEntity<List<Note>> response = noteProxy.getNotesByPatientId(patientId, limit, cursor);
             List<Note> notes = response.getBody();
             int statusCode = response.getStatusCode().value();
             if (statusCode == 200 && notes != null && !notes.isEmpty()) {
                 logger.info("Successfully retrieved notes");
-                return notes;
+                return new NotePage(notes, response.getHeaders().getFirst(NoteProxy.NEXT_CURSOR_HEADER));
             } else if (statusCode == 204) {
                 logger.info("No notes found");
-                return new ArrayList<>();
+                return new NotePage(new ArrayList<>(), null);
             }
             logger.error("Error retrieving notes. Error: {}", statusCode);
             return null;
@@ -65,7 +68,7 @@ public class NoteService {
             ResponseEntity<Note> response = noteProxy.createNote(note);
             int statusCode = response.getStatusCode().value();
             if (statusCode == 201) {
-                riskService.risksCache.remove(note.getPatientId());
+                riskService.evictRisk(note.getPatientId());
                 logger.info("Successfully added note. RiskLevel for patient {} removed from cache", note.getPatientId());
                 return true;
             }
@@ -2,6 +2,7 @@ package medilabo.frontapp.service;
 
 import feign.FeignException;
 import medilabo.frontapp.model.Patient;
+import medilabo.frontapp.model.PatientPage;
 import medilabo.frontapp.proxy.PatientProxy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,17 +29,19 @@ public class PatientService {
     }
 
     /**
-     * Retrieves a List of all the patients from the patients-service module.
+     * Retrieves a page of patients from the patients-service module.
      *
-     * @return the List of all the patients if successful, or null if there are no patients or if an error is encountered.
+     * @param size   the number of patients of the page
+     * @param cursor the cursor of the page, or null for the first page
+     * @return the PatientPage if successful, or null if there are no patients or if an error is encountered.
      */
-    public List<Patient> getAllPatients() {
+    public PatientPage getPatientPage(int size, String cursor) {
         try {
-            ResponseEntity<List<Patient>> response = patientProxy.getAllPatients();
+            ResponseEntity<List<Patient>> response = patientProxy.getPatients(size, cursor);
             int statusCode = response.getStatusCode().value();
             if (statusCode == 200) {
                 logger.info("Successfully retrieved patient list");
-                return response.getBody();
+                return new PatientPage(response.getBody(), response.getHeaders().getFirst(PatientProxy.NEXT_CURSOR_HEADER));
             } else if (statusCode == 204) {
                 logger.info("No patients found");
                 return null;
@@ -110,7 +113,7 @@ public class PatientService {
             ResponseEntity<Patient> response = patientProxy.updatePatient(id, patient);
             int statusCode = response.getStatusCode().value();
             if (statusCode == 200) {
-                riskService.risksCache.remove(id);
+                riskService.evictRisk(id);
                 logger.info("Patient with id {} updated successfully. RiskLevel removed from cache.", id);
                 return true;
             }
@@ -136,7 +139,8 @@ public class PatientService {
             ResponseEntity<Patient> response = patientProxy.deletePatient(id);
             int statusCode = response.getStatusCode().value();
             if (statusCode == 200) {
-                logger.info("Patient with id {} deleted successfully", id);
+                riskService.evictRisk(id);
+                logger.info("Patient with id {} deleted successfully. RiskLevel removed from cache.", id);
                 return true;
             }
             logger.error("Problem deleting patient. Error: {} ", statusCode);
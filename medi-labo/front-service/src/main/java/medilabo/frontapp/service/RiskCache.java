@@ -0,0 +1,64 @@
+package medilabo.frontapp.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import medilabo.cache.ExpiringCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded cache of the risk levels displayed by the front, used by RiskService.
+ * Entries expire after a time-to-live, and the entry that expires first is evicted when the maximum size is reached.
+ * Failed lookups are cached as null with a shorter time-to-live, so that an unavailable risks-service is not called for every patient of every page.
+ * Hits, misses, evictions and size are registered as cache.* metrics with the tag cache=risks.
+ *
+ * @see RiskService
+ * @see ExpiringCache
+ */
+@Component
+public class RiskCache extends ExpiringCache<Integer, String> {
+
+    static final String CACHE_NAME = "risks";
+
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+
+    @Autowired
+    public RiskCache(@Value("${medilabo.front.risk-cache.max-size}") int maxSize,
+                     @Value("${medilabo.front.risk-cache.ttl}") Duration ttl,
+                     @Value("${medilabo.front.risk-cache.negative-ttl}") Duration negativeTtl,
+                     MeterRegistry meterRegistry) {
+        this(maxSize, ttl, negativeTtl, System::nanoTime);
+        bindMetrics(meterRegistry, CACHE_NAME);
+    }
+
+    RiskCache(int maxSize, Duration ttl, Duration negativeTtl, LongSupplier ticker) {
+        super(maxSize, ticker);
+        this.ttlNanos = ttl.toNanos();
+        this.negativeTtlNanos = negativeTtl.toNanos();
+    }
+
+    /**
+     * Caches a risk level, or a failure if riskLevel is null.
+     *
+     * @param patientId
+     * @param riskLevel
+     */
+    public void put(int patientId, String riskLevel) {
+        super.put(patientId, riskLevel, riskLevel == null ? negativeTtlNanos : ttlNanos);
+    }
+
+    /**
+     * Caches a risk level retrieved from risks-service, or a failure if riskLevel is null, unless the patient was invalidated since the request started.
+     *
+     * @param patientId
+     * @param riskLevel
+     * @param generation the generation read with {@link #generation(Object)} before the request
+     */
+    public void put(int patientId, String riskLevel, long generation) {
+        super.put(patientId, riskLevel, riskLevel == null ? negativeTtlNanos : ttlNanos, generation);
+    }
+}
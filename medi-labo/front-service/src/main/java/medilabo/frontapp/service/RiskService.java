@@ -1,54 +1,220 @@
 package medilabo.frontapp.service;
 
 import feign.FeignException;
+import medilabo.cache.ExpiringCache;
 import medilabo.frontapp.proxy.RiskProxy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Service used to handle Response entities received from the proxy interface, regarding RiskLevel String objects.
  *
  * @see RiskProxy
+ * @see RiskCache
  */
 @Service
 public class RiskService {
     private final Logger logger = LoggerFactory.getLogger(RiskService.class);
 
+    /**
+     * Risk level displayed for a patient whose risk could not be retrieved before the deadline.
+     */
+    public static final String PENDING = "PENDING";
+
     private final RiskProxy riskProxy;
-    protected final Map<Integer, String> risksCache = new ConcurrentHashMap<>();
+    private final RiskCache riskCache;
+    private final Executor frontExecutor;
+    private final Duration fanOutTimeout;
 
-    public RiskService(RiskProxy riskProxy) {
+    public RiskService(RiskProxy riskProxy, RiskCache riskCache,
+                       @Qualifier("frontExecutor") Executor frontExecutor,
+                       @Value("${medilabo.front.risk-fan-out.timeout}") Duration fanOutTimeout) {
         this.riskProxy = riskProxy;
+        this.riskCache = riskCache;
+        this.frontExecutor = frontExecutor;
+        this.fanOutTimeout = fanOutTimeout;
     }
 
     /**
-     * Checks in riskCache Map if an entry already exists with that ID, so that the risk won't be calculated if it already has been. If the ID is absent from the Map, then retrieves the RiskLevel for that ID and adds it to the cache Map.
+     * Checks in RiskCache if an entry already exists with that ID, so that the risk won't be calculated if it already has been. If the ID is absent from the cache or has expired, then retrieves the RiskLevel for that ID and adds it to the cache.
+     * Failures are cached too, for a shorter time. A risk level is not cached if the risk of the patient is evicted while it is being retrieved.
      *
      * @param patientId
      * @return risk level String if successful, null if an error is encountered.
      */
     public String getRiskByPatientId(int patientId) {
-        risksCache.computeIfAbsent(patientId, id -> {
+        ExpiringCache.Entry<String> entry = riskCache.getEntry(patientId);
+        if (entry != null) {
+            return entry.getValue();
+        }
+        return loadRisk(patientId);
+    }
+
+    private String loadRisk(int patientId) {
+        long generation = riskCache.generation(patientId);
+        String riskLevel = fetchRisk(patientId);
+        riskCache.put(patientId, riskLevel, generation);
+        return riskLevel;
+    }
+
+    /**
+     * Retrieves the risk levels of several patients. Cached risk levels are returned directly, and cache misses are requested to risks-service with a single batch request on frontExecutor.
+     * If the batch request fails, cache misses are requested one by one, concurrently on frontExecutor.
+     * The method waits for the requests until the fan-out timeout. Requests still running then go on in the background and fill the cache for the next call.
+     *
+     * @param patientIds
+     * @return a Map of the risk levels by patient ID. Values are null if an error was encountered. IDs whose risk level was not retrieved before the timeout are absent from the Map.
+     */
+    public Map<Integer, String> getRisksByPatientIds(Collection<Integer> patientIds) {
+        Map<Integer, String> risks = new LinkedHashMap<>();
+        Set<Integer> missingIds = new LinkedHashSet<>();
+        for (int patientId : patientIds) {
+            if (risks.containsKey(patientId) || missingIds.contains(patientId)) {
+                continue;
+            }
+            ExpiringCache.Entry<String> entry = riskCache.getEntry(patientId);
+            if (entry != null) {
+                risks.put(patientId, entry.getValue());
+            } else {
+                missingIds.add(patientId);
+            }
+        }
+        if (missingIds.isEmpty()) {
+            return risks;
+        }
+
+        long deadline = System.nanoTime() + fanOutTimeout.toNanos();
+        Map<Integer, String> batchRisks;
+        try {
+            batchRisks = CompletableFuture.supplyAsync(() -> loadRisks(missingIds), frontExecutor)
+                    .get(fanOutTimeout.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            logger.warn("Batch risk level request rejected, executor is saturated");
+            return risks;
+        } catch (TimeoutException e) {
+            logger.warn("Risk levels not retrieved within {} ms", fanOutTimeout.toMillis());
+            return risks;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return risks;
+        } catch (ExecutionException e) {
+            logger.error("Problem retrieving risk levels.", e);
+            batchRisks = null;
+        }
+        if (batchRisks != null) {
+            risks.putAll(batchRisks);
+            return risks;
+        }
+
+        Map<Integer, CompletableFuture<String>> pendingRisks = new LinkedHashMap<>();
+        for (int patientId : missingIds) {
             try {
-                ResponseEntity<String> response = riskProxy.getRiskLevelByPatientId(patientId);
-                String riskLevel = response.getBody();
-                int statusCode = response.getStatusCode().value();
-                if (statusCode == 200) {
-                    logger.info("Risk level recovered successfully for patient {}", patientId);
-                    return riskLevel;
-                }
-                logger.error("Problem retrieving risk level. Error: {} ", statusCode);
-                return null;
-            } catch (FeignException e) {
-                logger.error("Problem retrieving risk level.", e);
-                return null;
+                pendingRisks.put(patientId, CompletableFuture.supplyAsync(() -> loadRisk(patientId), frontExecutor));
+            } catch (RejectedExecutionException e) {
+                logger.warn("Risk level request for patient {} rejected, executor is saturated", patientId);
+            }
+        }
+        try {
+            CompletableFuture.allOf(pendingRisks.values().toArray(new CompletableFuture[0]))
+                    .get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            logger.warn("Risk levels not all retrieved within {} ms", fanOutTimeout.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.error("Problem retrieving risk levels.", e);
+        }
+        pendingRisks.forEach((patientId, future) -> {
+            if (future.isDone() && !future.isCompletedExceptionally()) {
+                risks.put(patientId, future.join());
             }
         });
-        return risksCache.get(patientId);
+        return risks;
+    }
+
+    /**
+     * Requests the risk levels of several patients at once and adds them to the cache. Patients absent from the response are cached as failures.
+     * Risk levels of patients evicted while the request is running are not cached.
+     *
+     * @return a Map of the risk levels by patient ID, or null if the batch request failed
+     */
+    private Map<Integer, String> loadRisks(Collection<Integer> patientIds) {
+        Map<Integer, Long> generations = new HashMap<>();
+        for (int patientId : patientIds) {
+            generations.put(patientId, riskCache.generation(patientId));
+        }
+        Map<Integer, String> fetchedRisks = fetchRisks(patientIds);
+        if (fetchedRisks == null) {
+            return null;
+        }
+        Map<Integer, String> risks = new LinkedHashMap<>();
+        for (int patientId : patientIds) {
+            String riskLevel = fetchedRisks.get(patientId);
+            long generation = generations.get(patientId);
+            riskCache.put(patientId, riskLevel, generation);
+            risks.put(patientId, riskLevel);
+        }
+        return risks;
+    }
+
+    /**
+     * Removes the risk level of a patient from the cache, so that it is calculated again on next request. Must be called when the patient or its notes change.
+     *
+     * @param patientId
+     */
+    public void evictRisk(int patientId) {
+        riskCache.invalidate(patientId);
+    }
+
+    private String fetchRisk(int patientId) {
+        try {
+            ResponseEntity<String> response = riskProxy.getRiskLevelByPatientId(patientId);
+            String riskLevel = response.getBody();
+            int statusCode = response.getStatusCode().value();
+            if (statusCode == 200) {
+                logger.info("Risk level recovered successfully for patient {}", patientId);
+                return riskLevel;
+            }
+            logger.error("Problem retrieving risk level. Error: {} ", statusCode);
+            return null;
+        } catch (FeignException e) {
+            logger.error("Problem retrieving risk level.", e);
+            return null;
+        }
+    }
+
+    private Map<Integer, String> fetchRisks(Collection<Integer> patientIds) {
+        try {
+            ResponseEntity<Map<Integer, String>> response = riskProxy.getRiskLevelsByPatientIds(patientIds);
+            Map<Integer, String> riskLevels = response.getBody();
+            int statusCode = response.getStatusCode().value();
+            if (statusCode == 200 && riskLevels != null) {
+                logger.info("Risk levels recovered successfully for {} patients", riskLevels.size());
+                return riskLevels;
+            }
+            logger.error("Problem retrieving risk levels. Error: {} ", statusCode);
+            return null;
+        } catch (FeignException e) {
+            logger.error("Problem retrieving risk levels.", e);
+            return null;
+        }
     }
 }
@@ -63,7 +63,7 @@ public class PatientControllerIT {
     @WithMockUser
     public void getPatients_shouldReturnPatients() throws Exception {
 
-        when(patientProxy.getAllPatients())
+        when(patientProxy.getPatients(anyInt(), any()))
                 .thenReturn(new ResponseEntity<>(List.of(new Patient()), HttpStatus.OK));
 
         when(riskProxy.getRiskLevelByPatientId(anyInt()))
@@ -73,7 +73,7 @@ public class PatientControllerIT {
                 .andExpect(view().name("patients"))
                 .andExpect(model().attributeExists("patients"));
 
-        verify(patientProxy).getAllPatients();
+        verify(patientProxy).getPatients(anyInt(), any());
     }
 
     @Test
@@ -81,7 +81,7 @@ public class PatientControllerIT {
     public void getPatient_shouldReturnPatientDetails() throws Exception {
         when(patientProxy.getPatient(anyInt()))
                 .thenReturn(new ResponseEntity<>(patient, HttpStatus.OK));
-        when(noteProxy.getNotesByPatientId(anyInt()))
+        when(noteProxy.getNotesByPatientId(anyInt(), anyInt(), any()))
                 .thenReturn(new ResponseEntity<>(List.of(new Note()), HttpStatus.OK));
         when(riskProxy.getRiskLevelByPatientId(anyInt()))
                 .thenReturn(new ResponseEntity<>("riskLevel", HttpStatus.OK));
@@ -93,7 +93,7 @@ public class PatientControllerIT {
         assertNotNull(patient.getNotes());
         assertEquals("riskLevel", patient.getRiskLevel());
         verify(patientProxy).getPatient(anyInt());
-        verify(noteProxy).getNotesByPatientId(anyInt());
+        verify(noteProxy).getNotesByPatientId(anyInt(), anyInt(), any());
         verify(riskProxy).getRiskLevelByPatientId(anyInt());
     }
 
@@ -1,5 +1,6 @@
 package medilabo.frontapp;
 
+import medilabo.frontapp.config.ExecutorConfig;
 import medilabo.frontapp.config.SecurityConfig;
 import medilabo.frontapp.controller.PatientController;
 import medilabo.frontapp.service.NoteService;
@@ -19,7 +20,7 @@ import static org.springframework.test.web.servlet.request.MockMvcRequestBuilder
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @WebMvcTest(PatientController.class)
-@Import(SecurityConfig.class)
+@Import({SecurityConfig.class, ExecutorConfig.class})
 @ActiveProfiles("test")
 public class SecurityTest {
 
@@ -1,8 +1,11 @@
 package medilabo.frontapp.controller;
 
+import medilabo.frontapp.config.ExecutorConfig;
 import medilabo.frontapp.config.SecurityConfig;
 import medilabo.frontapp.model.Note;
+import medilabo.frontapp.model.NotePage;
 import medilabo.frontapp.model.Patient;
+import medilabo.frontapp.model.PatientPage;
 import medilabo.frontapp.service.NoteService;
 import medilabo.frontapp.service.PatientService;
 import medilabo.frontapp.service.RiskService;
@@ -21,12 +24,18 @@ import org.springframework.test.web.servlet.MockMvc;
 
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
 
 import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.Mockito.*;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
@@ -35,7 +44,7 @@ import static org.springframework.test.web.servlet.request.MockMvcRequestBuilder
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
 @WebMvcTest(PatientController.class)
-@Import(SecurityConfig.class)
+@Import({SecurityConfig.class, ExecutorConfig.class})
 @ActiveProfiles("test")
 public class PatientControllerTest {
 
@@ -61,27 +70,94 @@ public class PatientControllerTest {
     @WithMockUser
     public void getPatients_shouldReturnPatients() throws Exception {
 
-        when(patientService.getAllPatients()).thenReturn(List.of(new Patient()));
+        when(patientService.getPatientPage(anyInt(), any())).thenReturn(new PatientPage(List.of(new Patient()), null));
+
+        mockMvc.perform(get("/patients"))
+                .andExpect(view().name("patients"))
+                .andExpect(model().attributeExists("patients"))
+                .andExpect(model().attribute("firstPage", true));
+
+        verify(patientService).getPatientPage(20, null);
+    }
+
+    @Test
+    @WithMockUser
+    public void getPatients_withCursor_shouldReturnNextPageAndItsCursor() throws Exception {
+
+        when(patientService.getPatientPage(anyInt(), any())).thenReturn(new PatientPage(List.of(new Patient()), "next"));
+
+        mockMvc.perform(get("/patients").param("cursor", "cursor"))
+                .andExpect(view().name("patients"))
+                .andExpect(model().attribute("nextCursor", "next"))
+                .andExpect(model().attribute("firstPage", false));
+
+        verify(patientService).getPatientPage(20, "cursor");
+    }
+
+    @Test
+    @WithMockUser
+    public void getPatients_shouldSetRiskLevelsOrPending() throws Exception {
+
+        Patient resolvedPatient = new Patient();
+        resolvedPatient.setId(1);
+        Patient failedPatient = new Patient();
+        failedPatient.setId(2);
+        Patient pendingPatient = new Patient();
+        pendingPatient.setId(3);
+        Map<Integer, String> riskLevels = new HashMap<>();
+        riskLevels.put(1, "NONE");
+        riskLevels.put(2, null);
+        when(patientService.getPatientPage(anyInt(), any())).thenReturn(new PatientPage(List.of(resolvedPatient, failedPatient, pendingPatient), null));
+        when(riskService.getRisksByPatientIds(anyCollection())).thenReturn(riskLevels);
 
         mockMvc.perform(get("/patients"))
                 .andExpect(view().name("patients"))
                 .andExpect(model().attributeExists("patients"));
 
-        verify(patientService).getAllPatients();
+        assertEquals("NONE", resolvedPatient.getRiskLevel());
+        assertNull(failedPatient.getRiskLevel());
+        assertEquals(RiskService.PENDING, pendingPatient.getRiskLevel());
+        verify(riskService).getRisksByPatientIds(anyCollection());
+        verify(riskService, never()).getRiskByPatientId(anyInt());
     }
 
     @Test
     @WithMockUser
     public void getPatients_withNoPatients_shouldReturnPatientsWithError() throws Exception {
 
-        when(patientService.getAllPatients()).thenReturn(null);
+        when(patientService.getPatientPage(anyInt(), any())).thenReturn(null);
 
         mockMvc.perform(get("/patients"))
                 .andExpect(view().name("patients"))
                 .andExpect(model().attributeDoesNotExist("patients"))
                 .andExpect(model().attributeExists("emptyListError"));
 
-        verify(patientService).getAllPatients();
+        verify(patientService).getPatientPage(20, null);
+    }
+
+    @Test
+    @WithMockUser
+    public void getPatients_withSizeAboveMax_shouldCapIt() throws Exception {
+
+        when(patientService.getPatientPage(anyInt(), any())).thenReturn(new PatientPage(List.of(new Patient()), "next"));
+
+        mockMvc.perform(get("/patients").param("size", "1000"))
+                .andExpect(view().name("patients"))
+                .andExpect(model().attribute("pageSize", 100))
+                .andExpect(content().string(containsString("cursor=next&amp;size=100")));
+
+        verify(patientService).getPatientPage(100, null);
+    }
+
+    @Test
+    @WithMockUser
+    public void getPatients_withZeroSize_shouldReturnBadRequestError() throws Exception {
+
+        mockMvc.perform(get("/patients").param("size", "0"))
+                .andExpect(view().name("error"))
+                .andExpect(model().attribute("status", 400));
+
+        verify(patientService, never()).getPatientPage(anyInt(), any());
     }
 
     @Test
@@ -89,7 +165,7 @@ public class PatientControllerTest {
     public void getPatient_shouldReturnPatientDetails() throws Exception {
 
         when(patientService.getPatient(anyInt())).thenReturn(validPatient);
-        when(noteService.getNotesByPatientId(anyInt())).thenReturn(List.of(new Note()));
+        when(noteService.getNotePage(anyInt(), anyInt(), any())).thenReturn(new NotePage(List.of(new Note()), null));
         when(riskService.getRiskByPatientId(anyInt())).thenReturn("riskLevel");
 
         mockMvc.perform(get("/patients/1"))
@@ -99,10 +175,101 @@ public class PatientControllerTest {
         assertNotNull(validPatient.getNotes());
         assertEquals("riskLevel", validPatient.getRiskLevel());
         verify(patientService).getPatient(anyInt());
-        verify(noteService).getNotesByPatientId(anyInt());
+        verify(noteService).getNotePage(1, 20, null);
         verify(riskService).getRiskByPatientId(anyInt());
     }
 
+    @Test
+    @WithMockUser
+    public void getPatient_shouldRequestNotesAndRiskConcurrently() throws Exception {
+
+        CountDownLatch latch = new CountDownLatch(2);
+        when(noteService.getNotePage(anyInt(), anyInt(), any())).thenAnswer(invocation -> {
+            latch.countDown();
+            return new NotePage(List.of(new Note()), null);
+        });
+        when(riskService.getRiskByPatientId(anyInt())).thenAnswer(invocation -> {
+            latch.countDown();
+            return "riskLevel";
+        });
+        when(patientService.getPatient(anyInt())).thenAnswer(invocation ->
+                latch.await(5, TimeUnit.SECONDS) ? validPatient : null);
+
+        mockMvc.perform(get("/patients/1"))
+                .andExpect(view().name("patient-details"))
+                .andExpect(model().attributeExists("patient"));
+
+        assertEquals("riskLevel", validPatient.getRiskLevel());
+    }
+
+    @Test
+    @WithMockUser
+    public void getPatient_withMoreNotes_shouldAddNextCursor() throws Exception {
+
+        when(patientService.getPatient(anyInt())).thenReturn(validPatient);
+        when(noteService.getNotePage(anyInt(), anyInt(), any())).thenReturn(new NotePage(List.of(new Note()), "nextCursor"));
+        when(riskService.getRiskByPatientId(anyInt())).thenReturn("riskLevel");
+
+        mockMvc.perform(get("/patients/1"))
+                .andExpect(view().name("patient-details"))
+                .andExpect(model().attribute("notesNextCursor", "nextCursor"))
+                .andExpect(content().string(containsString("/notes?cursor=nextCursor")));
+    }
+
+    @Test
+    @WithMockUser
+    public void getMoreNotes_shouldReturnNotesFragment() throws Exception {
+
+        Note note = new Note();
+        note.setContent("older note");
+        when(noteService.getNotePage(anyInt(), anyInt(), any())).thenReturn(new NotePage(List.of(note), null));
+
+        mockMvc.perform(get("/patients/1/notes").param("cursor", "cursor"))
+                .andExpect(view().name("patient-details :: notes"))
+                .andExpect(model().attributeExists("notes"))
+                .andExpect(content().string(containsString("older note")))
+                .andExpect(content().string(not(containsString("<html"))));
+
+        verify(noteService).getNotePage(1, 20, "cursor");
+        verify(patientService, never()).getPatient(anyInt());
+    }
+
+    @Test
+    @WithMockUser
+    public void getMoreNotes_withNullNotes_shouldReturnFragmentWithError() throws Exception {
+
+        when(noteService.getNotePage(anyInt(), anyInt(), any())).thenReturn(null);
+
+        mockMvc.perform(get("/patients/1/notes").param("cursor", "cursor"))
+                .andExpect(view().name("patient-details :: notes"))
+                .andExpect(model().attributeExists("notesError"));
+    }
+
+    @Test
+    @WithMockUser
+    public void getMoreNotes_withLimit_shouldCapItAndKeepItForNextPage() throws Exception {
+
+        when(noteService.getNotePage(anyInt(), anyInt(), any())).thenReturn(new NotePage(List.of(new Note()), "nextCursor"));
+
+        mockMvc.perform(get("/patients/1/notes").param("cursor", "cursor").param("limit", "1000"))
+                .andExpect(view().name("patient-details :: notes"))
+                .andExpect(model().attribute("notesLimit", 100))
+                .andExpect(content().string(containsString("cursor=nextCursor&amp;limit=100")));
+
+        verify(noteService).getNotePage(1, 100, "cursor");
+    }
+
+    @Test
+    @WithMockUser
+    public void getMoreNotes_withNegativeLimit_shouldReturnFragmentWithError() throws Exception {
+
+        mockMvc.perform(get("/patients/1/notes").param("cursor", "cursor").param("limit", "-1"))
+                .andExpect(view().name("patient-details :: notes"))
+                .andExpect(model().attributeExists("notesError"));
+
+        verify(noteService, never()).getNotePage(anyInt(), anyInt(), any());
+    }
+
     @Test
     @WithMockUser
     public void getPatient_withNoPatient_shouldReturnError() throws Exception {
@@ -116,12 +283,39 @@ public class PatientControllerTest {
         verify(patientService).getPatient(anyInt());
     }
 
+    @Test
+    @WithMockUser
+    public void getPatient_withNoPatient_shouldReturnErrorWithoutWaitingForNotesAndRisk() throws Exception {
+
+        CountDownLatch release = new CountDownLatch(1);
+        when(noteService.getNotePage(anyInt(), anyInt(), any())).thenAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return new NotePage(List.of(new Note()), null);
+        });
+        when(riskService.getRiskByPatientId(anyInt())).thenAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return "riskLevel";
+        });
+        when(patientService.getPatient(anyInt())).thenReturn(null);
+
+        try {
+            mockMvc.perform(get("/patients/1"))
+                    .andExpect(view().name("error"))
+                    .andExpect(model().attribute("status", 404))
+                    .andExpect(model().attributeDoesNotExist("patient"));
+
+            assertEquals(1, release.getCount());
+        } finally {
+            release.countDown();
+        }
+    }
+
     @Test
     @WithMockUser
     public void getPatient_withNullNotes_shouldReturnPatientDetailsWithError() throws Exception {
 
         when(patientService.getPatient(anyInt())).thenReturn(validPatient);
-        when(noteService.getNotesByPatientId(anyInt())).thenReturn(null);
+        when(noteService.getNotePage(anyInt(), anyInt(), any())).thenReturn(null);
         when(riskService.getRiskByPatientId(anyInt())).thenReturn("riskLevel");
 
         mockMvc.perform(get("/patients/1"))
@@ -130,7 +324,7 @@ public class PatientControllerTest {
 
         assertEquals("riskLevel", validPatient.getRiskLevel());
         verify(patientService).getPatient(anyInt());
-        verify(noteService).getNotesByPatientId(anyInt());
+        verify(noteService).getNotePage(1, 20, null);
         verify(riskService).getRiskByPatientId(anyInt());
     }
 
@@ -139,7 +333,7 @@ public class PatientControllerTest {
     public void getPatient_withEmptyNotes_shouldReturnPatientDetailsWithError() throws Exception {
 
         when(patientService.getPatient(anyInt())).thenReturn(validPatient);
-        when(noteService.getNotesByPatientId(anyInt())).thenReturn(new ArrayList<>());
+        when(noteService.getNotePage(anyInt(), anyInt(), any())).thenReturn(new NotePage(new ArrayList<>(), null));
         when(riskService.getRiskByPatientId(anyInt())).thenReturn("riskLevel");
 
         mockMvc.perform(get("/patients/1"))
@@ -148,7 +342,7 @@ public class PatientControllerTest {
 
         assertEquals("riskLevel", validPatient.getRiskLevel());
         verify(patientService).getPatient(anyInt());
-        verify(noteService).getNotesByPatientId(anyInt());
+        verify(noteService).getNotePage(1, 20, null);
         verify(riskService).getRiskByPatientId(anyInt());
     }
 
@@ -157,7 +351,7 @@ public class PatientControllerTest {
     public void getPatient_withNullRisk_shouldReturnPatientDetailsWithError() throws Exception {
 
         when(patientService.getPatient(anyInt())).thenReturn(validPatient);
-        when(noteService.getNotesByPatientId(anyInt())).thenReturn(List.of(new Note()));
+        when(noteService.getNotePage(anyInt(), anyInt(), any())).thenReturn(new NotePage(List.of(new Note()), null));
         when(riskService.getRiskByPatientId(anyInt())).thenReturn(null);
 
         mockMvc.perform(get("/patients/1"))
@@ -166,7 +360,7 @@ public class PatientControllerTest {
 
         assertNotNull(validPatient.getNotes());
         verify(patientService).getPatient(anyInt());
-        verify(noteService).getNotesByPatientId(anyInt());
+        verify(noteService).getNotePage(1, 20, null);
         verify(riskService).getRiskByPatientId(anyInt());
     }
 
@@ -318,6 +512,7 @@ public class PatientControllerTest {
     public void deletePatient_withError_shouldReturnPatientsWithError() throws Exception {
 
         when(patientService.deletePatient(anyInt())).thenReturn(false);
+        when(patientService.getPatientPage(anyInt(), any())).thenReturn(new PatientPage(List.of(new Patient()), null));
 
         mockMvc.perform(post("/patients/delete/1")
                         .with(csrf()))
@@ -2,10 +2,12 @@ package medilabo.frontapp.service;
 
 import medilabo.frontapp.TestFeignException;
 import medilabo.frontapp.model.Note;
+import medilabo.frontapp.model.NotePage;
 import medilabo.frontapp.proxy.NoteProxy;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.test.context.ActiveProfiles;
@@ -30,51 +32,55 @@ public class NoteServiceTest {
     private NoteService noteService;
 
     @Test
-    public void getNotesByPatientId_shouldReturnNotes() {
+    public void getNotePage_shouldReturnNotesAndCursor() {
 
-        when(noteProxy.getNotesByPatientId(anyInt()))
-                .thenReturn(new ResponseEntity<>(List.of(new Note()), HttpStatus.OK));
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(NoteProxy.NEXT_CURSOR_HEADER, "nextCursor");
+        when(noteProxy.getNotesByPatientId(anyInt(), anyInt(), any()))
+                .thenReturn(new ResponseEntity<>(List.of(new Note()), headers, HttpStatus.OK));
 
-        List<Note> notes = noteService.getNotesByPatientId(1);
+        NotePage notePage = noteService.getNotePage(1, 20, "cursor");
 
-        assertEquals(1, notes.size());
-        verify(noteProxy).getNotesByPatientId(anyInt());
+        assertEquals(1, notePage.getNotes().size());
+        assertEquals("nextCursor", notePage.getNextCursor());
+        verify(noteProxy).getNotesByPatientId(1, 20, "cursor");
     }
 
     @Test
-    public void getNotesByPatientId_withNoContent_shouldReturnEmptyNotes() {
+    public void getNotePage_withNoContent_shouldReturnEmptyNotes() {
 
-        when(noteProxy.getNotesByPatientId(anyInt()))
+        when(noteProxy.getNotesByPatientId(anyInt(), anyInt(), any()))
                 .thenReturn(new ResponseEntity<>(HttpStatus.NO_CONTENT));
 
-        List<Note> notes = noteService.getNotesByPatientId(1);
+        NotePage notePage = noteService.getNotePage(1, 20, null);
 
-        assertTrue(notes.isEmpty());
-        verify(noteProxy).getNotesByPatientId(anyInt());
+        assertTrue(notePage.getNotes().isEmpty());
+        assertNull(notePage.getNextCursor());
+        verify(noteProxy).getNotesByPatientId(anyInt(), anyInt(), any());
     }
 
     @Test
-    public void getNotesByPatientId_withClientBadCode_shouldReturnNull() {
+    public void getNotePage_withClientBadCode_shouldReturnNull() {
 
-        when(noteProxy.getNotesByPatientId(anyInt()))
+        when(noteProxy.getNotesByPatientId(anyInt(), anyInt(), any()))
                 .thenReturn(new ResponseEntity<>(HttpStatus.CREATED));
 
-        List<Note> notes = noteService.getNotesByPatientId(1);
+        NotePage notePage = noteService.getNotePage(1, 20, null);
 
-        assertNull(notes);
-        verify(noteProxy).getNotesByPatientId(anyInt());
+        assertNull(notePage);
+        verify(noteProxy).getNotesByPatientId(anyInt(), anyInt(), any());
     }
 
     @Test
-    public void getNotesByPatientId_withException_shouldReturnNull() {
+    public void getNotePage_withException_shouldReturnNull() {
 
-        when(noteProxy.getNotesByPatientId(anyInt()))
+        when(noteProxy.getNotesByPatientId(anyInt(), anyInt(), any()))
                 .thenThrow(new TestFeignException(500, "message"));
 
-        List<Note> notes = noteService.getNotesByPatientId(1);
+        NotePage notePage = noteService.getNotePage(1, 20, null);
 
-        assertNull(notes);
-        verify(noteProxy).getNotesByPatientId(anyInt());
+        assertNull(notePage);
+        verify(noteProxy).getNotesByPatientId(anyInt(), anyInt(), any());
     }
 
     @Test
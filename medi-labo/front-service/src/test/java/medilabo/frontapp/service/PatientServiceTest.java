@@ -2,10 +2,12 @@ package medilabo.frontapp.service;
 
 import medilabo.frontapp.TestFeignException;
 import medilabo.frontapp.model.Patient;
+import medilabo.frontapp.model.PatientPage;
 import medilabo.frontapp.proxy.PatientProxy;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.test.context.ActiveProfiles;
@@ -29,48 +31,54 @@ public class PatientServiceTest {
     @Autowired
     private PatientService patientService;
 
+    @Autowired
+    private RiskCache riskCache;
+
     @Test
-    public void getAllPatients_with200code_shouldReturnPatients() {
-        when(patientProxy.getAllPatients())
-                .thenReturn(new ResponseEntity<>(List.of(new Patient()), HttpStatus.OK));
+    public void getPatientPage_with200code_shouldReturnPatientsAndNextCursor() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(PatientProxy.NEXT_CURSOR_HEADER, "next");
+        when(patientProxy.getPatients(anyInt(), any()))
+                .thenReturn(new ResponseEntity<>(List.of(new Patient()), headers, HttpStatus.OK));
 
-        List<Patient> patients = patientService.getAllPatients();
+        PatientPage patientPage = patientService.getPatientPage(20, "cursor");
 
-        assertEquals(1, patients.size());
-        verify(patientProxy).getAllPatients();
+        assertEquals(1, patientPage.getPatients().size());
+        assertEquals("next", patientPage.getNextCursor());
+        verify(patientProxy).getPatients(20, "cursor");
     }
 
     @Test
-    public void getAllPatients_with204Code_shouldReturnNull() {
-        when(patientProxy.getAllPatients())
+    public void getPatientPage_with204Code_shouldReturnNull() {
+        when(patientProxy.getPatients(anyInt(), any()))
                 .thenReturn(new ResponseEntity<>(HttpStatus.NO_CONTENT));
 
-        List<Patient> patients = patientService.getAllPatients();
+        PatientPage patientPage = patientService.getPatientPage(20, null);
 
-        assertNull(patients);
-        verify(patientProxy).getAllPatients();
+        assertNull(patientPage);
+        verify(patientProxy).getPatients(20, null);
     }
 
     @Test
-    public void getAllPatients_withOtherSuccessCode_shouldReturnNull() {
-        when(patientProxy.getAllPatients())
+    public void getPatientPage_withOtherSuccessCode_shouldReturnNull() {
+        when(patientProxy.getPatients(anyInt(), any()))
                 .thenReturn(new ResponseEntity<>(HttpStatus.CREATED));
 
-        List<Patient> patients = patientService.getAllPatients();
+        PatientPage patientPage = patientService.getPatientPage(20, null);
 
-        assertNull(patients);
-        verify(patientProxy).getAllPatients();
+        assertNull(patientPage);
+        verify(patientProxy).getPatients(20, null);
     }
 
     @Test
-    public void getAllPatients_withException_shouldReturnNull() {
-        when(patientProxy.getAllPatients())
+    public void getPatientPage_withException_shouldReturnNull() {
+        when(patientProxy.getPatients(anyInt(), any()))
                 .thenThrow(new TestFeignException(500, "message"));
 
-        List<Patient> patients = patientService.getAllPatients();
+        PatientPage patientPage = patientService.getPatientPage(20, null);
 
-        assertNull(patients);
-        verify(patientProxy).getAllPatients();
+        assertNull(patientPage);
+        verify(patientProxy).getPatients(20, null);
     }
 
     @Test
@@ -176,6 +184,17 @@ public class PatientServiceTest {
         verify(patientProxy).deletePatient(anyInt());
     }
 
+    @Test
+    public void deletePatient_withOk_shouldEvictRisk() {
+        riskCache.put(1, "Risk Level");
+        when(patientProxy.deletePatient(anyInt()))
+                .thenReturn(new ResponseEntity<>(HttpStatus.OK));
+
+        patientService.deletePatient(1);
+
+        assertNull(riskCache.get(1));
+    }
+
     @Test
     public void deletePatient_withNotFound_shouldReturnFalse() {
 
@@ -0,0 +1,53 @@
+package medilabo.frontapp.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class RiskCacheTest {
+
+    private final AtomicLong time = new AtomicLong();
+    private RiskCache riskCache;
+
+    @BeforeEach
+    public void beforeEach() {
+        riskCache = new RiskCache(2, Duration.ofMinutes(10), Duration.ofSeconds(30), time::get);
+    }
+
+    @Test
+    public void get_shouldExpireAfterTtl() {
+
+        riskCache.put(1, "None");
+
+        assertEquals("None", riskCache.get(1));
+        time.addAndGet(Duration.ofMinutes(10).toNanos());
+        assertNull(riskCache.get(1));
+    }
+
+    @Test
+    public void get_withFailure_shouldExpireAfterNegativeTtl() {
+
+        riskCache.put(1, null);
+
+        assertNotNull(riskCache.getEntry(1));
+        assertNull(riskCache.getEntry(1).getValue());
+        time.addAndGet(Duration.ofSeconds(30).toNanos());
+        assertNull(riskCache.getEntry(1));
+    }
+
+    @Test
+    public void put_afterInvalidation_shouldNotCacheStaleRisk() {
+
+        long generation = riskCache.generation(1);
+        riskCache.invalidate(1);
+        riskCache.put(1, "None", generation);
+
+        assertNull(riskCache.getEntry(1));
+    }
+}
@@ -2,6 +2,7 @@ package medilabo.frontapp.service;
 
 import medilabo.frontapp.TestFeignException;
 import medilabo.frontapp.proxy.RiskProxy;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
@@ -10,9 +11,18 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -26,6 +36,14 @@ public class RiskServiceTest {
     @Autowired
     private RiskService riskService;
 
+    @Autowired
+    private RiskCache riskCache;
+
+    @BeforeEach
+    public void beforeEach() {
+        riskCache.invalidateAll();
+    }
+
     @Test
     public void getRiskByPatientId_withOkCode_shouldReturnRisk() {
 
@@ -61,4 +79,142 @@ public class RiskServiceTest {
         assertNull(result);
         verify(riskProxy).getRiskLevelByPatientId(anyInt());
     }
+
+    @Test
+    public void getRiskByPatientId_withCachedRisk_shouldNotCallProxyAgain() {
+
+        when(riskProxy.getRiskLevelByPatientId(anyInt()))
+                .thenReturn(new ResponseEntity<>("Risk Level", HttpStatus.OK));
+
+        riskService.getRiskByPatientId(1);
+        String result = riskService.getRiskByPatientId(1);
+
+        assertEquals("Risk Level", result);
+        verify(riskProxy, times(1)).getRiskLevelByPatientId(anyInt());
+    }
+
+    @Test
+    public void getRiskByPatientId_withCachedFailure_shouldNotCallProxyAgain() {
+
+        when(riskProxy.getRiskLevelByPatientId(anyInt()))
+                .thenThrow(new TestFeignException(500, "message"));
+
+        riskService.getRiskByPatientId(1);
+        String result = riskService.getRiskByPatientId(1);
+
+        assertNull(result);
+        verify(riskProxy, times(1)).getRiskLevelByPatientId(anyInt());
+    }
+
+    @Test
+    public void evictRisk_shouldCallProxyOnNextRequest() {
+
+        when(riskProxy.getRiskLevelByPatientId(anyInt()))
+                .thenReturn(new ResponseEntity<>("Risk Level", HttpStatus.OK));
+
+        riskService.getRiskByPatientId(1);
+        riskService.evictRisk(1);
+        riskService.getRiskByPatientId(1);
+
+        verify(riskProxy, times(2)).getRiskLevelByPatientId(anyInt());
+    }
+
+    @Test
+    public void evictRisk_duringProxyCall_shouldNotCacheStaleRisk() {
+
+        when(riskProxy.getRiskLevelByPatientId(anyInt())).thenAnswer(invocation -> {
+            riskService.evictRisk(1);
+            return new ResponseEntity<>("Risk Level", HttpStatus.OK);
+        });
+
+        String result = riskService.getRiskByPatientId(1);
+
+        assertEquals("Risk Level", result);
+        assertNull(riskCache.getEntry(1));
+    }
+
+    @Test
+    public void evictRisk_duringBatchProxyCall_shouldNotCacheStaleRisk() {
+
+        when(riskProxy.getRiskLevelsByPatientIds(any())).thenAnswer(invocation -> {
+            riskService.evictRisk(1);
+            return new ResponseEntity<>(Map.of(1, "None", 2, "Borderline"), HttpStatus.OK);
+        });
+
+        Map<Integer, String> result = riskService.getRisksByPatientIds(List.of(1, 2));
+
+        assertEquals("None", result.get(1));
+        assertNull(riskCache.getEntry(1));
+        assertEquals("Borderline", riskCache.get(2));
+    }
+
+    @Test
+    public void getRisksByPatientIds_shouldReturnCachedRisksAndRequestOthersInOneBatch() {
+
+        riskCache.put(1, "None");
+        when(riskProxy.getRiskLevelsByPatientIds(any()))
+                .thenReturn(new ResponseEntity<>(Map.of(2, "Borderline"), HttpStatus.OK));
+
+        Map<Integer, String> result = riskService.getRisksByPatientIds(List.of(1, 2, 3, 2));
+
+        assertEquals("None", result.get(1));
+        assertEquals("Borderline", result.get(2));
+        assertTrue(result.containsKey(3));
+        assertNull(result.get(3));
+        verify(riskProxy).getRiskLevelsByPatientIds(Set.of(2, 3));
+        verify(riskProxy, never()).getRiskLevelByPatientId(anyInt());
+        assertEquals("Borderline", riskCache.get(2));
+    }
+
+    @Test
+    public void getRisksByPatientIds_withBatchException_shouldRequestRisksOneByOne() {
+
+        riskCache.put(1, "None");
+        when(riskProxy.getRiskLevelsByPatientIds(any()))
+                .thenThrow(new TestFeignException(500, "message"));
+        when(riskProxy.getRiskLevelByPatientId(2))
+                .thenReturn(new ResponseEntity<>("Borderline", HttpStatus.OK));
+        when(riskProxy.getRiskLevelByPatientId(3))
+                .thenThrow(new TestFeignException(500, "message"));
+
+        Map<Integer, String> result = riskService.getRisksByPatientIds(List.of(1, 2, 3));
+
+        assertEquals("None", result.get(1));
+        assertEquals("Borderline", result.get(2));
+        assertTrue(result.containsKey(3));
+        assertNull(result.get(3));
+        verify(riskProxy, never()).getRiskLevelByPatientId(1);
+    }
+
+    @Test
+    public void getRisksByPatientIds_withSlowBatch_shouldLeaveRisksPending() {
+
+        when(riskProxy.getRiskLevelsByPatientIds(any())).thenAnswer(invocation -> {
+            Thread.sleep(1500);
+            return new ResponseEntity<>(Map.of(1, "None"), HttpStatus.OK);
+        });
+
+        Map<Integer, String> result = riskService.getRisksByPatientIds(List.of(1));
+
+        assertTrue(result.isEmpty());
+        verify(riskProxy, never()).getRiskLevelByPatientId(anyInt());
+    }
+
+    @Test
+    public void getRisksByPatientIds_withBatchExceptionAndSlowRisk_shouldLeaveItPending() {
+
+        when(riskProxy.getRiskLevelsByPatientIds(any()))
+                .thenReturn(new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR));
+        when(riskProxy.getRiskLevelByPatientId(1))
+                .thenReturn(new ResponseEntity<>("None", HttpStatus.OK));
+        when(riskProxy.getRiskLevelByPatientId(2)).thenAnswer(invocation -> {
+            Thread.sleep(1500);
+            return new ResponseEntity<>("Borderline", HttpStatus.OK);
+        });
+
+        Map<Integer, String> result = riskService.getRisksByPatientIds(List.of(1, 2));
+
+        assertEquals("None", result.get(1));
+        assertFalse(result.containsKey(2));
+    }
 }
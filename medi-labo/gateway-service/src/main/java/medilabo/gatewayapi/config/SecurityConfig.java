@@ -1,18 +1,33 @@
 package medilabo.gatewayapi.config;
 
+import medilabo.security.CachingPasswordEncoder;
+import medilabo.security.ServiceToken;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.ReactiveAuthenticationManager;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.config.Customizer;
 import org.springframework.security.config.annotation.web.reactive.EnableWebFluxSecurity;
+import org.springframework.security.config.web.server.SecurityWebFiltersOrder;
 import org.springframework.security.config.web.server.ServerHttpSecurity;
+import org.springframework.security.core.authority.AuthorityUtils;
 import org.springframework.security.core.userdetails.MapReactiveUserDetailsService;
 import org.springframework.security.core.userdetails.User;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.web.server.SecurityWebFilterChain;
+import org.springframework.security.web.server.authentication.AuthenticationWebFilter;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
 
 @Configuration
 @EnableWebFluxSecurity
@@ -25,8 +40,21 @@ public class SecurityConfig {
     @Value("${medilabo.user.password}")
     private String password;
 
+    @Value("${medilabo.security.credential-cache.ttl}")
+    private Duration credentialCacheTtl;
+
+    @Value("${medilabo.security.credential-cache.max-size}")
+    private int credentialCacheMaxSize;
+
+    @Value("${medilabo.token.secret}")
+    private String tokenSecret;
+
+    @Autowired
+    private Environment environment;
+
     /**
      * Security Filter Chain that sets up the authentication policy, and implements HTTP Basic authentication. It also disables CSRF protection as it is not relevant to internal calls between services.
+     * Requests carrying a ServiceToken previously issued by the gateway are authenticated with the token, without verifying credentials again.
      *
      * @param http ServerHttpSecurity object
      * @return the filter chain
@@ -37,10 +65,42 @@ public class SecurityConfig {
                 .csrf(ServerHttpSecurity.CsrfSpec::disable)
                 .authorizeExchange(exchanges -> exchanges
                         .anyExchange().authenticated())
+                .addFilterAt(serviceTokenAuthenticationFilter(), SecurityWebFiltersOrder.AUTHENTICATION)
                 .httpBasic(Customizer.withDefaults())
                 .build();
     }
 
+    /**
+     * @return the ServiceToken issuing and checking the tokens of the gateway. The development secret is refused outside the dev and test profiles.
+     */
+    @Bean
+    public ServiceToken serviceToken() {
+        return ServiceToken.create(tokenSecret, environment);
+    }
+
+    /**
+     * Authenticates requests with a Bearer ServiceToken. Requests without one are left to HTTP Basic authentication.
+     *
+     * @return the authentication filter
+     */
+    private AuthenticationWebFilter serviceTokenAuthenticationFilter() {
+        ServiceToken serviceToken = serviceToken();
+        ReactiveAuthenticationManager authenticationManager = authentication -> {
+            String token = (String) authentication.getCredentials();
+            String username = serviceToken.verify(token);
+            if (username == null) {
+                return Mono.error(new BadCredentialsException("Invalid or expired service token"));
+            }
+            return Mono.just(UsernamePasswordAuthenticationToken.authenticated(username, token, AuthorityUtils.NO_AUTHORITIES));
+        };
+        AuthenticationWebFilter filter = new AuthenticationWebFilter(authenticationManager);
+        filter.setServerAuthenticationConverter(exchange -> Mono
+                .justOrEmpty(exchange.getRequest().getHeaders().getFirst(HttpHeaders.AUTHORIZATION))
+                .filter(authHeader -> authHeader.startsWith(ServiceToken.BEARER_PREFIX))
+                .map(authHeader -> UsernamePasswordAuthenticationToken.unauthenticated(null, authHeader.substring(ServiceToken.BEARER_PREFIX.length()))));
+        return filter;
+    }
+
     /**
      * The in-memory user, ONLY for development phase. Should absolutely be replaced by proper user service before production.
      *
@@ -56,8 +116,13 @@ public class SecurityConfig {
         return new MapReactiveUserDetailsService(user);
     }
 
+    /**
+     * BCrypt encoder, wrapped so that successful verifications are cached for a short time instead of being computed on every request.
+     *
+     * @return the PasswordEncoder used for authentication
+     */
     @Bean
-    public BCryptPasswordEncoder getBCryptPasswordEncoder() {
-        return new BCryptPasswordEncoder(10);
+    public PasswordEncoder getBCryptPasswordEncoder() {
+        return new CachingPasswordEncoder(new BCryptPasswordEncoder(10), credentialCacheTtl, credentialCacheMaxSize);
     }
 }
@@ -1,5 +1,7 @@
 package medilabo.gatewayapi.filters;
 
+import medilabo.security.ServiceToken;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cloud.gateway.filter.GatewayFilterChain;
 import org.springframework.cloud.gateway.filter.GlobalFilter;
 import org.springframework.core.Ordered;
@@ -9,14 +11,26 @@ import org.springframework.stereotype.Component;
 import org.springframework.web.server.ServerWebExchange;
 import reactor.core.publisher.Mono;
 
+import java.security.Principal;
+import java.time.Duration;
+
 /**
- * This filter will ensure that Authorization Header received with requests is forwarded to subsequent services
+ * This filter will ensure that the authentication of received requests is forwarded to subsequent services.
+ * Credentials are verified once by the gateway, and replaced by a short-lived ServiceToken that services can check cheaply.
  */
 @Component
 public class AuthenticationTransmissionFilter  implements GlobalFilter, Ordered {
 
+    private final ServiceToken serviceToken;
+    private final Duration tokenTtl;
+
+    public AuthenticationTransmissionFilter(ServiceToken serviceToken, @Value("${medilabo.token.ttl}") Duration tokenTtl) {
+        this.serviceToken = serviceToken;
+        this.tokenTtl = tokenTtl;
+    }
+
     /**
-     * Retrieves the Header from the received request and adds it to the request that is sent.
+     * Retrieves the Header from the received request. A ServiceToken is forwarded as is. Otherwise, the credentials have been verified by the security filter chain, so a ServiceToken is issued for the authenticated user and sent instead.
      * @param exchange
      * @param chain
      * @return the mutating filter
@@ -26,14 +40,22 @@ public class AuthenticationTransmissionFilter  implements GlobalFilter, Ordered
 
         String authHeader = exchange.getRequest().getHeaders().getFirst(HttpHeaders.AUTHORIZATION);
 
-        if (authHeader != null) {
-            ServerHttpRequest mutatedRequest = exchange.getRequest().mutate()
-                    .header(HttpHeaders.AUTHORIZATION, authHeader)
-                    .build();
-            return chain.filter(exchange.mutate().request(mutatedRequest).build());
+        if (authHeader == null || authHeader.startsWith(ServiceToken.BEARER_PREFIX)) {
+            return chain.filter(exchange);
         }
 
-        return chain.filter(exchange);
+        return exchange.getPrincipal()
+                .map(Principal::getName)
+                .map(username -> {
+                    String token = serviceToken.issue(username, tokenTtl);
+                    ServerHttpRequest mutatedRequest = exchange.getRequest().mutate()
+                            .header(HttpHeaders.AUTHORIZATION, ServiceToken.BEARER_PREFIX + token)
+                            .build();
+                    exchange.getResponse().getHeaders().set(ServiceToken.SERVICE_TOKEN_HEADER, token);
+                    return exchange.mutate().request(mutatedRequest).build();
+                })
+                .defaultIfEmpty(exchange)
+                .flatMap(chain::filter);
     }
 
     /**
@@ -1,19 +1,28 @@
 package medilabo.notesapp.config;
 
+import medilabo.security.CachingPasswordEncoder;
+import medilabo.security.ServiceToken;
+import medilabo.security.ServiceTokenFilter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
 import org.springframework.security.config.Customizer;
 import org.springframework.security.core.userdetails.User;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.provisioning.InMemoryUserDetailsManager;
 import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.security.web.authentication.www.BasicAuthenticationFilter;
+
+import java.time.Duration;
 
 @Configuration
 @EnableWebSecurity
@@ -26,8 +35,20 @@ public class SecurityConfig {
     @Value("${medilabo.user.password}")
     private String password;
 
+    @Value("${medilabo.security.credential-cache.ttl}")
+    private Duration credentialCacheTtl;
+
+    @Value("${medilabo.security.credential-cache.max-size}")
+    private int credentialCacheMaxSize;
+
+    @Value("${medilabo.token.secret}")
+    private String tokenSecret;
+
+    @Autowired
+    private Environment environment;
+
     /**
-     * Security Filter Chain that sets up the authentication policy, and implements HTTP Basic authentication. It also disables CSRF protection since this service will only receive calls from the gateway service.
+     * Security Filter Chain that sets up the authentication policy, and implements HTTP Basic authentication. Requests forwarded by the gateway carry a ServiceToken, which is checked before HTTP Basic so that credentials are not verified again. It also disables CSRF protection since this service will only receive calls from the gateway service.
      *
      * @param http HttpSecurity object
      * @return the filter chain
@@ -39,6 +60,7 @@ public class SecurityConfig {
                 .authorizeHttpRequests(auth -> {
                     auth.anyRequest().authenticated();
                 })
+                .addFilterBefore(new ServiceTokenFilter(serviceToken()), BasicAuthenticationFilter.class)
                 .httpBasic(Customizer.withDefaults())
                 .build();
     }
@@ -58,8 +80,21 @@ public class SecurityConfig {
         return new InMemoryUserDetailsManager(user);
     }
 
+    /**
+     * @return the ServiceToken checking the tokens of the gateway. The development secret is refused outside the dev and test profiles.
+     */
+    @Bean
+    public ServiceToken serviceToken() {
+        return ServiceToken.create(tokenSecret, environment);
+    }
+
+    /**
+     * BCrypt encoder, wrapped so that successful verifications are cached for a short time instead of being computed on every request.
+     *
+     * @return the PasswordEncoder used for authentication
+     */
     @Bean
-    public BCryptPasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder(10);
+    public PasswordEncoder passwordEncoder() {
+        return new CachingPasswordEncoder(new BCryptPasswordEncoder(10), credentialCacheTtl, credentialCacheMaxSize);
     }
 }
@@ -1,15 +1,36 @@
 package medilabo.notesapp.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import medilabo.bulk.BulkInsertReport;
 import medilabo.notesapp.exceptions.NoteNotFoundException;
 import medilabo.notesapp.model.Note;
+import medilabo.notesapp.model.NotePage;
+import medilabo.notesapp.model.NoteSummary;
+import medilabo.notesapp.model.PatientNotes;
+import medilabo.notesapp.model.TriggerSummary;
+import medilabo.notesapp.service.NoteBulkService;
 import medilabo.notesapp.service.NoteService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.Instant;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Controller that handles requests related to Note type. It calls methods from NoteService.
@@ -20,28 +41,214 @@ import java.util.List;
 public class NoteController {
     private static final Logger logger = LoggerFactory.getLogger(NoteController.class);
 
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
     public final NoteService noteService;
+    private final NoteBulkService noteBulkService;
+    private final ObjectMapper objectMapper;
+    private final int defaultPageSize;
+    private final int maxPageSize;
 
-    public NoteController(NoteService noteService) {
+    public NoteController(NoteService noteService, NoteBulkService noteBulkService, ObjectMapper objectMapper,
+                          @Value("${medilabo.notes.page.default-size}") int defaultPageSize,
+                          @Value("${medilabo.notes.page.max-size}") int maxPageSize) {
         this.noteService = noteService;
+        this.noteBulkService = noteBulkService;
+        this.objectMapper = objectMapper;
+        this.defaultPageSize = defaultPageSize;
+        this.maxPageSize = maxPageSize;
     }
 
     /**
-     * Gets the List of all notes related to one patient ID
+     * Gets a page of the notes related to one patient ID, newest first. The next page is requested by sending back the value of the X-Next-Cursor header as cursor.
+     * The first page has a strong ETag built from the ID of the newest note of the patient and from the limit and since parameters. Notes are only ever added, so this ID changes with the page.
+     * If a request for the first page has an If-None-Match header, the newest note ID is looked up in the index, and 304 is returned without reading the notes if the ETag matches.
      * @param patientId
-     * @return a ResponseEntity containing the List with 200 code, or with 204 if there are no notes related to this ID.
+     * @param limit the maximum number of notes, capped to the maximum page size
+     * @param cursor the cursor of the previous page, absent for the first page
+     * @param since ISO-8601 time from which notes are returned, based on their creation time, absent for all notes
+     * @param webRequest the request, to check If-None-Match
+     * @return a ResponseEntity containing the List with 200 code and the X-Next-Cursor header if there are older notes, with 304 if the notes were not modified, with 204 if there are no (more) notes related to this ID, or with 400 if a parameter is invalid.
      */
     @GetMapping("/{patientId}")
-    public ResponseEntity<List<Note>> getNotesByPatientId(@PathVariable("patientId") int patientId) {
+    public ResponseEntity<List<Note>> getNotesByPatientId(@PathVariable("patientId") int patientId,
+                                                          @RequestParam(value = "limit", required = false) Integer limit,
+                                                          @RequestParam(value = "cursor", required = false) String cursor,
+                                                          @RequestParam(value = "since", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant since,
+                                                          WebRequest webRequest) {
         logger.info("GetMapping for /notes/{}", patientId);
+        int pageSize = limit == null ? defaultPageSize : Math.min(limit, maxPageSize);
+        if (pageSize < 1) {
+            logger.error("Invalid page request: limit {}", limit);
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        // Only the first page is revalidated: it is requested again each time the notes of the patient are displayed, the next pages only on demand
+        boolean firstPage = cursor == null;
+        String lastNoteId = null;
+        if (firstPage && webRequest.getHeader(HttpHeaders.IF_NONE_MATCH) != null) {
+            lastNoteId = noteService.getLastNoteId(patientId);
+            // Also sets the ETag header of the response
+            if (lastNoteId != null && webRequest.checkNotModified(notesETag(patientId, lastNoteId, pageSize, since))) {
+                return new ResponseEntity<>(HttpStatus.NOT_MODIFIED);
+            }
+        }
+        NotePage notePage;
         try {
-            List<Note> notes = noteService.getNotesByPatientId(patientId);
-            return new ResponseEntity<>(notes, HttpStatus.OK);
+            notePage = noteService.getNotesByPatientId(patientId, pageSize, cursor, since);
+        } catch (IllegalArgumentException e) {
+            logger.error("Invalid page request: {}", e.getMessage());
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        if (notePage.getNotes().isEmpty()) {
+            return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+        }
+        HttpHeaders headers = new HttpHeaders();
+        if (notePage.getNextCursor() != null) {
+            headers.set(NEXT_CURSOR_HEADER, notePage.getNextCursor());
+        }
+        if (firstPage && lastNoteId == null) {
+            headers.setETag(notesETag(patientId, notePage.getNotes().get(0).getId(), pageSize, since));
+        }
+        return new ResponseEntity<>(notePage.getNotes(), headers, HttpStatus.OK);
+    }
+
+    private static String notesETag(int patientId, String lastNoteId, int pageSize, Instant since) {
+        return "\"notes-" + patientId + "-" + lastNoteId + "-" + pageSize + (since == null ? "" : "-" + since.toEpochMilli()) + "\"";
+    }
+
+    /**
+     * Streams the notes related to one patient ID, newest first, as NDJSON for clients that accept application/x-ndjson, so that a large history does not have to be held in memory.
+     * Notes are read with the same _id keyset pages as getNotesByPatientId, of the maximum page size, and each page is written and flushed before the next one is read.
+     * Each page is read by its own query, so no database cursor stays open while notes are written, and no more page is read once the client is gone.
+     * The first page is read before the response starts, to choose the status. The next ones are read and written on the MVC async executor, so the request thread is released.
+     * @param patientId
+     * @param limit the maximum number of notes, all notes if absent
+     * @param cursor the ID of the last note already received, absent to start from the newest note
+     * @param since ISO-8601 time from which notes are streamed, based on their creation time, absent for all notes
+     * @return a ResponseEntity containing the StreamingResponseBody with 200 code, with 204 if there are no (more) notes related to this ID, or with 400 if a parameter is invalid.
+     */
+    @GetMapping(value = "/{patientId}", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamNotesByPatientId(@PathVariable("patientId") int patientId,
+                                                                        @RequestParam(value = "limit", required = false) Integer limit,
+                                                                        @RequestParam(value = "cursor", required = false) String cursor,
+                                                                        @RequestParam(value = "since", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant since) {
+        logger.info("GetMapping for /notes/{} as NDJSON", patientId);
+        if (limit != null && limit < 1) {
+            logger.error("Invalid stream request: limit {}", limit);
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        NotePage firstPage;
+        try {
+            firstPage = noteService.getNotesByPatientId(patientId, streamPageSize(limit, 0), cursor, since);
+        } catch (IllegalArgumentException e) {
+            logger.error("Invalid stream request: {}", e.getMessage());
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        if (firstPage.getNotes().isEmpty()) {
+            return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+        }
+        ObjectWriter noteWriter = objectMapper.writerFor(Note.class);
+        StreamingResponseBody body = outputStream -> {
+            NotePage page = firstPage;
+            int written = 0;
+            while (true) {
+                for (Note note : page.getNotes()) {
+                    outputStream.write(noteWriter.writeValueAsBytes(note));
+                    outputStream.write('\n');
+                }
+                outputStream.flush();
+                written += page.getNotes().size();
+                if (page.getNextCursor() == null || (limit != null && written >= limit)) {
+                    return;
+                }
+                page = noteService.getNotesByPatientId(patientId, streamPageSize(limit, written), page.getNextCursor(), since);
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+
+    private int streamPageSize(Integer limit, int written) {
+        return limit == null ? maxPageSize : Math.min(limit - written, maxPageSize);
+    }
+
+    /**
+     * Gets the number of notes related to one patient ID, with their first and last IDs and timestamps and the total length of their content, without sending the notes content.
+     * @param patientId
+     * @return a ResponseEntity containing the NoteSummary with 200 code, or with 204 if there are no notes related to this ID.
+     */
+    @GetMapping("/{patientId}/summary")
+    public ResponseEntity<NoteSummary> getNoteSummaryByPatientId(@PathVariable("patientId") int patientId) {
+        logger.info("GetMapping for /notes/{}/summary", patientId);
+        try {
+            return new ResponseEntity<>(noteService.getNoteSummaryByPatientId(patientId), HttpStatus.OK);
         } catch (NoteNotFoundException e) {
             return new ResponseEntity<>(HttpStatus.NO_CONTENT);
         }
     }
 
+    /**
+     * Gets the triggers present in the notes related to one patient ID, without sending the notes content.
+     * @param patientId
+     * @param after optional ID of the last note already evaluated by the caller, so that only newer notes are evaluated
+     * @return a ResponseEntity containing the TriggerSummary with 200 code, with 204 if there are no notes related to this ID, or with 400 if after is not a valid note ID.
+     */
+    @GetMapping("/{patientId}/triggers")
+    public ResponseEntity<TriggerSummary> getTriggersByPatientId(@PathVariable("patientId") int patientId,
+                                                                 @RequestParam(value = "after", required = false) String after) {
+        logger.info("GetMapping for /notes/{}/triggers", patientId);
+        try {
+            TriggerSummary triggerSummary = noteService.getTriggerSummaryByPatientId(patientId, after);
+            return new ResponseEntity<>(triggerSummary, HttpStatus.OK);
+        } catch (NoteNotFoundException e) {
+            return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+        } catch (IllegalArgumentException e) {
+            logger.error("Invalid note ID: {}", after);
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    /**
+     * Gets the notes of several patients in one request, e.g. for batch risk calculations. The response is a JSON array with one {patientId, notes} object per patient that has notes, newest notes first.
+     * It is written on the MVC async executor while notes are read from the database, so that its size does not depend on memory. The database cursor is closed if the client is gone.
+     * @param patientIds the IDs of the patients
+     * @return a ResponseEntity containing the StreamingResponseBody with 200 code, or with 400 if no ID is given
+     */
+    @PostMapping("/by-patients")
+    public ResponseEntity<StreamingResponseBody> getNotesByPatientIds(@RequestBody Set<Integer> patientIds) {
+        logger.info("PostMapping for /notes/by-patients with {} IDs", patientIds.size());
+        if (patientIds.isEmpty()) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        StreamingResponseBody body = outputStream -> {
+            try (SequenceWriter writer = objectMapper.writerFor(PatientNotes.class).writeValuesAsArray(outputStream)) {
+                noteService.forEachPatientNotes(patientIds, patientNotes -> {
+                    try {
+                        writer.write(patientNotes);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    /**
+     * Gets the triggers present in the notes of several patients with one request, without sending the notes content.
+     * @param patientIds the IDs of the patients
+     * @return a ResponseEntity containing a Map of patient ID to TriggerSummary with 200 code, patients without notes being absent, or with 400 if no ID is given.
+     */
+    @PostMapping("/by-patients/triggers")
+    public ResponseEntity<Map<Integer, TriggerSummary>> getTriggersByPatientIds(@RequestBody Set<Integer> patientIds) {
+        logger.info("PostMapping for /notes/by-patients/triggers with {} IDs", patientIds.size());
+        if (patientIds.isEmpty()) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        return new ResponseEntity<>(noteService.getTriggerSummariesByPatientIds(patientIds), HttpStatus.OK);
+    }
+
     /**
      * Creates a new Note.
      * @param note the new Note
@@ -57,4 +264,38 @@ public class NoteController {
             return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
+
+    /**
+     * Inserts notes in bulk from a JSON array body. The body is read as a stream, element by element.
+     * @param body the JSON array of notes
+     * @return a ResponseEntity containing the BulkInsertReport with 200 code, even if some notes are rejected, with 400 if the body is not a JSON array, or with 500 if the database can not be reached
+     */
+    @PostMapping(value = "/bulk", consumes = "application/json")
+    public ResponseEntity<BulkInsertReport> insertNotesFromJsonArray(InputStream body) {
+        logger.info("PostMapping for /notes/bulk with JSON array body");
+        return insertNotes(body, NoteBulkService.Format.JSON_ARRAY);
+    }
+
+    /**
+     * Inserts notes in bulk from a NDJSON body, with one note per line. The body is read as a stream.
+     * @param body the NDJSON body
+     * @return a ResponseEntity containing the BulkInsertReport with 200 code, even if some notes are rejected, or with 500 if the database can not be reached
+     */
+    @PostMapping(value = "/bulk", consumes = "application/x-ndjson")
+    public ResponseEntity<BulkInsertReport> insertNotesFromNdjson(InputStream body) {
+        logger.info("PostMapping for /notes/bulk with NDJSON body");
+        return insertNotes(body, NoteBulkService.Format.NDJSON);
+    }
+
+    private ResponseEntity<BulkInsertReport> insertNotes(InputStream body, NoteBulkService.Format format) {
+        try {
+            return new ResponseEntity<>(noteBulkService.insertNotes(body, format), HttpStatus.OK);
+        } catch (IllegalArgumentException e) {
+            logger.error("Invalid bulk body: {}", e.getMessage());
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        } catch (Exception e) {
+            logger.error("Bulk insertion failed", e);
+            return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
 }
@@ -1,15 +1,33 @@
 package medilabo.notesapp.model;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 
+import java.time.Instant;
+
+/**
+ * A note about a patient. Notes are always read by patient, newest first, which the compound index on patientId and _id serves without a sort stage.
+ * Its patientId prefix also serves equality lookups on patientId, so no single-field index is declared. The index on patientId and createdAt serves the notes created since a date.
+ * Indexes are created at startup by NoteIndexInitializer.
+ *
+ * @see medilabo.notesapp.service.NoteIndexInitializer
+ */
 @Document(collection="notes")
+@CompoundIndexes({
+        @CompoundIndex(name = "patientId_id", def = "{ 'patientId': 1, '_id': -1 }"),
+        @CompoundIndex(name = "patientId_createdAt", def = "{ 'patientId': 1, 'createdAt': -1 }")
+})
 public class Note {
 
     @Id
     private String id;
     private int patientId;
     private String content;
+    private Integer triggerMask;
+    private Instant createdAt;
+    private Instant updatedAt;
 
     public Note() {
     }
@@ -34,12 +52,48 @@ public class Note {
         this.content = content;
     }
 
+    /**
+     * @return the bitmask of the triggers present in the content, computed when the note is saved. Null if the note has not been scanned yet.
+     */
+    public Integer getTriggerMask() {
+        return triggerMask;
+    }
+
+    public void setTriggerMask(Integer triggerMask) {
+        this.triggerMask = triggerMask;
+    }
+
+    /**
+     * @return the time the note was saved, set by the server
+     */
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    /**
+     * @return the time the note was last modified, set by the server
+     */
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Instant updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
     @Override
     public String toString() {
         return "Note{" +
                 "id='" + id + '\'' +
                 ", patientId=" + patientId +
                 ", content='" + content + '\'' +
+                ", triggerMask=" + triggerMask +
+                ", createdAt=" + createdAt +
+                ", updatedAt=" + updatedAt +
                 '}';
     }
 }
@@ -0,0 +1,28 @@
+package medilabo.notesapp.model;
+
+import java.util.List;
+
+/**
+ * One page of the notes of a patient, newest first, with the cursor that gives access to the next (older) page.
+ */
+public class NotePage {
+
+    private final List<Note> notes;
+    private final String nextCursor;
+
+    public NotePage(List<Note> notes, String nextCursor) {
+        this.notes = notes;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<Note> getNotes() {
+        return notes;
+    }
+
+    /**
+     * @return the cursor to send to get the next page, or null if this page is the last one
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+}
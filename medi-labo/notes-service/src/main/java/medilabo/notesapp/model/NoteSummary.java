@@ -0,0 +1,70 @@
+package medilabo.notesapp.model;
+
+import org.bson.types.ObjectId;
+
+import java.time.Instant;
+
+/**
+ * Statistics on the notes of a patient, aggregated by the database so that callers that only need to know whether a patient has notes do not download their content.
+ * Timestamps are the creation times embedded in the first and last note IDs.
+ *
+ * @see medilabo.notesapp.repository.NoteRepository#aggregateSummary(int)
+ */
+public class NoteSummary {
+
+    private int noteCount;
+    private String firstNoteId;
+    private String lastNoteId;
+    private long totalContentLength;
+
+    public NoteSummary() {
+    }
+
+    public NoteSummary(int noteCount, String firstNoteId, String lastNoteId, long totalContentLength) {
+        this.noteCount = noteCount;
+        this.firstNoteId = firstNoteId;
+        this.lastNoteId = lastNoteId;
+        this.totalContentLength = totalContentLength;
+    }
+
+    public int getNoteCount() {
+        return noteCount;
+    }
+
+    public String getFirstNoteId() {
+        return firstNoteId;
+    }
+
+    public Instant getFirstNoteAt() {
+        return toInstant(firstNoteId);
+    }
+
+    public String getLastNoteId() {
+        return lastNoteId;
+    }
+
+    public Instant getLastNoteAt() {
+        return toInstant(lastNoteId);
+    }
+
+    /**
+     * @return the sum of the lengths of the notes content, in characters
+     */
+    public long getTotalContentLength() {
+        return totalContentLength;
+    }
+
+    private static Instant toInstant(String noteId) {
+        return noteId != null && ObjectId.isValid(noteId) ? new ObjectId(noteId).getDate().toInstant() : null;
+    }
+
+    @Override
+    public String toString() {
+        return "NoteSummary{" +
+                "noteCount=" + noteCount +
+                ", firstNoteId='" + firstNoteId + '\'' +
+                ", lastNoteId='" + lastNoteId + '\'' +
+                ", totalContentLength=" + totalContentLength +
+                '}';
+    }
+}
@@ -0,0 +1,25 @@
+package medilabo.notesapp.model;
+
+import java.util.List;
+
+/**
+ * The notes of one patient, newest first, as streamed by POST /notes/by-patients.
+ */
+public class PatientNotes {
+
+    private final int patientId;
+    private final List<Note> notes;
+
+    public PatientNotes(int patientId, List<Note> notes) {
+        this.patientId = patientId;
+        this.notes = notes;
+    }
+
+    public int getPatientId() {
+        return patientId;
+    }
+
+    public List<Note> getNotes() {
+        return notes;
+    }
+}
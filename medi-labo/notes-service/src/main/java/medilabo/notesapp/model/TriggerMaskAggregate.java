@@ -0,0 +1,70 @@
+package medilabo.notesapp.model;
+
+import java.util.List;
+
+/**
+ * Result of the aggregation of the trigger masks of the notes of a patient that are newer than a given note, or of all the notes of a patient when several patients are aggregated.
+ *
+ * @see medilabo.notesapp.repository.NoteRepository#aggregateTriggerMasks(int, org.bson.types.ObjectId)
+ * @see medilabo.notesapp.repository.NoteRepository#aggregateTriggerMasksByPatientIds(java.util.Collection)
+ */
+public class TriggerMaskAggregate {
+
+    private int patientId;
+    private List<Integer> triggerMasks;
+    private int noteCount;
+    private int unscannedCount;
+    private String lastNoteId;
+
+    public TriggerMaskAggregate() {
+    }
+
+    public TriggerMaskAggregate(List<Integer> triggerMasks, int noteCount, int unscannedCount, String lastNoteId) {
+        this.triggerMasks = triggerMasks;
+        this.noteCount = noteCount;
+        this.unscannedCount = unscannedCount;
+        this.lastNoteId = lastNoteId;
+    }
+
+    public TriggerMaskAggregate(int patientId, List<Integer> triggerMasks, int noteCount, int unscannedCount, String lastNoteId) {
+        this(triggerMasks, noteCount, unscannedCount, lastNoteId);
+        this.patientId = patientId;
+    }
+
+    /**
+     * @return the ID of the patient, only set when several patients are aggregated
+     */
+    public int getPatientId() {
+        return patientId;
+    }
+
+    /**
+     * @return the OR-reduction of the distinct trigger masks
+     */
+    public int getTriggerMask() {
+        int triggerMask = 0;
+        if (triggerMasks != null) {
+            for (Integer mask : triggerMasks) {
+                if (mask != null) {
+                    triggerMask |= mask;
+                }
+            }
+        }
+        return triggerMask;
+    }
+
+    public int getNoteCount() {
+        return noteCount;
+    }
+
+    /**
+     * @return the number of notes that have no trigger mask yet, and must be scanned
+     */
+    public int getUnscannedCount() {
+        return unscannedCount;
+    }
+
+    public String getLastNoteId() {
+        return lastNoteId;
+    }
+}
@@ -0,0 +1,53 @@
+package medilabo.notesapp.model;
+
+/**
+ * Result of the trigger evaluation on the notes of a patient. Bit i of triggerMask is set if the trigger at index i in Triggers is present in at least one note.
+ *
+ * @see medilabo.triggers.Triggers
+ */
+public class TriggerSummary {
+
+    private int triggerMask;
+    private int triggerCount;
+    private int noteCount;
+    private String lastNoteId;
+
+    public TriggerSummary() {
+    }
+
+    public TriggerSummary(int triggerMask, int noteCount, String lastNoteId) {
+        this.triggerMask = triggerMask;
+        this.triggerCount = Integer.bitCount(triggerMask);
+        this.noteCount = noteCount;
+        this.lastNoteId = lastNoteId;
+    }
+
+    public int getTriggerMask() {
+        return triggerMask;
+    }
+
+    public int getTriggerCount() {
+        return triggerCount;
+    }
+
+    public int getNoteCount() {
+        return noteCount;
+    }
+
+    /**
+     * @return the ID of the most recent evaluated note, to be sent back as 'after' parameter to only evaluate newer notes
+     */
+    public String getLastNoteId() {
+        return lastNoteId;
+    }
+
+    @Override
+    public String toString() {
+        return "TriggerSummary{" +
+                "triggerMask=" + triggerMask +
+                ", triggerCount=" + triggerCount +
+                ", noteCount=" + noteCount +
+                ", lastNoteId='" + lastNoteId + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,57 @@
+package medilabo.notesapp.repository;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.InsertManyOptions;
+import medilabo.notesapp.model.Note;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Writes batches of notes with a single unordered insertMany command, used by NoteBulkService.
+ * In an unordered insertMany, a rejected document does not prevent the insertion of the following ones, so the result of a batch is reported per note.
+ *
+ * @see medilabo.notesapp.service.NoteBulkService
+ */
+@Repository
+public class NoteBatchWriter {
+
+    private static final InsertManyOptions UNORDERED = new InsertManyOptions().ordered(false);
+
+    private final MongoTemplate mongoTemplate;
+
+    public NoteBatchWriter(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Inserts notes with one unordered insertMany command.
+     *
+     * @param notes the notes to insert
+     * @return the error messages of the notes that were not inserted, by index in notes - empty if all notes were inserted
+     */
+    public Map<Integer, String> insertAll(List<Note> notes) {
+        List<Document> documents = new ArrayList<>(notes.size());
+        for (Note note : notes) {
+            Document document = new Document();
+            mongoTemplate.getConverter().write(note, document);
+            documents.add(document);
+        }
+        try {
+            mongoTemplate.getCollection(mongoTemplate.getCollectionName(Note.class)).insertMany(documents, UNORDERED);
+            return Map.of();
+        } catch (MongoBulkWriteException e) {
+            Map<Integer, String> errors = new TreeMap<>();
+            for (BulkWriteError error : e.getWriteErrors()) {
+                errors.put(error.getIndex(), error.getMessage());
+            }
+            return errors;
+        }
+    }
+}
@@ -1,10 +1,19 @@
 package medilabo.notesapp.repository;
 
 import medilabo.notesapp.model.Note;
+import medilabo.notesapp.model.NoteSummary;
+import medilabo.notesapp.model.TriggerMaskAggregate;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.mongodb.repository.Aggregation;
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 
 /**
  * The interface used to perform CRUD operations on the database
@@ -12,5 +21,112 @@ import java.util.List;
 @Repository
 public interface NoteRepository extends MongoRepository<Note, String> {
 
-    List<Note> findByPatientId(int patientId);
+    /**
+     * Gets the most recent notes of a patient. ObjectIds start with their creation time, so sorting on _id gives the notes in creation order.
+     *
+     * @param patientId
+     * @param limit     the maximum number of notes
+     * @return a List of Notes, newest first
+     */
+    List<Note> findByPatientIdOrderByIdDesc(int patientId, Limit limit);
+
+    /**
+     * Gets the IDs of the most recent notes of a patient. Only _id is returned, so the query is answered from the patientId_id index without reading the notes.
+     *
+     * @param patientId
+     * @param limit     the maximum number of IDs
+     * @return a List of Notes with only their ID, newest first
+     */
+    @Query(value = "{ 'patientId': ?0 }", fields = "{ '_id': 1 }", sort = "{ '_id': -1 }")
+    List<Note> findIdsByPatientId(int patientId, Limit limit);
+
+    /**
+     * Gets the notes of a patient that are older than a given note, to continue a page started with findByPatientIdOrderByIdDesc.
+     *
+     * @param patientId
+     * @param before    the ID of the last note of the previous page
+     * @param limit     the maximum number of notes
+     * @return a List of Notes, newest first
+     */
+    List<Note> findByPatientIdAndIdLessThanOrderByIdDesc(int patientId, ObjectId before, Limit limit);
+
+    /**
+     * Gets the most recent notes of a patient among those created since a given time.
+     *
+     * @param patientId
+     * @param since     the notes created at or after this time are returned
+     * @param limit     the maximum number of notes
+     * @return a List of Notes, newest first
+     */
+    List<Note> findByPatientIdAndCreatedAtGreaterThanEqualOrderByIdDesc(int patientId, Instant since, Limit limit);
+
+    /**
+     * Gets the notes of a patient created since a given time that are older than a given note, to continue a page started with findByPatientIdAndCreatedAtGreaterThanEqualOrderByIdDesc.
+     *
+     * @param patientId
+     * @param before    the ID of the last note of the previous page
+     * @param since     the notes created at or after this time are returned
+     * @param limit     the maximum number of notes
+     * @return a List of Notes, newest first
+     */
+    List<Note> findByPatientIdAndIdLessThanAndCreatedAtGreaterThanEqualOrderByIdDesc(int patientId, ObjectId before, Instant since, Limit limit);
+
+    /**
+     * Gets the notes of several patients with one $in query, grouped by patient, newest first. The Stream reads the cursor batch by batch and must be closed.
+     *
+     * @param patientIds
+     * @return a Stream of Notes, sorted by patient ID then by descending note ID
+     */
+    Stream<Note> findByPatientIdInOrderByPatientIdAscIdDesc(Collection<Integer> patientIds);
+
+    List<Note> findByPatientIdAndIdGreaterThanAndTriggerMaskIsNull(int patientId, ObjectId after);
+
+    /**
+     * Groups the notes of a patient that are newer than a given note, without loading their content. Distinct masks are collected with $addToSet, which all MongoDB versions support, and OR-reduced by TriggerMaskAggregate.
+     *
+     * @param patientId
+     * @param after     the ID of the last note already processed by the caller. Notes with a greater ID are aggregated.
+     * @return the TriggerMaskAggregate, or null if the patient has no notes newer than after
+     */
+    @Aggregation(pipeline = {
+            "{ '$match': { 'patientId': ?0, '_id': { '$gt': ?1 } } }",
+            "{ '$group': { '_id': null, 'triggerMasks': { '$addToSet': '$triggerMask' }, 'noteCount': { '$sum': 1 }, 'lastNoteId': { '$max': '$_id' }, "
+                    + "'unscannedCount': { '$sum': { '$cond': [ { '$eq': [ { '$ifNull': [ '$triggerMask', null ] }, null ] }, 1, 0 ] } } } }"
+    })
+    TriggerMaskAggregate aggregateTriggerMasks(int patientId, ObjectId after);
+
+    /**
+     * Aggregates the trigger masks of the notes of several patients on the database side, grouped by patient, so that no note content is sent back.
+     *
+     * @param patientIds
+     * @return a List of TriggerMaskAggregates, one for each patient that has notes
+     */
+    @Aggregation(pipeline = {
+            "{ '$match': { 'patientId': { '$in': ?0 } } }",
+            "{ '$group': { '_id': '$patientId', 'triggerMasks': { '$addToSet': '$triggerMask' }, 'noteCount': { '$sum': 1 }, 'lastNoteId': { '$max': '$_id' }, "
+                    + "'unscannedCount': { '$sum': { '$cond': [ { '$eq': [ { '$ifNull': [ '$triggerMask', null ] }, null ] }, 1, 0 ] } } } }",
+            "{ '$addFields': { 'patientId': '$_id' } }"
+    })
+    List<TriggerMaskAggregate> aggregateTriggerMasksByPatientIds(Collection<Integer> patientIds);
+
+    /**
+     * Gets the notes of several patients that have no trigger mask yet. The Stream reads the cursor batch by batch and must be closed.
+     *
+     * @param patientIds
+     * @return a Stream of Notes
+     */
+    Stream<Note> findByPatientIdInAndTriggerMaskIsNull(Collection<Integer> patientIds);
+
+    /**
+     * Counts the notes of a patient and measures their content on the database side, so that no note content is sent back.
+     *
+     * @param patientId
+     * @return the NoteSummary, or null if the patient has no notes
+     */
+    @Aggregation(pipeline = {
+            "{ '$match': { 'patientId': ?0 } }",
+            "{ '$group': { '_id': null, 'noteCount': { '$sum': 1 }, 'firstNoteId': { '$min': '$_id' }, 'lastNoteId': { '$max': '$_id' }, "
+                    + "'totalContentLength': { '$sum': { '$strLenCP': { '$ifNull': [ '$content', '' ] } } } } }"
+    })
+    NoteSummary aggregateSummary(int patientId);
 }
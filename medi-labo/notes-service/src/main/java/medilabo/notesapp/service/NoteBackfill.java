@@ -0,0 +1,73 @@
+package medilabo.notesapp.service;
+
+import medilabo.notesapp.model.Note;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Updates the notes that match a filter, in batches paged on _id, until no matching note remains. Used by the startup backfill jobs.
+ *
+ * @see TriggerMaskBackfill
+ * @see NoteTimestampBackfill
+ */
+@Component
+public class NoteBackfill {
+    private static final Logger logger = LoggerFactory.getLogger(NoteBackfill.class);
+
+    private final MongoTemplate mongoTemplate;
+
+    public NoteBackfill(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Updates the notes that match a filter. Each batch is written with a single unordered bulk operation of one update per note.
+     * Batches are paged on _id, so each one starts after the last note of the previous one, and notes that could not be updated are not fetched again.
+     *
+     * @param name      the name of the backfill, for logging
+     * @param filter    the criteria of the notes to update
+     * @param update    the update of a note, computed from the note fetched with the given fields
+     * @param batchSize the number of notes per batch
+     * @param fields    the fields to fetch, besides _id
+     * @return the number of updated notes
+     */
+    public int backfill(String name, Criteria filter, Function<Note, Update> update, int batchSize, String... fields) {
+        int updated = 0;
+        List<Note> notes = findBatch(filter, new ObjectId(new byte[12]), batchSize, fields);
+        while (!notes.isEmpty()) {
+            BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Note.class);
+            for (Note note : notes) {
+                bulkOperations.updateOne(Query.query(Criteria.where("_id").is(note.getId())), update.apply(note));
+            }
+            int modified = bulkOperations.execute().getModifiedCount();
+            if (modified < notes.size()) {
+                logger.warn("{} notes could not be backfilled with {}", notes.size() - modified, name);
+            }
+            updated += modified;
+            logger.debug("{} notes backfilled with {}", updated, name);
+            ObjectId lastId = new ObjectId(notes.get(notes.size() - 1).getId());
+            notes = findBatch(filter, lastId, batchSize, fields);
+        }
+        logger.info("Backfill of {} done. {} notes updated", name, updated);
+        return updated;
+    }
+
+    private List<Note> findBatch(Criteria filter, ObjectId after, int batchSize, String... fields) {
+        Query query = Query.query(new Criteria().andOperator(filter, Criteria.where("_id").gt(after)))
+                .with(Sort.by("_id"))
+                .limit(batchSize);
+        query.fields().include(fields);
+        return mongoTemplate.find(query, Note.class);
+    }
+}
@@ -0,0 +1,169 @@
+package medilabo.notesapp.service;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import medilabo.bulk.BulkInsertReport;
+import medilabo.notesapp.model.Note;
+import medilabo.notesapp.repository.NoteBatchWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Service that inserts notes in bulk from a JSON array or NDJSON stream. Notes are parsed and checked one by one as they are read,
+ * and inserted by NoteBatchWriter in unordered insertMany batches, so that memory use depends on the batch size and not on the size of the body.
+ * Invalid notes are reported in the BulkInsertReport and do not stop the insertion.
+ *
+ * @see NoteBatchWriter
+ */
+@Service
+public class NoteBulkService {
+    private final Logger logger = LoggerFactory.getLogger(NoteBulkService.class);
+
+    public enum Format {
+        JSON_ARRAY, NDJSON
+    }
+
+    private final NoteBatchWriter noteBatchWriter;
+    private final NoteService noteService;
+    private final ObjectMapper objectMapper;
+    private final int batchSize;
+    private final int maxReportedErrors;
+
+    public NoteBulkService(NoteBatchWriter noteBatchWriter, NoteService noteService, ObjectMapper objectMapper,
+                           @Value("${medilabo.notes.bulk.batch-size}") int batchSize,
+                           @Value("${medilabo.notes.bulk.max-reported-errors}") int maxReportedErrors) {
+        this.noteBatchWriter = noteBatchWriter;
+        this.noteService = noteService;
+        this.objectMapper = objectMapper;
+        this.batchSize = batchSize;
+        this.maxReportedErrors = maxReportedErrors;
+    }
+
+    /**
+     * Inserts notes from a stream. A JSON_ARRAY stream is one array of Note objects, which is read element by element. A NDJSON stream has one Note object per line, and blank lines are ignored.
+     * The trigger mask and timestamps of each note are set before insertion, as for a single note.
+     * A JSON syntax error in an array can not be recovered from: the notes read before it are inserted, and the error is reported for the item where it occurred.
+     *
+     * @param input  the UTF-8 encoded stream
+     * @param format the format of the stream
+     * @return the BulkInsertReport
+     * @throws IOException              if the stream can not be read
+     * @throws IllegalArgumentException if a JSON_ARRAY stream does not start with an array
+     */
+    public BulkInsertReport insertNotes(InputStream input, Format format) throws IOException {
+        Batches batches = new Batches(new BulkInsertReport(maxReportedErrors));
+        if (format == Format.NDJSON) {
+            readNdjson(input, batches);
+        } else {
+            readJsonArray(input, batches);
+        }
+        batches.flush();
+        BulkInsertReport report = batches.report;
+        logger.info("Bulk insertion done: {} notes inserted in {} batches, {} rejected",
+                report.getInserted(), report.getBatches().size(), report.getRejected());
+        return report;
+    }
+
+    private void readNdjson(InputStream input, Batches batches) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        long lineNumber = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.isBlank()) {
+                continue;
+            }
+            try {
+                batches.add(lineNumber, objectMapper.readValue(line, Note.class));
+            } catch (JsonProcessingException e) {
+                batches.report.reject(lineNumber, "Invalid JSON: " + e.getOriginalMessage());
+            }
+        }
+    }
+
+    private void readJsonArray(InputStream input, Batches batches) throws IOException {
+        try (JsonParser parser = objectMapper.createParser(input)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IllegalArgumentException("Body must be a JSON array of notes");
+            }
+            long item = 0;
+            try {
+                JsonToken token;
+                while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                    item++;
+                    if (token == null) {
+                        batches.report.reject(item, "Invalid JSON: unexpected end of array");
+                        return;
+                    }
+                    JsonNode node = objectMapper.readTree(parser);
+                    try {
+                        batches.add(item, objectMapper.treeToValue(node, Note.class));
+                    } catch (JsonProcessingException e) {
+                        batches.report.reject(item, "Invalid note: " + e.getOriginalMessage());
+                    }
+                }
+            } catch (JsonProcessingException e) {
+                batches.report.reject(Math.max(item, 1), "Invalid JSON: " + e.getOriginalMessage());
+            }
+        }
+    }
+
+    /**
+     * The notes waiting to be inserted, with their item numbers, flushed each time batchSize notes are accepted.
+     */
+    private class Batches {
+
+        private final BulkInsertReport report;
+        private List<Note> notes = new ArrayList<>(batchSize);
+        private List<Long> items = new ArrayList<>(batchSize);
+        private int batchCount;
+
+        private Batches(BulkInsertReport report) {
+            this.report = report;
+        }
+
+        private void add(long item, Note note) {
+            if (note.getPatientId() < 1) {
+                report.reject(item, "patientId must be positive");
+                return;
+            }
+            if (note.getContent() == null || note.getContent().isBlank()) {
+                report.reject(item, "content must not be blank");
+                return;
+            }
+            noteService.prepareNewNote(note);
+            notes.add(note);
+            items.add(item);
+            if (notes.size() == batchSize) {
+                flush();
+            }
+        }
+
+        private void flush() {
+            if (notes.isEmpty()) {
+                return;
+            }
+            Map<Integer, String> errors = noteBatchWriter.insertAll(notes);
+            errors.forEach((index, message) -> report.reject(items.get(index), "Rejected by the database: " + message));
+            report.addBatch(new BulkInsertReport.BatchResult(++batchCount, items.get(0), items.get(items.size() - 1),
+                    notes.size() - errors.size(), errors.size()));
+            // New lists, so that the flushed batch can be released while the next one is filled
+            notes = new ArrayList<>(batchSize);
+            items = new ArrayList<>(batchSize);
+        }
+    }
+}
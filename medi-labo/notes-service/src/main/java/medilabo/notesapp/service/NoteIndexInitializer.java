@@ -0,0 +1,120 @@
+package medilabo.notesapp.service;
+
+import medilabo.notesapp.model.Note;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.stereotype.Component;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Job that creates the indexes declared on Note, then checks that the hot queries of notes-service use them. It runs once at startup if enabled, before TriggerMaskBackfill.
+ * Auto index creation of Spring Data is not used, so that the service can start and be tested without a database.
+ * A query planned as a collection scan is logged as an error, or fails the startup if configured so.
+ *
+ * @see Note
+ * @see medilabo.notesapp.repository.NoteRepository
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class NoteIndexInitializer implements ApplicationRunner {
+    private static final Logger logger = LoggerFactory.getLogger(NoteIndexInitializer.class);
+
+    private static final String COLLSCAN = "COLLSCAN";
+
+    private final MongoTemplate mongoTemplate;
+
+    @Value("${medilabo.notes.indexes.enabled}")
+    private boolean enabled;
+
+    @Value("${medilabo.notes.indexes.fail-on-collscan}")
+    private boolean failOnCollscan;
+
+    public NoteIndexInitializer(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (enabled) {
+            createIndexes();
+            checkQueryPlans();
+        }
+    }
+
+    /**
+     * Creates the indexes declared on Note. Existing indexes with the same definition are left untouched.
+     */
+    public void createIndexes() {
+        IndexOperations indexOperations = mongoTemplate.indexOps(Note.class);
+        new MongoPersistentEntityIndexResolver(mongoTemplate.getConverter().getMappingContext())
+                .resolveIndexFor(Note.class)
+                .forEach(index -> logger.info("Index {} ensured on notes", indexOperations.createIndex(index)));
+    }
+
+    /**
+     * Explains the hot queries, with a patient ID that does not need to exist, and looks for a collection scan in their winning plans. Rejected plans are ignored.
+     *
+     * @return the names of the queries planned as a collection scan - can be empty
+     * @throws IllegalStateException if a query is planned as a collection scan and fail-on-collscan is enabled
+     */
+    public List<String> checkQueryPlans() {
+        String collection = mongoTemplate.getCollectionName(Note.class);
+        Map<String, Document> plans = Map.of(
+                "notes by patient", mongoTemplate.getCollection(collection)
+                        .find(new Document("patientId", 0))
+                        .sort(new Document("_id", -1)).limit(1)
+                        .explain(),
+                "notes by patient after a note", mongoTemplate.getCollection(collection)
+                        .find(new Document("patientId", 0).append("_id", new Document("$lt", new ObjectId())))
+                        .sort(new Document("_id", -1)).limit(1)
+                        .explain(),
+                "notes by patient since a date", mongoTemplate.getCollection(collection)
+                        .find(new Document("patientId", 0).append("createdAt", new Document("$gte", new Date())))
+                        .sort(new Document("_id", -1)).limit(1)
+                        .explain());
+
+        List<String> collscans = plans.entrySet().stream()
+                .filter(plan -> hasStage(plan.getValue().get("queryPlanner", Document.class).get("winningPlan"), COLLSCAN))
+                .map(Map.Entry::getKey)
+                .sorted()
+                .toList();
+        if (collscans.isEmpty()) {
+            logger.info("Query plans checked, hot queries use indexes");
+        } else if (failOnCollscan) {
+            throw new IllegalStateException("Queries planned as a collection scan: " + collscans);
+        } else {
+            logger.error("Queries planned as a collection scan: {}", collscans);
+        }
+        return collscans;
+    }
+
+    /**
+     * Looks for a stage in an explain output. Plans are nested differently depending on the MongoDB version and query engine, so the whole tree is searched.
+     *
+     * @param plan  a part of an explain output
+     * @param stage the stage name, e.g. COLLSCAN
+     * @return true if the stage is found
+     */
+    static boolean hasStage(Object plan, String stage) {
+        if (plan instanceof Map<?, ?> map) {
+            return stage.equals(map.get("stage")) || map.values().stream().anyMatch(value -> hasStage(value, stage));
+        }
+        if (plan instanceof List<?> list) {
+            return list.stream().anyMatch(value -> hasStage(value, stage));
+        }
+        return false;
+    }
+}
@@ -2,10 +2,31 @@ package medilabo.notesapp.service;
 
 import medilabo.notesapp.exceptions.NoteNotFoundException;
 import medilabo.notesapp.model.Note;
+import medilabo.notesapp.model.NotePage;
+import medilabo.notesapp.model.NoteSummary;
+import medilabo.notesapp.model.PatientNotes;
+import medilabo.notesapp.model.TriggerMaskAggregate;
+import medilabo.notesapp.model.TriggerSummary;
 import medilabo.notesapp.repository.NoteRepository;
+import medilabo.triggers.TriggerMatcher;
+import medilabo.triggers.Triggers;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
 
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 /**
  * Service that performs operations on Note objects. Its methods are called by NoteController, and it calls NoteRepository to perform operations on the databse.
@@ -16,34 +37,201 @@ import java.util.List;
 @Service
 public class NoteService {
 
+    private static final TriggerMatcher triggerMatcher = new TriggerMatcher(Triggers.getTriggers());
+
     private final NoteRepository noteRepository;
+    private final int chunkSize;
 
-    public NoteService(NoteRepository noteRepository) {
+    public NoteService(NoteRepository noteRepository,
+                       @Value("${medilabo.notes.by-patients.chunk-size}") int chunkSize) {
         this.noteRepository = noteRepository;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Gets a page of the notes of a patient, newest first. The next page is requested with the cursor of the previous one, which is the ID of its last note, so pages stay consistent when notes are added meanwhile.
+     * One more note than the limit is requested, to know whether there is a next page without counting.
+     * If since is given, only the notes created since then are returned, so that callers that keep notes can only fetch the new ones.
+     *
+     * @param patientId
+     * @param limit     the maximum number of notes in the page
+     * @param cursor    the cursor of the previous page, or null for the first page
+     * @param since     the notes created at or after this time are returned, or null for all notes
+     * @return the NotePage, whose List is empty if there are no (more) notes
+     * @throws IllegalArgumentException if the limit is not positive or if the cursor is not a valid note ID
+     */
+    public NotePage getNotesByPatientId(int patientId, int limit, String cursor, Instant since) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Invalid limit: " + limit);
+        }
+        Limit fetchLimit = Limit.of(limit + 1);
+        List<Note> notes;
+        if (since == null) {
+            notes = cursor == null
+                    ? noteRepository.findByPatientIdOrderByIdDesc(patientId, fetchLimit)
+                    : noteRepository.findByPatientIdAndIdLessThanOrderByIdDesc(patientId, new ObjectId(cursor), fetchLimit);
+        } else {
+            notes = cursor == null
+                    ? noteRepository.findByPatientIdAndCreatedAtGreaterThanEqualOrderByIdDesc(patientId, since, fetchLimit)
+                    : noteRepository.findByPatientIdAndIdLessThanAndCreatedAtGreaterThanEqualOrderByIdDesc(patientId, new ObjectId(cursor), since, fetchLimit);
+        }
+        if (notes.size() <= limit) {
+            return new NotePage(notes, null);
+        }
+        List<Note> page = notes.subList(0, limit);
+        return new NotePage(page, page.get(limit - 1).getId());
+    }
+
+    /**
+     * Gets the notes of several patients, and passes them to a consumer grouped by patient, in ascending patient ID order.
+     * Patient IDs are queried with $in by chunks of chunkSize, and notes are read from a cursor, so only the notes of the current patient are held in memory.
+     * Patients without notes are skipped.
+     *
+     * @param patientIds
+     * @param consumer   called once for each patient that has notes
+     */
+    public void forEachPatientNotes(Collection<Integer> patientIds, Consumer<PatientNotes> consumer) {
+        List<Integer> distinctIds = patientIds.stream().distinct().sorted().toList();
+        for (int from = 0; from < distinctIds.size(); from += chunkSize) {
+            List<Integer> chunk = distinctIds.subList(from, Math.min(from + chunkSize, distinctIds.size()));
+            try (Stream<Note> notes = noteRepository.findByPatientIdInOrderByPatientIdAscIdDesc(chunk)) {
+                List<Note> group = new ArrayList<>();
+                Iterator<Note> iterator = notes.iterator();
+                while (iterator.hasNext()) {
+                    Note note = iterator.next();
+                    if (!group.isEmpty() && group.get(0).getPatientId() != note.getPatientId()) {
+                        consumer.accept(new PatientNotes(group.get(0).getPatientId(), group));
+                        group = new ArrayList<>();
+                    }
+                    group.add(note);
+                }
+                if (!group.isEmpty()) {
+                    consumer.accept(new PatientNotes(group.get(0).getPatientId(), group));
+                }
+            }
+        }
     }
 
     /**
-     * Gets all Notes according to one patient ID
+     * Evaluates the triggers present in the notes of a patient, so that callers do not need to download the notes content.
+     * The masks computed when notes were saved are OR-reduced by an aggregation. Notes that have not been backfilled yet are scanned.
+     * Callers that keep the result can send back its lastNoteId as after, so that only newer notes are evaluated.
      *
      * @param patientId
-     * @return a List of Notes
+     * @param after     the ID of the last note already evaluated by the caller, or null to evaluate all notes
+     * @return the TriggerSummary. If after is given and there is no newer note, the summary is empty and its lastNoteId is after.
+     * @throws NoteNotFoundException if after is null and no note has this ID as patientID attribute
+     * @throws IllegalArgumentException if after is not a valid note ID
+     */
+    public TriggerSummary getTriggerSummaryByPatientId(int patientId, String after) {
+        ObjectId afterId = after == null ? new ObjectId(new byte[12]) : new ObjectId(after);
+        TriggerMaskAggregate aggregate = noteRepository.aggregateTriggerMasks(patientId, afterId);
+        if (aggregate == null || aggregate.getNoteCount() == 0) {
+            if (after == null) {
+                throw new NoteNotFoundException("No notes found for patient id: " + patientId);
+            }
+            return new TriggerSummary(0, 0, after);
+        }
+        int triggerMask = aggregate.getTriggerMask();
+        if (aggregate.getUnscannedCount() > 0 && !triggerMatcher.isComplete(triggerMask)) {
+            for (Note note : noteRepository.findByPatientIdAndIdGreaterThanAndTriggerMaskIsNull(patientId, afterId)) {
+                triggerMask |= computeTriggerMask(note.getContent());
+            }
+        }
+        return new TriggerSummary(triggerMask, aggregate.getNoteCount(), aggregate.getLastNoteId());
+    }
+
+    /**
+     * Evaluates the triggers present in the notes of several patients, as getTriggerSummaryByPatientId does for one, with one aggregation per chunk of chunkSize patient IDs.
+     * Notes that have not been backfilled yet are scanned, with one more query per chunk for the patients whose triggers are not all found.
+     *
+     * @param patientIds
+     * @return a Map of patient ID to TriggerSummary, in ascending patient ID order. Patients without notes are absent.
+     */
+    public Map<Integer, TriggerSummary> getTriggerSummariesByPatientIds(Collection<Integer> patientIds) {
+        Map<Integer, TriggerSummary> triggerSummaries = new LinkedHashMap<>();
+        List<Integer> distinctIds = patientIds.stream().distinct().sorted().toList();
+        for (int from = 0; from < distinctIds.size(); from += chunkSize) {
+            List<Integer> chunk = distinctIds.subList(from, Math.min(from + chunkSize, distinctIds.size()));
+            Map<Integer, TriggerMaskAggregate> aggregates = new TreeMap<>();
+            Map<Integer, Integer> triggerMasks = new HashMap<>();
+            List<Integer> unscannedIds = new ArrayList<>();
+            for (TriggerMaskAggregate aggregate : noteRepository.aggregateTriggerMasksByPatientIds(chunk)) {
+                aggregates.put(aggregate.getPatientId(), aggregate);
+                triggerMasks.put(aggregate.getPatientId(), aggregate.getTriggerMask());
+                if (aggregate.getUnscannedCount() > 0 && !triggerMatcher.isComplete(aggregate.getTriggerMask())) {
+                    unscannedIds.add(aggregate.getPatientId());
+                }
+            }
+            if (!unscannedIds.isEmpty()) {
+                try (Stream<Note> notes = noteRepository.findByPatientIdInAndTriggerMaskIsNull(unscannedIds)) {
+                    notes.forEach(note -> triggerMasks.merge(note.getPatientId(), computeTriggerMask(note.getContent()), (a, b) -> a | b));
+                }
+            }
+            aggregates.forEach((patientId, aggregate) -> triggerSummaries.put(patientId,
+                    new TriggerSummary(triggerMasks.get(patientId), aggregate.getNoteCount(), aggregate.getLastNoteId())));
+        }
+        return triggerSummaries;
+    }
+
+    /**
+     * Gets the number of notes of a patient, their first and last IDs and the total length of their content, computed by an aggregation that does not return the notes content.
+     *
+     * @param patientId
+     * @return the NoteSummary
      * @throws NoteNotFoundException if no note has this ID as patientID attribute
      */
-    public List<Note> getNotesByPatientId(int patientId) {
-        List<Note> notes = noteRepository.findByPatientId(patientId);
-        if (notes.isEmpty()) {
+    public NoteSummary getNoteSummaryByPatientId(int patientId) {
+        NoteSummary noteSummary = noteRepository.aggregateSummary(patientId);
+        if (noteSummary == null || noteSummary.getNoteCount() == 0) {
             throw new NoteNotFoundException("No notes found for patient id: " + patientId);
         }
-        return notes;
+        return noteSummary;
+    }
+
+    /**
+     * Gets the ID of the newest note of a patient with a single index lookup. Notes are only ever added, so this ID changes each time the notes of the patient change.
+     *
+     * @param patientId
+     * @return the ID of the newest note, or null if the patient has no notes
+     */
+    public String getLastNoteId(int patientId) {
+        List<Note> notes = noteRepository.findIdsByPatientId(patientId, Limit.of(1));
+        return notes.isEmpty() ? null : notes.get(0).getId();
+    }
+
+    /**
+     * Scans a note content once to find the triggers it contains.
+     *
+     * @param content
+     * @return the bitmask of matched triggers - can be 0
+     */
+    public int computeTriggerMask(String content) {
+        return triggerMatcher.match(content);
+    }
+
+    /**
+     * Sets the fields of a new note that are computed by the server: its trigger mask, so that the content does not need to be scanned again, and its creation and update times.
+     * Times are truncated to milliseconds, the precision of MongoDB dates, so that the returned note is the same as the one read later.
+     *
+     * @param note
+     * @return the same note
+     */
+    public Note prepareNewNote(Note note) {
+        Instant now = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+        note.setTriggerMask(computeTriggerMask(note.getContent()));
+        note.setCreatedAt(now);
+        note.setUpdatedAt(now);
+        return note;
     }
 
     /**
-     * Adds a new Note.
+     * Adds a new Note, with the fields set by prepareNewNote.
      *
      * @param note
      * @return the saved note
      */
     public Note addNote(Note note) {
-        return noteRepository.save(note);
+        return noteRepository.save(prepareNewNote(note));
     }
 }
@@ -0,0 +1,53 @@
+package medilabo.notesapp.service;
+
+import medilabo.notesapp.model.Note;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+
+/**
+ * Job that sets the creation and update times of notes saved before timestamps existed, so that they are returned by queries on createdAt. It runs once at startup if enabled, in batches, until no note without creation time remains.
+ * The times are read from the note IDs, as ObjectIds start with their creation time in seconds.
+ *
+ * @see NoteService#prepareNewNote(Note)
+ */
+@Component
+public class NoteTimestampBackfill implements ApplicationRunner {
+
+    private final NoteBackfill noteBackfill;
+
+    @Value("${medilabo.notes.timestamps.backfill.enabled}")
+    private boolean enabled;
+
+    @Value("${medilabo.notes.timestamps.backfill.batch-size}")
+    private int batchSize;
+
+    public NoteTimestampBackfill(NoteBackfill noteBackfill) {
+        this.noteBackfill = noteBackfill;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (enabled) {
+            backfill();
+        }
+    }
+
+    /**
+     * Sets the missing creation and update times, reading the IDs of the notes only.
+     *
+     * @return the number of updated notes
+     */
+    public int backfill() {
+        return noteBackfill.backfill("timestamps", Criteria.where("createdAt").isNull(), note -> {
+            Instant createdAt = new ObjectId(note.getId()).getDate().toInstant();
+            return Update.update("createdAt", createdAt).set("updatedAt", createdAt);
+        }, batchSize);
+    }
+}
@@ -0,0 +1,49 @@
+package medilabo.notesapp.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+/**
+ * Job that computes the trigger mask of notes saved before masks existed. It runs once at startup if enabled, in batches, until no unscanned note remains.
+ *
+ * @see NoteService#computeTriggerMask(String)
+ */
+@Component
+public class TriggerMaskBackfill implements ApplicationRunner {
+
+    private final NoteBackfill noteBackfill;
+    private final NoteService noteService;
+
+    @Value("${medilabo.notes.trigger-mask.backfill.enabled}")
+    private boolean enabled;
+
+    @Value("${medilabo.notes.trigger-mask.backfill.batch-size}")
+    private int batchSize;
+
+    public TriggerMaskBackfill(NoteBackfill noteBackfill, NoteService noteService) {
+        this.noteBackfill = noteBackfill;
+        this.noteService = noteService;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (enabled) {
+            backfill();
+        }
+    }
+
+    /**
+     * Computes and saves the missing trigger masks, reading the content of the notes only.
+     *
+     * @return the number of updated notes
+     */
+    public int backfill() {
+        return noteBackfill.backfill("trigger mask", Criteria.where("triggerMask").isNull(),
+                note -> Update.update("triggerMask", noteService.computeTriggerMask(note.getContent())),
+                batchSize, "content");
+    }
+}
@@ -0,0 +1,128 @@
+package medilabo.notesapp;
+
+import medilabo.notesapp.model.Note;
+import medilabo.notesapp.service.NoteBackfill;
+import medilabo.notesapp.service.NoteService;
+import medilabo.notesapp.service.NoteTimestampBackfill;
+import medilabo.notesapp.service.TriggerMaskBackfill;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class NoteBackfillTest {
+
+    private MongoTemplate mongoTemplate;
+    private BulkOperations bulkOperations;
+    private NoteBackfill noteBackfill;
+
+    @BeforeEach
+    public void beforeEach() {
+        mongoTemplate = mock(MongoTemplate.class);
+        bulkOperations = mock(BulkOperations.class, RETURNS_DEEP_STUBS);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Note.class)).thenReturn(bulkOperations);
+        noteBackfill = new NoteBackfill(mongoTemplate);
+    }
+
+    @Test
+    public void backfill_withSeveralBatches_shouldPageOnIdUntilNoNoteRemains() {
+
+        Note first = note("000000000000000000000001");
+        Note second = note("000000000000000000000002");
+        Note third = note("000000000000000000000003");
+        when(mongoTemplate.find(any(Query.class), eq(Note.class))).thenReturn(List.of(first, second), List.of(third), List.of());
+        // The note of the second batch is not modified, and must not be fetched again
+        when(bulkOperations.execute().getModifiedCount()).thenReturn(2, 0);
+
+        int updated = noteBackfill.backfill("test", Criteria.where("field").isNull(), note -> Update.update("field", 1), 2, "content");
+
+        assertEquals(2, updated);
+        ArgumentCaptor<Query> queries = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate, times(3)).find(queries.capture(), eq(Note.class));
+        assertEquals(List.of(new ObjectId(new byte[12]), new ObjectId(second.getId()), new ObjectId(third.getId())),
+                queries.getAllValues().stream().map(NoteBackfillTest::after).toList());
+        Query query = queries.getValue();
+        assertEquals(2, query.getLimit());
+        assertEquals(new Document("_id", 1), query.getSortObject());
+        assertEquals(new Document("content", 1), query.getFieldsObject());
+        verify(bulkOperations).updateOne(Query.query(Criteria.where("_id").is(third.getId())), Update.update("field", 1));
+    }
+
+    @Test
+    public void triggerMaskBackfill_withUnscannedNote_shouldSetTriggerMaskFromContent() {
+
+        NoteService noteService = mock(NoteService.class);
+        when(noteService.computeTriggerMask("Fumeur")).thenReturn(5);
+        TriggerMaskBackfill triggerMaskBackfill = new TriggerMaskBackfill(noteBackfill, noteService);
+        ReflectionTestUtils.setField(triggerMaskBackfill, "batchSize", 10);
+        Note note = note("000000000000000000000001");
+        note.setContent("Fumeur");
+        when(mongoTemplate.find(any(Query.class), eq(Note.class))).thenReturn(List.of(note), List.of());
+        when(bulkOperations.execute().getModifiedCount()).thenReturn(1);
+
+        assertEquals(1, triggerMaskBackfill.backfill());
+
+        ArgumentCaptor<Query> queries = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate, times(2)).find(queries.capture(), eq(Note.class));
+        assertEquals(new Document("triggerMask", null), filter(queries.getValue()));
+        assertEquals(new Document("content", 1), queries.getValue().getFieldsObject());
+        verify(bulkOperations).updateOne(Query.query(Criteria.where("_id").is(note.getId())), Update.update("triggerMask", 5));
+    }
+
+    @Test
+    public void noteTimestampBackfill_withNoteWithoutCreatedAt_shouldSetTimesFromId() {
+
+        NoteTimestampBackfill noteTimestampBackfill = new NoteTimestampBackfill(noteBackfill);
+        ReflectionTestUtils.setField(noteTimestampBackfill, "batchSize", 10);
+        Note note = note("65a0000a0000000000000001");
+        when(mongoTemplate.find(any(Query.class), eq(Note.class))).thenReturn(List.of(note), List.of());
+        when(bulkOperations.execute().getModifiedCount()).thenReturn(1);
+
+        assertEquals(1, noteTimestampBackfill.backfill());
+
+        ArgumentCaptor<Query> queries = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate, times(2)).find(queries.capture(), eq(Note.class));
+        assertEquals(new Document("createdAt", null), filter(queries.getValue()));
+        Instant createdAt = Instant.ofEpochSecond(0x65a0000aL);
+        verify(bulkOperations).updateOne(Query.query(Criteria.where("_id").is(note.getId())),
+                Update.update("createdAt", createdAt).set("updatedAt", createdAt));
+    }
+
+    private static Note note(String id) {
+        Note note = new Note();
+        ReflectionTestUtils.setField(note, "id", id);
+        return note;
+    }
+
+    private static Document filter(Query query) {
+        return and(query).get(0);
+    }
+
+    private static Object after(Query query) {
+        return and(query).get(1).get("_id", Document.class).get("$gt");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Document> and(Query query) {
+        return (List<Document>) query.getQueryObject().get("$and");
+    }
+}
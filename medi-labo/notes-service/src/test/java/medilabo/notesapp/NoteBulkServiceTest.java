@@ -0,0 +1,122 @@
+package medilabo.notesapp;
+
+import medilabo.bulk.BulkInsertReport;
+import medilabo.notesapp.model.Note;
+import medilabo.notesapp.repository.NoteBatchWriter;
+import medilabo.notesapp.repository.NoteRepository;
+import medilabo.notesapp.service.NoteBulkService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@SpringBootTest
+@ActiveProfiles("test")
+public class NoteBulkServiceTest {
+
+    @Autowired
+    private NoteBulkService noteBulkService;
+
+    @MockitoBean
+    private NoteBatchWriter noteBatchWriter;
+
+    @MockitoBean
+    private NoteRepository noteRepository;
+
+    @Test
+    public void insertNotes_withNdjson_shouldInsertByBatchesAndRejectInvalidLines() throws Exception {
+
+        when(noteBatchWriter.insertAll(anyList())).thenReturn(Map.of());
+        String body = """
+                {"patientId": 1, "content": "Fumeur"}
+                {"patientId": 1, "content": "Vertiges"}
+
+                {"patientId": 2, "content": ""}
+                not json
+                {"patientId": 2, "content": "Rechute"}
+                """;
+
+        BulkInsertReport report = noteBulkService.insertNotes(stream(body), NoteBulkService.Format.NDJSON);
+
+        assertEquals(3, report.getInserted());
+        assertEquals(2, report.getRejected());
+        assertEquals(List.of(4L, 5L), report.getErrors().stream().map(BulkInsertReport.ItemError::item).toList());
+        assertEquals(List.of(new BulkInsertReport.BatchResult(1, 1, 2, 2, 0), new BulkInsertReport.BatchResult(2, 6, 6, 1, 0)),
+                report.getBatches());
+        verify(noteBatchWriter, times(2)).insertAll(anyList());
+        verify(noteBatchWriter).insertAll(argThat(notes -> notes.size() == 1 && notes.get(0).getTriggerMask() != null));
+    }
+
+    @Test
+    public void insertNotes_withJsonArray_shouldReadElementByElement() throws Exception {
+
+        when(noteBatchWriter.insertAll(anyList())).thenReturn(Map.of());
+        String body = """
+                [{"patientId": 1, "content": "Fumeur"},
+                 {"patientId": "one", "content": "Vertiges"},
+                 {"patientId": 0, "content": "Rechute"},
+                 {"patientId": 3, "content": "Rechute"}]""";
+
+        BulkInsertReport report = noteBulkService.insertNotes(stream(body), NoteBulkService.Format.JSON_ARRAY);
+
+        assertEquals(2, report.getInserted());
+        assertEquals(List.of(2L, 3L), report.getErrors().stream().map(BulkInsertReport.ItemError::item).toList());
+        assertEquals(List.of(new BulkInsertReport.BatchResult(1, 1, 4, 2, 0)), report.getBatches());
+    }
+
+    @Test
+    public void insertNotes_withTruncatedJsonArray_shouldInsertNotesReadBeforeTheError() throws Exception {
+
+        when(noteBatchWriter.insertAll(anyList())).thenReturn(Map.of());
+        String body = "[{\"patientId\": 1, \"content\": \"Fumeur\"}, {\"patientId\": 2, \"con";
+
+        BulkInsertReport report = noteBulkService.insertNotes(stream(body), NoteBulkService.Format.JSON_ARRAY);
+
+        assertEquals(1, report.getInserted());
+        assertEquals(1, report.getRejected());
+        assertEquals(2, report.getErrors().get(0).item());
+    }
+
+    @Test
+    public void insertNotes_withDatabaseErrors_shouldReportFailedNotes() throws Exception {
+
+        when(noteBatchWriter.insertAll(anyList())).thenReturn(Map.of(1, "duplicate key"));
+        String body = """
+                {"patientId": 1, "content": "Fumeur"}
+                {"patientId": 1, "content": "Vertiges"}
+                """;
+
+        BulkInsertReport report = noteBulkService.insertNotes(stream(body), NoteBulkService.Format.NDJSON);
+
+        assertEquals(1, report.getInserted());
+        assertEquals(1, report.getRejected());
+        assertEquals(new BulkInsertReport.ItemError(2, "Rejected by the database: duplicate key"), report.getErrors().get(0));
+        assertEquals(new BulkInsertReport.BatchResult(1, 1, 2, 1, 1), report.getBatches().get(0));
+    }
+
+    @Test
+    public void insertNotes_withJsonObjectInsteadOfArray_shouldThrow() {
+
+        assertThrows(IllegalArgumentException.class,
+                () -> noteBulkService.insertNotes(stream("{\"patientId\": 1}"), NoteBulkService.Format.JSON_ARRAY));
+    }
+
+    private static InputStream stream(String body) {
+        return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -3,27 +3,42 @@ package medilabo.notesapp;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import medilabo.notesapp.config.SecurityConfig;
+import medilabo.notesapp.controller.NoteController;
 import medilabo.notesapp.model.Note;
 import medilabo.notesapp.repository.NoteRepository;
+import org.bson.Document;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Limit;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.http.MediaType;
 import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @SpringBootTest
@@ -38,6 +53,15 @@ public class NoteControllerIT {
     @Autowired
     private NoteRepository noteRepository;
 
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private NoteController noteController;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
     private List<Note> backup;
 
     // Notes present in the test database are saved before each test and restored after each test to ensure data stability between tests.
@@ -62,13 +86,70 @@ public class NoteControllerIT {
                 .andReturn();
 
         String resultContent = result.getResponse().getContentAsString();
-        List<Note> resultNotes = new ObjectMapper()
+        List<Note> resultNotes = objectMapper
                 .readValue(resultContent, new TypeReference<List<Note>>() {
                 });
 
         assertEquals(1, resultNotes.size());
     }
 
+    @Test
+    @WithMockUser
+    public void getNotesByPatientId_withLimit_shouldReturnPagesNewestFirst() throws Exception {
+
+        for (int i = 0; i < 3; i++) {
+            Note note = new Note();
+            note.setPatientId(1);
+            note.setContent("Note " + i);
+            noteRepository.insert(note);
+        }
+
+        MvcResult firstPage = mockMvc
+                .perform(get("/notes/1").param("limit", "2"))
+                .andExpect(status().isOk())
+                .andReturn();
+        List<Note> firstNotes = objectMapper
+                .readValue(firstPage.getResponse().getContentAsString(), new TypeReference<List<Note>>() {
+                });
+        String cursor = firstPage.getResponse().getHeader(NoteController.NEXT_CURSOR_HEADER);
+
+        MvcResult secondPage = mockMvc
+                .perform(get("/notes/1").param("limit", "2").param("cursor", cursor))
+                .andExpect(status().isOk())
+                .andReturn();
+        List<Note> secondNotes = objectMapper
+                .readValue(secondPage.getResponse().getContentAsString(), new TypeReference<List<Note>>() {
+                });
+
+        assertEquals(List.of("Note 2", "Note 1"), firstNotes.stream().map(Note::getContent).toList());
+        assertEquals(2, secondNotes.size());
+        assertEquals("Note 0", secondNotes.get(0).getContent());
+        assertNull(secondPage.getResponse().getHeader(NoteController.NEXT_CURSOR_HEADER));
+    }
+
+    @Test
+    @WithMockUser
+    public void getNotesByPatientId_withETag_shouldReturnNotModifiedUntilANoteIsAdded() throws Exception {
+
+        String eTag = mockMvc.perform(get("/notes/1"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+
+        mockMvc.perform(get("/notes/1").header("If-None-Match", eTag))
+                .andExpect(status().isNotModified());
+
+        Note note = new Note();
+        note.setPatientId(1);
+        note.setContent("new note");
+        noteRepository.insert(note);
+
+        String newETag = mockMvc.perform(get("/notes/1").header("If-None-Match", eTag))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+
+        assertNotEquals(eTag, newETag);
+    }
+
     @Test
     @WithMockUser
     public void getNotesByPatientId_withNoNotes_shouldReturnNoContent() throws Exception {
@@ -93,13 +174,177 @@ public class NoteControllerIT {
         MvcResult result = mockMvc
                 .perform(post("/notes")
                         .contentType(MediaType.APPLICATION_JSON)
-                        .content(new ObjectMapper().writeValueAsString(note)))
+                        .content(objectMapper.writeValueAsString(note)))
                 .andExpect(status().isCreated())
                 .andReturn();
 
         String resultContent = result.getResponse().getContentAsString();
-        Note resultNote = new ObjectMapper().readValue(resultContent, Note.class);
+        Note resultNote = objectMapper.readValue(resultContent, Note.class);
 
         assertEquals(note.getContent(), resultNote.getContent());
     }
+
+    @Test
+    @WithMockUser
+    public void insertNotes_withNdjson_shouldInsertNotesAndReturnReport() throws Exception {
+
+        long count = noteRepository.count();
+
+        mockMvc.perform(post("/notes/bulk")
+                        .contentType("application/x-ndjson")
+                        .content("""
+                                {"patientId": 1, "content": "Fumeur"}
+                                {"patientId": 1, "content": "Vertiges"}
+                                {"patientId": 2, "content": "Rechute"}
+                                {"patientId": 2}
+                                """))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.inserted").value(3))
+                .andExpect(jsonPath("$.rejected").value(1))
+                .andExpect(jsonPath("$.batches.length()").value(2));
+
+        assertEquals(count + 3, noteRepository.count());
+    }
+
+    @Test
+    @WithMockUser
+    public void getNotesByPatientIds_shouldReturnNotesOfPatientsWithNotes() throws Exception {
+
+        MvcResult result = mockMvc.perform(post("/notes/by-patients")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[1, 123456789]"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].patientId").value(1))
+                .andExpect(jsonPath("$[0].notes.length()").value(1));
+    }
+
+    @Test
+    public void getNotesByPatientIds_withClientGoneMidStream_shouldReleaseCursor() {
+
+        // More notes than the first batch of a cursor, so that the cursor is still open on the server when the client is gone
+        insertNotes(1, 150);
+        long openCursors = openCursors();
+        StreamingResponseBody body = noteController.getNotesByPatientIds(Set.of(1)).getBody();
+
+        assertThrows(IOException.class, () -> body.writeTo(goneClient()));
+        assertEquals(openCursors, openCursors());
+    }
+
+    @Test
+    @WithMockUser
+    public void getTriggersByPatientIds_shouldReturnTriggersOfPatientsWithNotes() throws Exception {
+
+        Note note = noteRepository.findByPatientIdOrderByIdDesc(1, Limit.of(1)).get(0);
+
+        mockMvc.perform(post("/notes/by-patients/triggers")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[1, 123456789]"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.1.noteCount").value(1))
+                .andExpect(jsonPath("$.1.lastNoteId").value(note.getId()))
+                .andExpect(jsonPath("$.123456789").doesNotExist());
+    }
+
+    @Test
+    @WithMockUser
+    public void getNoteSummaryByPatientId_shouldReturnSummaryAndOk() throws Exception {
+
+        Note note = noteRepository.findByPatientIdOrderByIdDesc(1, Limit.of(1)).get(0);
+
+        mockMvc.perform(get("/notes/1/summary"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.noteCount").value(1))
+                .andExpect(jsonPath("$.lastNoteId").value(note.getId()))
+                .andExpect(jsonPath("$.totalContentLength").value(note.getContent().codePointCount(0, note.getContent().length())));
+    }
+
+    @Test
+    @WithMockUser
+    public void streamNotesByPatientId_shouldStreamNdjsonNewestFirst() throws Exception {
+
+        Note newNote = new Note();
+        newNote.setPatientId(1);
+        newNote.setContent("new note");
+        noteRepository.save(newNote);
+
+        MvcResult result = mockMvc.perform(get("/notes/1").accept(MediaType.APPLICATION_NDJSON))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        MvcResult streamResult = mockMvc.perform(asyncDispatch(result)).andReturn();
+        // The notes, and their content type, are written by another thread: the stream is complete once its async result is set
+        streamResult.getAsyncResult();
+        status().isOk().match(streamResult);
+        String resultContent = streamResult.getResponse().getContentAsString();
+
+        List<String> lines = resultContent.lines().toList();
+        assertEquals(2, lines.size());
+        assertEquals("new note", objectMapper.readValue(lines.get(0), Note.class).getContent());
+    }
+
+    @Test
+    public void streamNotesByPatientId_withClientGoneMidStream_shouldReleaseCursor() {
+
+        insertNotes(1, 150);
+        long openCursors = openCursors();
+        StreamingResponseBody body = noteController.streamNotesByPatientId(1, null, null, null).getBody();
+
+        assertThrows(IOException.class, () -> body.writeTo(goneClient()));
+        assertEquals(openCursors, openCursors());
+    }
+
+    @Test
+    @WithMockUser
+    public void getNotesByPatientId_withSince_shouldReturnOnlyNewerNotes() throws Exception {
+
+        MvcResult addResult = mockMvc.perform(post("/notes")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"patientId\": 1, \"content\": \"new note\"}"))
+                .andExpect(status().isCreated())
+                .andReturn();
+        Note newNote = objectMapper.readValue(addResult.getResponse().getContentAsString(), Note.class);
+
+        mockMvc.perform(get("/notes/1").param("since", newNote.getCreatedAt().toString()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].id").value(newNote.getId()));
+        mockMvc.perform(get("/notes/1").param("since", newNote.getCreatedAt().plusMillis(1).toString()))
+                .andExpect(status().isNoContent());
+    }
+
+    private void insertNotes(int patientId, int count) {
+        List<Note> notes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Note note = new Note();
+            note.setPatientId(patientId);
+            note.setContent("Note " + i);
+            notes.add(note);
+        }
+        noteRepository.insert(notes);
+    }
+
+    private long openCursors() {
+        Document serverStatus = mongoTemplate.executeCommand(new Document("serverStatus", 1));
+        Document cursors = serverStatus.get("metrics", Document.class).get("cursor", Document.class);
+        return ((Number) cursors.get("open", Document.class).get("total")).longValue();
+    }
+
+    // A client that receives the first notes, then is gone when they are flushed
+    private static OutputStream goneClient() {
+        return new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void flush() throws IOException {
+                throw new IOException("Broken pipe");
+            }
+        };
+    }
 }
@@ -2,11 +2,18 @@ package medilabo.notesapp;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import medilabo.bulk.BulkInsertReport;
 import medilabo.notesapp.config.SecurityConfig;
 import medilabo.notesapp.controller.NoteController;
 import medilabo.notesapp.exceptions.NoteNotFoundException;
 import medilabo.notesapp.model.Note;
+import medilabo.notesapp.model.NotePage;
+import medilabo.notesapp.model.NoteSummary;
+import medilabo.notesapp.model.PatientNotes;
+import medilabo.notesapp.model.TriggerSummary;
+import medilabo.notesapp.service.NoteBulkService;
 import medilabo.notesapp.service.NoteService;
+import medilabo.security.ServiceToken;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.context.annotation.Import;
@@ -16,19 +23,40 @@ import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @WebMvcTest(controllers = NoteController.class)
@@ -39,26 +67,57 @@ public class NoteControllerTest {
     @Autowired
     private MockMvc mockMvc;
 
+    @Autowired
+    private ServiceToken serviceToken;
+
     @MockitoBean
     private NoteService noteService;
 
+    @MockitoBean
+    private NoteBulkService noteBulkService;
+
+    @Autowired
+    private NoteController noteController;
+
     private Note note;
 
     @BeforeEach
     public void beforeEach() {
         note = new Note();
         note.setPatientId(1);
+        ReflectionTestUtils.setField(note, "id", "noteId");
+    }
+
+    @Test
+    public void getNotesByPatientId_withServiceToken_shouldReturnOk() throws Exception {
+
+        when(noteService.getNotesByPatientId(anyInt(), anyInt(), any(), any())).thenReturn(new NotePage(List.of(note), null));
+        String token = serviceToken.issue("user", Duration.ofMinutes(5));
+
+        mockMvc.perform(get("/notes/1").header("Authorization", "Bearer " + token))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    public void getNotesByPatientId_withForgedServiceToken_shouldReturnUnauthorized() throws Exception {
+
+        String token = new ServiceToken("another-secret").issue("user", Duration.ofMinutes(5));
+
+        mockMvc.perform(get("/notes/1").header("Authorization", "Bearer " + token))
+                .andExpect(status().isUnauthorized());
     }
 
     @Test
     @WithMockUser
     public void getNotesByPatientId_shouldReturnNotesAndOk() throws Exception {
 
-        when(noteService.getNotesByPatientId(anyInt())).thenReturn(List.of(note));
+        when(noteService.getNotesByPatientId(anyInt(), anyInt(), any(), any())).thenReturn(new NotePage(List.of(note), "nextCursor"));
 
         MvcResult result = mockMvc
                 .perform(get("/notes/1"))
                 .andExpect(status().isOk())
+                .andExpect(header().string(NoteController.NEXT_CURSOR_HEADER, "nextCursor"))
+                .andExpect(header().string("ETag", "\"notes-1-noteId-20\""))
                 .andReturn();
 
         String resultContent = result.getResponse().getContentAsString();
@@ -67,14 +126,111 @@ public class NoteControllerTest {
                 });
 
         assertEquals(1, resultNotes.size());
-        verify(noteService).getNotesByPatientId(anyInt());
+        verify(noteService).getNotesByPatientId(1, 20, null, null);
     }
 
     @Test
     @WithMockUser
-    public void getNotesByPatientId_withNoNotesException_shouldReturnNoContent() throws Exception {
+    public void getNotesByPatientId_withMatchingETag_shouldReturnNotModifiedWithoutReadingNotes() throws Exception {
 
-        when(noteService.getNotesByPatientId(anyInt())).thenThrow(new NoteNotFoundException());
+        when(noteService.getLastNoteId(anyInt())).thenReturn("noteId");
+
+        MvcResult result = mockMvc
+                .perform(get("/notes/1").header("If-None-Match", "\"notes-1-noteId-20\""))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", "\"notes-1-noteId-20\""))
+                .andReturn();
+
+        assertTrue(result.getResponse().getContentAsString().isEmpty());
+        verify(noteService).getLastNoteId(1);
+        verify(noteService, never()).getNotesByPatientId(anyInt(), anyInt(), any(), any());
+    }
+
+    @Test
+    @WithMockUser
+    public void getNotesByPatientId_withETagOfAnotherLimit_shouldReturnNotesAndOk() throws Exception {
+
+        when(noteService.getLastNoteId(anyInt())).thenReturn("noteId");
+        when(noteService.getNotesByPatientId(anyInt(), anyInt(), any(), any())).thenReturn(new NotePage(List.of(note), null));
+
+        mockMvc.perform(get("/notes/1").param("limit", "10").header("If-None-Match", "\"notes-1-noteId-20\""))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"notes-1-noteId-10\""));
+    }
+
+    @Test
+    @WithMockUser
+    public void getNotesByPatientId_withCursor_shouldNotRevalidate() throws Exception {
+
+        when(noteService.getNotesByPatientId(anyInt(), anyInt(), any(), any())).thenReturn(new NotePage(List.of(note), null));
+
+        mockMvc.perform(get("/notes/1").param("cursor", "cursor").header("If-None-Match", "\"notes-1-noteId-20\""))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist("ETag"));
+
+        verify(noteService, never()).getLastNoteId(anyInt());
+    }
+
+    @Test
+    @WithMockUser
+    public void getNotesByPatientId_withInvalidLimitAndETag_shouldReturnBadRequest() throws Exception {
+
+        mockMvc.perform(get("/notes/1").param("limit", "0").header("If-None-Match", "\"notes-1-noteId-0\""))
+                .andExpect(status().isBadRequest());
+
+        verify(noteService, never()).getLastNoteId(anyInt());
+    }
+
+    @Test
+    @WithMockUser
+    public void getNotesByPatientId_withLimitAndCursor_shouldCapLimitAndPassCursor() throws Exception {
+
+        when(noteService.getNotesByPatientId(anyInt(), anyInt(), any(), any())).thenReturn(new NotePage(List.of(note), null));
+
+        mockMvc.perform(get("/notes/1").param("limit", "10000").param("cursor", "cursor"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(NoteController.NEXT_CURSOR_HEADER));
+
+        verify(noteService).getNotesByPatientId(1, 500, "cursor", null);
+    }
+
+    @Test
+    @WithMockUser
+    public void getNotesByPatientId_withSince_shouldPassInstant() throws Exception {
+
+        when(noteService.getNotesByPatientId(anyInt(), anyInt(), any(), any())).thenReturn(new NotePage(List.of(note), null));
+
+        mockMvc.perform(get("/notes/1").param("since", "2024-06-01T10:15:30Z"))
+                .andExpect(status().isOk());
+
+        verify(noteService).getNotesByPatientId(1, 20, null, Instant.parse("2024-06-01T10:15:30Z"));
+    }
+
+    @Test
+    @WithMockUser
+    public void getNotesByPatientId_withInvalidSince_shouldReturnBadRequest() throws Exception {
+
+        mockMvc.perform(get("/notes/1").param("since", "yesterday"))
+                .andExpect(status().isBadRequest());
+
+        verify(noteService, never()).getNotesByPatientId(anyInt(), anyInt(), any(), any());
+    }
+
+    @Test
+    @WithMockUser
+    public void getNotesByPatientId_withInvalidCursor_shouldReturnBadRequest() throws Exception {
+
+        when(noteService.getNotesByPatientId(anyInt(), anyInt(), any(), any())).thenThrow(new IllegalArgumentException());
+
+        mockMvc.perform(get("/notes/1").param("cursor", "invalid"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @WithMockUser
+    public void getNotesByPatientId_withNoNotes_shouldReturnNoContent() throws Exception {
+
+        when(noteService.getNotesByPatientId(anyInt(), anyInt(), any(), any())).thenReturn(new NotePage(List.of(), null));
 
         MvcResult result = mockMvc
                 .perform(get("/notes/1"))
@@ -84,7 +240,176 @@ public class NoteControllerTest {
         String resultContent = result.getResponse().getContentAsString();
 
         assertTrue(resultContent.isEmpty());
-        verify(noteService).getNotesByPatientId(anyInt());
+        verify(noteService).getNotesByPatientId(anyInt(), anyInt(), any(), any());
+    }
+
+    @Test
+    public void streamNotesByPatientId_withServiceToken_shouldStreamNdjsonAndOk() throws Exception {
+
+        Note olderNote = new Note();
+        olderNote.setPatientId(1);
+        olderNote.setContent("older");
+        when(noteService.getNotesByPatientId(anyInt(), anyInt(), any(), any())).thenReturn(new NotePage(List.of(note, olderNote), null));
+        String token = serviceToken.issue("user", Duration.ofMinutes(5));
+
+        MvcResult result = mockMvc.perform(get("/notes/1")
+                        .accept(MediaType.APPLICATION_NDJSON)
+                        .header("Authorization", "Bearer " + token))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        MvcResult streamResult = mockMvc.perform(asyncDispatch(result)).andReturn();
+        status().isOk().match(streamResult);
+        content().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON).match(streamResult);
+        String resultContent = streamResult.getResponse().getContentAsString();
+
+        List<String> lines = resultContent.lines().toList();
+        assertEquals(2, lines.size());
+        assertEquals("older", new ObjectMapper().readValue(lines.get(1), Note.class).getContent());
+        verify(noteService).getNotesByPatientId(1, 500, null, null);
+    }
+
+    @Test
+    @WithMockUser
+    public void streamNotesByPatientId_withLimit_shouldReadPagesUntilLimit() throws Exception {
+
+        when(noteService.getNotesByPatientId(1, 3, "cursor", null)).thenReturn(new NotePage(List.of(note, note), "noteId"));
+        when(noteService.getNotesByPatientId(1, 1, "noteId", null)).thenReturn(new NotePage(List.of(note), "noteId"));
+
+        MvcResult result = mockMvc.perform(get("/notes/1").param("limit", "3").param("cursor", "cursor")
+                        .accept(MediaType.APPLICATION_NDJSON))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        MvcResult streamResult = mockMvc.perform(asyncDispatch(result)).andReturn();
+        status().isOk().match(streamResult);
+        String resultContent = streamResult.getResponse().getContentAsString();
+
+        assertEquals(3, resultContent.lines().count());
+        verify(noteService, times(2)).getNotesByPatientId(anyInt(), anyInt(), any(), any());
+    }
+
+    @Test
+    @WithMockUser
+    public void streamNotesByPatientId_withClientGoneMidStream_shouldNotReadNextPage() {
+
+        when(noteService.getNotesByPatientId(anyInt(), anyInt(), any(), any())).thenReturn(new NotePage(List.of(note), "noteId"));
+        StreamingResponseBody body = noteController.streamNotesByPatientId(1, null, null, null).getBody();
+        OutputStream goneClient = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void flush() throws IOException {
+                throw new IOException("Broken pipe");
+            }
+        };
+
+        assertThrows(IOException.class, () -> body.writeTo(goneClient));
+        verify(noteService).getNotesByPatientId(1, 500, null, null);
+        verify(noteService, never()).getNotesByPatientId(anyInt(), anyInt(), eq("noteId"), any());
+    }
+
+    @Test
+    @WithMockUser
+    public void streamNotesByPatientId_withNoNotes_shouldReturnNoContent() throws Exception {
+
+        when(noteService.getNotesByPatientId(anyInt(), anyInt(), any(), any())).thenReturn(new NotePage(List.of(), null));
+
+        mockMvc.perform(get("/notes/1").accept(MediaType.APPLICATION_NDJSON))
+                .andExpect(status().isNoContent());
+    }
+
+    @Test
+    @WithMockUser
+    public void streamNotesByPatientId_withInvalidCursorOrLimit_shouldReturnBadRequest() throws Exception {
+
+        when(noteService.getNotesByPatientId(anyInt(), anyInt(), any(), any())).thenThrow(new IllegalArgumentException());
+
+        mockMvc.perform(get("/notes/1").param("cursor", "invalid").accept(MediaType.APPLICATION_NDJSON))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/notes/1").param("limit", "0").accept(MediaType.APPLICATION_NDJSON))
+                .andExpect(status().isBadRequest());
+
+        verify(noteService).getNotesByPatientId(anyInt(), anyInt(), any(), any());
+    }
+
+    @Test
+    @WithMockUser
+    public void getNoteSummaryByPatientId_shouldReturnSummaryAndOk() throws Exception {
+
+        when(noteService.getNoteSummaryByPatientId(anyInt()))
+                .thenReturn(new NoteSummary(2, "665f1a2b0000000000000001", "665f1a2c0000000000000002", 42));
+
+        mockMvc.perform(get("/notes/1/summary"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.noteCount").value(2))
+                .andExpect(jsonPath("$.firstNoteId").value("665f1a2b0000000000000001"))
+                .andExpect(jsonPath("$.lastNoteAt").isString())
+                .andExpect(jsonPath("$.totalContentLength").value(42));
+
+        verify(noteService).getNoteSummaryByPatientId(1);
+    }
+
+    @Test
+    @WithMockUser
+    public void getNoteSummaryByPatientId_withNoNotesException_shouldReturnNoContent() throws Exception {
+
+        when(noteService.getNoteSummaryByPatientId(anyInt())).thenThrow(new NoteNotFoundException());
+
+        mockMvc.perform(get("/notes/1/summary"))
+                .andExpect(status().isNoContent());
+
+        verify(noteService).getNoteSummaryByPatientId(1);
+    }
+
+    @Test
+    @WithMockUser
+    public void getTriggersByPatientId_shouldReturnSummaryAndOk() throws Exception {
+
+        when(noteService.getTriggerSummaryByPatientId(anyInt(), any())).thenReturn(new TriggerSummary(0b101, 4, "lastNoteId"));
+
+        MvcResult result = mockMvc
+                .perform(get("/notes/1/triggers"))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        String resultContent = result.getResponse().getContentAsString();
+        TriggerSummary resultSummary = new ObjectMapper().readValue(resultContent, TriggerSummary.class);
+
+        assertEquals(0b101, resultSummary.getTriggerMask());
+        assertEquals(2, resultSummary.getTriggerCount());
+        assertEquals(4, resultSummary.getNoteCount());
+        assertEquals("lastNoteId", resultSummary.getLastNoteId());
+        verify(noteService).getTriggerSummaryByPatientId(anyInt(), any());
+    }
+
+    @Test
+    @WithMockUser
+    public void getTriggersByPatientId_withNoNotesException_shouldReturnNoContent() throws Exception {
+
+        when(noteService.getTriggerSummaryByPatientId(anyInt(), any())).thenThrow(new NoteNotFoundException());
+
+        MvcResult result = mockMvc
+                .perform(get("/notes/1/triggers"))
+                .andExpect(status().isNoContent())
+                .andReturn();
+
+        assertTrue(result.getResponse().getContentAsString().isEmpty());
+        verify(noteService).getTriggerSummaryByPatientId(anyInt(), any());
+    }
+
+    @Test
+    @WithMockUser
+    public void getTriggersByPatientId_withInvalidAfter_shouldReturnBadRequest() throws Exception {
+
+        when(noteService.getTriggerSummaryByPatientId(anyInt(), any())).thenThrow(new IllegalArgumentException());
+
+        mockMvc.perform(get("/notes/1/triggers").param("after", "invalid"))
+                .andExpect(status().isBadRequest());
+
+        verify(noteService).getTriggerSummaryByPatientId(anyInt(), any());
     }
 
     @Test
@@ -124,4 +449,103 @@ public class NoteControllerTest {
         assertTrue(resultContent.isEmpty());
         verify(noteService).addNote(any(Note.class));
     }
+
+    @Test
+    @WithMockUser
+    public void insertNotes_withNdjson_shouldReturnReportAndOk() throws Exception {
+
+        BulkInsertReport report = new BulkInsertReport(10);
+        report.addBatch(new BulkInsertReport.BatchResult(1, 1, 1, 1, 0));
+        when(noteBulkService.insertNotes(any(InputStream.class), eq(NoteBulkService.Format.NDJSON))).thenReturn(report);
+
+        mockMvc.perform(post("/notes/bulk")
+                        .contentType("application/x-ndjson")
+                        .content("{\"patientId\": 1, \"content\": \"Fumeur\"}\n"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.inserted").value(1))
+                .andExpect(jsonPath("$.batches[0].inserted").value(1));
+    }
+
+    @Test
+    @WithMockUser
+    public void insertNotes_withInvalidJsonArray_shouldReturnBadRequest() throws Exception {
+
+        when(noteBulkService.insertNotes(any(InputStream.class), eq(NoteBulkService.Format.JSON_ARRAY)))
+                .thenThrow(new IllegalArgumentException());
+
+        mockMvc.perform(post("/notes/bulk")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{}"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @WithMockUser
+    public void getNotesByPatientIds_shouldStreamNotesGroupedByPatient() throws Exception {
+
+        note.setContent("Fumeur");
+        doAnswer(invocation -> {
+            Consumer<PatientNotes> consumer = invocation.getArgument(1);
+            consumer.accept(new PatientNotes(1, List.of(note)));
+            consumer.accept(new PatientNotes(2, List.of(note, note)));
+            return null;
+        }).when(noteService).forEachPatientNotes(anyCollection(), any());
+
+        MvcResult result = mockMvc.perform(post("/notes/by-patients")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[1, 2, 3]"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].patientId").value(1))
+                .andExpect(jsonPath("$[0].notes[0].content").value("Fumeur"))
+                .andExpect(jsonPath("$[1].notes.length()").value(2));
+
+        verify(noteService).forEachPatientNotes(eq(Set.of(1, 2, 3)), any());
+    }
+
+    @Test
+    @WithMockUser
+    public void getNotesByPatientIds_withNoId_shouldReturnBadRequest() throws Exception {
+
+        mockMvc.perform(post("/notes/by-patients")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[]"))
+                .andExpect(status().isBadRequest());
+
+        verify(noteService, never()).forEachPatientNotes(anyCollection(), any());
+    }
+
+    @Test
+    @WithMockUser
+    public void getTriggersByPatientIds_shouldReturnSummariesByPatient() throws Exception {
+
+        when(noteService.getTriggerSummariesByPatientIds(anyCollection()))
+                .thenReturn(Map.of(1, new TriggerSummary(0b101, 3, "665f1a2b0000000000000001")));
+
+        mockMvc.perform(post("/notes/by-patients/triggers")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[1, 2]"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.1.triggerCount").value(2))
+                .andExpect(jsonPath("$.1.lastNoteId").value("665f1a2b0000000000000001"))
+                .andExpect(jsonPath("$.2").doesNotExist());
+
+        verify(noteService).getTriggerSummariesByPatientIds(Set.of(1, 2));
+    }
+
+    @Test
+    @WithMockUser
+    public void getTriggersByPatientIds_withNoId_shouldReturnBadRequest() throws Exception {
+
+        mockMvc.perform(post("/notes/by-patients/triggers")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[]"))
+                .andExpect(status().isBadRequest());
+
+        verify(noteService, never()).getTriggerSummariesByPatientIds(anyCollection());
+    }
 }
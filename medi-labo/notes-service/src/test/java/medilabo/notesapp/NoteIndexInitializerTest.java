@@ -0,0 +1,73 @@
+package medilabo.notesapp;
+
+import medilabo.notesapp.service.NoteIndexInitializer;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class NoteIndexInitializerTest {
+
+    private MongoTemplate mongoTemplate;
+    private NoteIndexInitializer noteIndexInitializer;
+
+    @BeforeEach
+    public void beforeEach() {
+        mongoTemplate = mock(MongoTemplate.class, RETURNS_DEEP_STUBS);
+        noteIndexInitializer = new NoteIndexInitializer(mongoTemplate);
+    }
+
+    @Test
+    public void checkQueryPlans_withIndexScan_shouldReturnNoCollscan() {
+
+        mockExplain(new Document("stage", "LIMIT")
+                .append("inputStage", new Document("stage", "FETCH")
+                        .append("inputStage", new Document("stage", "IXSCAN").append("indexName", "patientId_id"))),
+                new Document("stage", "COLLSCAN"));
+
+        List<String> collscans = noteIndexInitializer.checkQueryPlans();
+
+        assertTrue(collscans.isEmpty());
+    }
+
+    @Test
+    public void checkQueryPlans_withNestedCollscan_shouldReturnQueries() {
+
+        // Slot-based engine plans are nested in a queryPlan document
+        mockExplain(new Document("queryPlan", new Document("stage", "SORT")
+                .append("inputStage", new Document("stage", "COLLSCAN"))));
+
+        List<String> collscans = noteIndexInitializer.checkQueryPlans();
+
+        assertEquals(List.of("notes by patient", "notes by patient after a note", "notes by patient since a date"), collscans);
+    }
+
+    @Test
+    public void checkQueryPlans_withCollscanAndFailOnCollscan_shouldThrow() {
+
+        ReflectionTestUtils.setField(noteIndexInitializer, "failOnCollscan", true);
+        mockExplain(new Document("stage", "COLLSCAN"));
+
+        assertThrows(IllegalStateException.class, () -> noteIndexInitializer.checkQueryPlans());
+    }
+
+    private void mockExplain(Document winningPlan, Document... rejectedPlans) {
+        Document explain = new Document("queryPlanner", new Document("winningPlan", winningPlan)
+                .append("rejectedPlans", List.of(rejectedPlans)));
+        when(mongoTemplate.getCollection(any()).find(any(Bson.class)).sort(any()).limit(anyInt()).explain())
+                .thenReturn(explain);
+    }
+}
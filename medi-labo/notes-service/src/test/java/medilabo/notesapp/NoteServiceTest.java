@@ -2,21 +2,38 @@ package medilabo.notesapp;
 
 import medilabo.notesapp.exceptions.NoteNotFoundException;
 import medilabo.notesapp.model.Note;
+import medilabo.notesapp.model.NotePage;
+import medilabo.notesapp.model.NoteSummary;
+import medilabo.notesapp.model.PatientNotes;
+import medilabo.notesapp.model.TriggerMaskAggregate;
+import medilabo.notesapp.model.TriggerSummary;
 import medilabo.notesapp.repository.NoteRepository;
 import medilabo.notesapp.service.NoteService;
+import org.bson.types.ObjectId;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Limit;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.util.ReflectionTestUtils;
 
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -31,36 +48,221 @@ public class NoteServiceTest {
     private NoteRepository noteRepository;
 
     @Test
-    public void getNotesByPatientId_shouldCallRepoAndReturnNotes() {
+    public void getNotesByPatientId_withMoreNotes_shouldReturnPageAndCursor() {
 
-        when(noteRepository.findByPatientId(anyInt())).thenReturn((List.of(new Note())));
+        when(noteRepository.findByPatientIdOrderByIdDesc(anyInt(), any(Limit.class)))
+                .thenReturn(List.of(note("note3"), note("note2"), note("note1")));
 
-        List<Note> notes = noteService.getNotesByPatientId(1);
+        NotePage notePage = noteService.getNotesByPatientId(1, 2, null, null);
 
-        assertEquals(1, notes.size());
-        verify(noteRepository).findByPatientId(anyInt());
+        assertEquals(2, notePage.getNotes().size());
+        assertEquals("note2", notePage.getNextCursor());
+        verify(noteRepository).findByPatientIdOrderByIdDesc(1, Limit.of(3));
     }
 
     @Test
-    public void getNotesByPatientId_withNoNotes_shouldThrow() {
-        when(noteRepository.findByPatientId(anyInt())).thenReturn(new ArrayList<>());
+    public void getNotesByPatientId_withCursor_shouldReturnOlderNotes() {
 
-        assertThrows(NoteNotFoundException.class, () -> noteService.getNotesByPatientId(1));
+        String cursor = new ObjectId().toHexString();
+        when(noteRepository.findByPatientIdAndIdLessThanOrderByIdDesc(anyInt(), any(ObjectId.class), any(Limit.class)))
+                .thenReturn(List.of(note("note1")));
 
-        verify(noteRepository).findByPatientId(anyInt());
+        NotePage notePage = noteService.getNotesByPatientId(1, 2, cursor, null);
+
+        assertEquals(1, notePage.getNotes().size());
+        assertNull(notePage.getNextCursor());
+        verify(noteRepository).findByPatientIdAndIdLessThanOrderByIdDesc(1, new ObjectId(cursor), Limit.of(3));
+        verify(noteRepository, never()).findByPatientIdOrderByIdDesc(anyInt(), any(Limit.class));
+    }
+
+    @Test
+    public void getNotesByPatientId_withNoNotes_shouldReturnEmptyPage() {
+        when(noteRepository.findByPatientIdOrderByIdDesc(anyInt(), any(Limit.class))).thenReturn(new ArrayList<>());
+
+        NotePage notePage = noteService.getNotesByPatientId(1, 2, null, null);
+
+        assertTrue(notePage.getNotes().isEmpty());
+        assertNull(notePage.getNextCursor());
+    }
+
+    @Test
+    public void getNotesByPatientId_withSince_shouldQueryCreatedAt() {
+
+        Instant since = Instant.parse("2024-06-01T10:15:30Z");
+        when(noteRepository.findByPatientIdAndCreatedAtGreaterThanEqualOrderByIdDesc(anyInt(), any(Instant.class), any(Limit.class)))
+                .thenReturn(List.of(note("note1")));
+
+        NotePage notePage = noteService.getNotesByPatientId(1, 2, null, since);
+
+        assertEquals(1, notePage.getNotes().size());
+        verify(noteRepository).findByPatientIdAndCreatedAtGreaterThanEqualOrderByIdDesc(1, since, Limit.of(3));
+        verify(noteRepository, never()).findByPatientIdOrderByIdDesc(anyInt(), any(Limit.class));
+    }
+
+    @Test
+    public void getNotesByPatientId_withInvalidCursorOrLimit_shouldThrow() {
+
+        assertThrows(IllegalArgumentException.class, () -> noteService.getNotesByPatientId(1, 2, "invalid", null));
+        assertThrows(IllegalArgumentException.class, () -> noteService.getNotesByPatientId(1, 0, null, null));
+    }
+
+    @Test
+    public void forEachPatientNotes_shouldQueryByChunksAndGroupByPatient() {
+
+        when(noteRepository.findByPatientIdInOrderByPatientIdAscIdDesc(List.of(1, 2)))
+                .thenReturn(Stream.of(note("note2", 1), note("note1", 1), note("note3", 2)));
+        when(noteRepository.findByPatientIdInOrderByPatientIdAscIdDesc(List.of(3)))
+                .thenReturn(Stream.empty());
+        List<PatientNotes> result = new ArrayList<>();
+
+        noteService.forEachPatientNotes(List.of(3, 1, 2, 1), result::add);
+
+        assertEquals(List.of(1, 2), result.stream().map(PatientNotes::getPatientId).toList());
+        assertEquals(List.of("note2", "note1"), result.get(0).getNotes().stream().map(Note::getId).toList());
+        assertEquals(1, result.get(1).getNotes().size());
+        verify(noteRepository, times(2)).findByPatientIdInOrderByPatientIdAscIdDesc(anyCollection());
+    }
+
+    @Test
+    public void getNoteSummaryByPatientId_shouldReturnAggregatedSummary() {
+
+        String firstNoteId = "665f1a2b0000000000000001";
+        when(noteRepository.aggregateSummary(anyInt())).thenReturn(new NoteSummary(2, firstNoteId, "665f1a2c0000000000000002", 42));
+
+        NoteSummary noteSummary = noteService.getNoteSummaryByPatientId(1);
+
+        assertEquals(2, noteSummary.getNoteCount());
+        assertEquals(42, noteSummary.getTotalContentLength());
+        assertEquals(new ObjectId(firstNoteId).getDate().toInstant(), noteSummary.getFirstNoteAt());
+        verify(noteRepository).aggregateSummary(1);
+    }
+
+    @Test
+    public void getNoteSummaryByPatientId_withNoNotes_shouldThrow() {
+        when(noteRepository.aggregateSummary(anyInt())).thenReturn(null);
+
+        assertThrows(NoteNotFoundException.class, () -> noteService.getNoteSummaryByPatientId(1));
+
+        verify(noteRepository).aggregateSummary(1);
+    }
+
+    @Test
+    public void getLastNoteId_withNoNotes_shouldReturnNull() {
+        when(noteRepository.findIdsByPatientId(anyInt(), any(Limit.class))).thenReturn(List.of());
+
+        assertNull(noteService.getLastNoteId(1));
+
+        verify(noteRepository).findIdsByPatientId(1, Limit.of(1));
+    }
+
+    @Test
+    public void getTriggerSummaryByPatientId_shouldReduceStoredMasks() {
+
+        when(noteRepository.aggregateTriggerMasks(anyInt(), any(ObjectId.class)))
+                .thenReturn(new TriggerMaskAggregate(List.of(0b001, 0b110), 3, 0, "lastNoteId"));
+
+        TriggerSummary triggerSummary = noteService.getTriggerSummaryByPatientId(1, null);
+
+        assertEquals(0b111, triggerSummary.getTriggerMask());
+        assertEquals(3, triggerSummary.getTriggerCount());
+        assertEquals(3, triggerSummary.getNoteCount());
+        assertEquals("lastNoteId", triggerSummary.getLastNoteId());
+        verify(noteRepository).aggregateTriggerMasks(anyInt(), any(ObjectId.class));
+        verify(noteRepository, never()).findByPatientIdAndIdGreaterThanAndTriggerMaskIsNull(anyInt(), any(ObjectId.class));
+    }
+
+    @Test
+    public void getTriggerSummaryByPatientId_withUnscannedNotes_shouldScanThem() {
+
+        Note note1 = new Note();
+        note1.setContent("Rechute, fumer");
+        Note note2 = new Note();
+        note2.setContent("vertige, ANORMALES");
+        when(noteRepository.aggregateTriggerMasks(anyInt(), any(ObjectId.class)))
+                .thenReturn(new TriggerMaskAggregate(List.of(), 2, 2, "lastNoteId"));
+        when(noteRepository.findByPatientIdAndIdGreaterThanAndTriggerMaskIsNull(anyInt(), any(ObjectId.class))).thenReturn(List.of(note1, note2));
+
+        TriggerSummary triggerSummary = noteService.getTriggerSummaryByPatientId(1, null);
+
+        assertEquals(3, triggerSummary.getTriggerCount());
+        assertEquals(2, triggerSummary.getNoteCount());
+        verify(noteRepository).findByPatientIdAndIdGreaterThanAndTriggerMaskIsNull(anyInt(), any(ObjectId.class));
+    }
+
+    @Test
+    public void getTriggerSummariesByPatientIds_shouldAggregateByChunksAndScanUnscannedNotes() {
+
+        Note unscannedNote = note("note3", 2);
+        unscannedNote.setContent("Rechute");
+        when(noteRepository.aggregateTriggerMasksByPatientIds(List.of(1, 2))).thenReturn(List.of(
+                new TriggerMaskAggregate(1, List.of(0b001, 0b110), 2, 0, "note2"),
+                new TriggerMaskAggregate(2, List.of(0b001), 2, 1, "note3")));
+        when(noteRepository.aggregateTriggerMasksByPatientIds(List.of(3))).thenReturn(List.of());
+        when(noteRepository.findByPatientIdInAndTriggerMaskIsNull(List.of(2))).thenReturn(Stream.of(unscannedNote));
+
+        Map<Integer, TriggerSummary> result = noteService.getTriggerSummariesByPatientIds(List.of(3, 1, 2, 1));
+
+        assertEquals(List.of(1, 2), List.copyOf(result.keySet()));
+        assertEquals(0b111, result.get(1).getTriggerMask());
+        assertEquals("note2", result.get(1).getLastNoteId());
+        assertEquals(0b001 | noteService.computeTriggerMask("Rechute"), result.get(2).getTriggerMask());
+        assertEquals(2, result.get(2).getNoteCount());
+        verify(noteRepository, times(2)).aggregateTriggerMasksByPatientIds(anyCollection());
+        verify(noteRepository).findByPatientIdInAndTriggerMaskIsNull(anyCollection());
+    }
+
+    @Test
+    public void getTriggerSummaryByPatientId_withNoNotes_shouldThrow() {
+        when(noteRepository.aggregateTriggerMasks(anyInt(), any(ObjectId.class))).thenReturn(null);
+
+        assertThrows(NoteNotFoundException.class, () -> noteService.getTriggerSummaryByPatientId(1, null));
+
+        verify(noteRepository).aggregateTriggerMasks(anyInt(), any(ObjectId.class));
+    }
+
+    @Test
+    public void getTriggerSummaryByPatientId_withAfterAndNoNewerNotes_shouldReturnEmptySummary() {
+        String after = new ObjectId().toHexString();
+        when(noteRepository.aggregateTriggerMasks(anyInt(), any(ObjectId.class))).thenReturn(null);
+
+        TriggerSummary triggerSummary = noteService.getTriggerSummaryByPatientId(1, after);
+
+        assertEquals(0, triggerSummary.getNoteCount());
+        assertEquals(after, triggerSummary.getLastNoteId());
+        verify(noteRepository).aggregateTriggerMasks(anyInt(), any(ObjectId.class));
+    }
+
+    @Test
+    public void getTriggerSummaryByPatientId_withInvalidAfter_shouldThrow() {
+
+        assertThrows(IllegalArgumentException.class, () -> noteService.getTriggerSummaryByPatientId(1, "invalid"));
     }
 
     @Test
     public void addNote_shouldCallRepoAndReturnNote() {
 
         Note note = new Note();
-        note.setContent("content");
+        note.setContent("content, Fumeur");
         when(noteRepository.save(any(Note.class))).thenReturn(note);
 
         Note savedNote = noteService.addNote(note);
 
         assertEquals(note.getContent(), savedNote.getContent());
+        assertEquals(1, Integer.bitCount(savedNote.getTriggerMask()));
+        assertNotNull(savedNote.getCreatedAt());
+        assertEquals(savedNote.getCreatedAt(), savedNote.getUpdatedAt());
         verify(noteRepository).save(any(Note.class));
     }
 
+
+    private Note note(String id) {
+        return note(id, 0);
+    }
+
+    private Note note(String id, int patientId) {
+        Note note = new Note();
+        ReflectionTestUtils.setField(note, "id", id);
+        note.setPatientId(patientId);
+        return note;
+    }
 }
@@ -1,18 +1,30 @@
 package medilabo.patientsapp.controller;
 
 import jakarta.validation.Valid;
+import medilabo.bulk.BulkInsertReport;
 import medilabo.patientsapp.exceptions.NonExistingPatientException;
+import medilabo.patientsapp.exceptions.PatientVersionConflictException;
 import medilabo.patientsapp.model.Patient;
+import medilabo.patientsapp.model.PatientPage;
+import medilabo.patientsapp.model.PatientPatch;
+import medilabo.patientsapp.model.PatientSummary;
+import medilabo.patientsapp.service.PatientImportService;
 import medilabo.patientsapp.service.PatientService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
+import java.util.function.Supplier;
 
 /**
  * Controller that handles requests related to Patient type.
@@ -26,10 +38,24 @@ import java.util.List;
 public class PatientController {
     private static final Logger logger = LoggerFactory.getLogger(PatientController.class);
 
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    public static final String MERGE_PATCH_JSON = "application/merge-patch+json";
+
     private final PatientService patientService;
+    private final PatientImportService patientImportService;
+    private final int defaultPageSize;
+    private final int maxPageSize;
+    private final int maxIds;
 
-    public PatientController(PatientService patientService) {
+    public PatientController(PatientService patientService, PatientImportService patientImportService,
+                             @Value("${medilabo.patients.page.default-size}") int defaultPageSize,
+                             @Value("${medilabo.patients.page.max-size}") int maxPageSize,
+                             @Value("${medilabo.patients.bulk.max-ids}") int maxIds) {
         this.patientService = patientService;
+        this.patientImportService = patientImportService;
+        this.defaultPageSize = defaultPageSize;
+        this.maxPageSize = maxPageSize;
+        this.maxIds = maxIds;
     }
 
     /**
@@ -44,34 +70,87 @@ public class PatientController {
     }
 
     /**
-     * Gets the List of all patients.
+     * Gets a page of patients, sorted. Deep pages should be reached with the cursor sent in the X-Next-Cursor header of the previous page rather than with a page number.
      *
-     * @return a ResponseEntity containing the List with 200 code, or with 204 if there are no Patients
+     * @param page   the page number, ignored if a cursor is given
+     * @param size   the number of patients per page, capped to the maximum page size
+     * @param sort   the sort property (id, lastname, firstname or birthdate), optionally followed by ',asc' or ',desc'
+     * @param cursor the cursor of the previous page
+     * @return a ResponseEntity containing the List with 200 code and the X-Next-Cursor header if there are more patients, with 204 if there are no Patients, or with 400 if a parameter is invalid
      */
     @GetMapping
-    public ResponseEntity<List<Patient>> getAllPatients() {
+    public ResponseEntity<List<Patient>> getAllPatients(@RequestParam(value = "page", defaultValue = "0") int page,
+                                                        @RequestParam(value = "size", required = false) Integer size,
+                                                        @RequestParam(value = "sort", defaultValue = "id") String sort,
+                                                        @RequestParam(value = "cursor", required = false) String cursor) {
         logger.info("GetMapping for /patients");
-        List<Patient> patients = patientService.getAllPatients();
-        if (patients.isEmpty()) {
-            return new ResponseEntity<>(HttpStatus.NO_CONTENT);
-        }
-        return new ResponseEntity<>(patients, HttpStatus.OK);
+        return toPageResponse(page, size, () -> patientService.getPatients(page, pageSize(size), sort, cursor));
     }
 
     /**
-     * Gets patient by id.
+     * Gets a page of patient summaries, with only the fields displayed in patient lists. Parameters and cursors are the same as for GET /patients.
      *
-     * @param id the id
-     * @return ResponseEntity with the patient and 200, or ResponseEntity with 404 if no patient is found with this id
+     * @param page   the page number, ignored if a cursor is given
+     * @param size   the number of patients per page, capped to the maximum page size
+     * @param sort   the sort property (id, lastname, firstname or birthdate), optionally followed by ',asc' or ',desc'
+     * @param cursor the cursor of the previous page
+     * @return a ResponseEntity containing the List with 200 code and the X-Next-Cursor header if there are more patients, with 204 if there are no Patients, or with 400 if a parameter is invalid
+     */
+    @GetMapping("/list")
+    public ResponseEntity<List<PatientSummary>> getPatientSummaries(@RequestParam(value = "page", defaultValue = "0") int page,
+                                                                    @RequestParam(value = "size", required = false) Integer size,
+                                                                    @RequestParam(value = "sort", defaultValue = "id") String sort,
+                                                                    @RequestParam(value = "cursor", required = false) String cursor) {
+        logger.info("GetMapping for /patients/list");
+        return toPageResponse(page, size, () -> patientService.getPatientSummaries(page, pageSize(size), sort, cursor));
+    }
+
+    /**
+     * Gets the patients with the given ids, e.g. /patients?ids=1,2,3. Long lists should be sent to POST /patients/batch instead.
+     *
+     * @param ids the ids of the patients, at most the configured maximum
+     * @return a ResponseEntity containing the List of the existing patients with 200 code, with 204 if none exists, or with 400 if there are too many ids
+     */
+    @GetMapping(params = "ids")
+    public ResponseEntity<List<Patient>> getPatientsByIds(@RequestParam("ids") List<Integer> ids) {
+        logger.info("GetMapping for /patients with {} IDs", ids.size());
+        return toBatchResponse(ids);
+    }
+
+    /**
+     * Gets the patients with the ids given in the body.
+     *
+     * @param ids the ids of the patients, at most the configured maximum
+     * @return a ResponseEntity containing the List of the existing patients with 200 code, with 204 if none exists, or with 400 if there are too many ids
+     */
+    @PostMapping("/batch")
+    public ResponseEntity<List<Patient>> getPatientsByIdsInBody(@RequestBody List<Integer> ids) {
+        logger.info("PostMapping for /patients/batch with {} IDs", ids.size());
+        return toBatchResponse(ids);
+    }
+
+    /**
+     * Gets patient by id. The response has a strong ETag built from the version of the patient, which is incremented by each update.
+     * If the request has a matching If-None-Match header, 304 is returned without body.
+     *
+     * @param id         the id
+     * @param webRequest the request, to check If-None-Match
+     * @return ResponseEntity with the patient and 200, with 304 if the patient was not modified, or ResponseEntity with 404 if no patient is found with this id
      */
     @GetMapping("/{id}")
-    public ResponseEntity<Patient> getPatientById(@PathVariable("id") int id) {
+    public ResponseEntity<Patient> getPatientById(@PathVariable("id") int id, WebRequest webRequest) {
         logger.info("GetMapping for /patients/{}", id);
+        Patient patient;
         try {
-            return new ResponseEntity<>(patientService.getPatientById(id), HttpStatus.OK);
+            patient = patientService.getPatientById(id);
         } catch (NonExistingPatientException e) {
             return new ResponseEntity<>(HttpStatus.NOT_FOUND);
         }
+        // Also sets the ETag header of the response
+        if (webRequest.checkNotModified(patientETag(id, patient.getVersion()))) {
+            return new ResponseEntity<>(HttpStatus.NOT_MODIFIED);
+        }
+        return new ResponseEntity<>(patient, HttpStatus.OK);
     }
 
     /**
@@ -91,24 +170,79 @@ public class PatientController {
         }
     }
 
+    /**
+     * Imports patients in bulk from a CSV body, with a header line naming the columns. The body is read as a stream.
+     *
+     * @param body the CSV body
+     * @return a ResponseEntity containing the BulkInsertReport with 200 code, even if some rows are rejected, or with 400 if the header is invalid
+     */
+    @PostMapping(value = "/import", consumes = "text/csv")
+    public ResponseEntity<BulkInsertReport> importPatientsFromCsv(InputStream body) {
+        logger.info("PostMapping for /patients/import with CSV body");
+        return importPatients(body, PatientImportService.Format.CSV);
+    }
+
+    /**
+     * Imports patients in bulk from a NDJSON body, with one patient per line. The body is read as a stream.
+     *
+     * @param body the NDJSON body
+     * @return a ResponseEntity containing the BulkInsertReport with 200 code, even if some rows are rejected
+     */
+    @PostMapping(value = "/import", consumes = "application/x-ndjson")
+    public ResponseEntity<BulkInsertReport> importPatientsFromNdjson(InputStream body) {
+        logger.info("PostMapping for /patients/import with NDJSON body");
+        return importPatients(body, PatientImportService.Format.NDJSON);
+    }
+
     /**
      * Updates an existing patient.
      *
      * @param id      the id of the existing patient
      * @param patient the patient with data to update
-     * @return ResponseEntity with the updated patient and 200 code, or ResponseEntity with 500 if an Exception occurs
+     * @return ResponseEntity with the updated patient, with its id, its new version and the matching ETag, and 200 code, ResponseEntity with 404 if no Patient is found with this id, or with 500 if an Exception occurs
      */
     @PutMapping("/{id}")
     public ResponseEntity<Patient> updatePatient(@PathVariable("id") int id, @RequestBody @Valid Patient patient) {
         logger.info("PutMapping for /patients/{}", id);
         try {
-            return new ResponseEntity<>(patientService.updatePatient(patient), HttpStatus.OK);
+            Patient updatedPatient = patientService.updatePatient(id, patient);
+            return ResponseEntity.ok().eTag(patientETag(id, updatedPatient.getVersion())).body(updatedPatient);
+        } catch (NonExistingPatientException e) {
+            logger.error("Update failed for Patient ID: {}. ID not found.", id);
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
         } catch (Exception e) {
             logger.error("Patient was not updated : {}", patient.toString());
             return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
 
+    /**
+     * Updates some fields of an existing patient with a JSON Merge Patch (RFC 7396): only the fields present in the body are updated, and a null address or phoneNumber clears it.
+     * The patch may hold the version the client last read, from the version field or the ETag of the patient. The update is then only applied if the patient still has this version,
+     * and 409 means that the patient was modified since: the client should read it again, with its new ETag, before sending a new patch. Without version, the patch is always applied.
+     *
+     * @param id    the id of the existing patient
+     * @param patch the fields to update
+     * @return ResponseEntity with 200 code and the ETag of the new version, whose version can be sent with the next patch, with 400 if the patch has no field or a null or blank required field, with 404 if no Patient is found with this id, or with 409 if the patient does not have the version of the patch
+     */
+    @PatchMapping(value = "/{id}", consumes = MERGE_PATCH_JSON)
+    public ResponseEntity<Void> patchPatient(@PathVariable("id") int id, @RequestBody PatientPatch patch) {
+        logger.info("PatchMapping for /patients/{}", id);
+        try {
+            int version = patientService.patchPatient(id, patch);
+            return ResponseEntity.ok().eTag(patientETag(id, version)).build();
+        } catch (IllegalArgumentException e) {
+            logger.error("Invalid patch for Patient ID {}: {}", id, e.getMessage());
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        } catch (NonExistingPatientException e) {
+            logger.error("Patch failed for Patient ID: {}. ID not found.", id);
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        } catch (PatientVersionConflictException e) {
+            logger.error("Patch failed: {}", e.getMessage());
+            return new ResponseEntity<>(HttpStatus.CONFLICT);
+        }
+    }
+
     /**
      * Deletes a patient.
      *
@@ -119,12 +253,64 @@ public class PatientController {
     public ResponseEntity<Patient> deletePatient(@PathVariable("id") int id) {
         logger.info("DeleteMapping for /patients/{}", id);
         try {
-            Patient patient = patientService.getPatientById(id);
-            patientService.deletePatient(patient);
+            patientService.deletePatient(id);
             return new ResponseEntity<>(HttpStatus.OK);
         } catch (NonExistingPatientException e) {
             logger.error("Deletion failed for Patient ID: {}. ID not found.", id);
             return new ResponseEntity<>(HttpStatus.NOT_FOUND);
         }
     }
+
+    private static String patientETag(int id, int version) {
+        return "\"patient-" + id + "-" + version + "\"";
+    }
+
+    private int pageSize(Integer size) {
+        return size == null ? defaultPageSize : Math.min(size, maxPageSize);
+    }
+
+    private <T> ResponseEntity<List<T>> toPageResponse(int page, Integer size, Supplier<PatientPage<T>> pageSupplier) {
+        if (page < 0 || pageSize(size) < 1) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        PatientPage<T> patientPage;
+        try {
+            patientPage = pageSupplier.get();
+        } catch (IllegalArgumentException e) {
+            logger.error("Invalid page request: {}", e.getMessage());
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        if (patientPage.getPatients().isEmpty()) {
+            return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+        }
+        HttpHeaders headers = new HttpHeaders();
+        if (patientPage.getNextCursor() != null) {
+            headers.set(NEXT_CURSOR_HEADER, patientPage.getNextCursor());
+        }
+        return new ResponseEntity<>(patientPage.getPatients(), headers, HttpStatus.OK);
+    }
+
+    private ResponseEntity<List<Patient>> toBatchResponse(List<Integer> ids) {
+        if (ids.size() > maxIds) {
+            logger.error("Too many IDs: {}, the maximum is {}", ids.size(), maxIds);
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        List<Patient> patients = patientService.getPatientsByIds(ids);
+        if (patients.isEmpty()) {
+            return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+        }
+        return new ResponseEntity<>(patients, HttpStatus.OK);
+    }
+
+    private ResponseEntity<BulkInsertReport> importPatients(InputStream body, PatientImportService.Format format) {
+        try {
+            return new ResponseEntity<>(patientImportService.importPatients(body, format), HttpStatus.OK);
+        } catch (IllegalArgumentException e) {
+            logger.error("Patient import failed: {}", e.getMessage());
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        } catch (IOException e) {
+            logger.error("Patient import failed while reading the body", e);
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+    }
 }
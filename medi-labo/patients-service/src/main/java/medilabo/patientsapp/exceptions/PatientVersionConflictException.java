@@ -0,0 +1,11 @@
+package medilabo.patientsapp.exceptions;
+
+/**
+ * Custom Exception used to signal that a patient was modified since the version expected by an update.
+ */
+public class PatientVersionConflictException extends RuntimeException {
+
+    public PatientVersionConflictException(String message) {
+        super(message);
+    }
+}
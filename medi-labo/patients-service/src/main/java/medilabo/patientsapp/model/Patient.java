@@ -21,7 +21,7 @@ public class Patient {
     @NotBlank(message = "lastname must not be blank")
     private String lastname;
 
-    @NotNull
+    @NotNull(message = "birthdate must not be null")
     @DateTimeFormat(pattern = "yyyy-MM-dd")
     private LocalDate birthdate;
 
@@ -31,6 +31,10 @@ public class Patient {
     private String address;
     private String phoneNumber;
 
+    // Incremented by each update in PatientRepo, and checked by partial updates
+    @Version
+    private int version;
+
     public Patient() {
     }
 
@@ -41,10 +45,30 @@ public class Patient {
         this.gender = gender;
     }
 
+    /**
+     * Copy constructor, used by PatientCache so that cached patients are never shared with callers.
+     *
+     * @param patient the patient to copy
+     */
+    public Patient(Patient patient) {
+        this.id = patient.id;
+        this.firstname = patient.firstname;
+        this.lastname = patient.lastname;
+        this.birthdate = patient.birthdate;
+        this.gender = patient.gender;
+        this.address = patient.address;
+        this.phoneNumber = patient.phoneNumber;
+        this.version = patient.version;
+    }
+
     public int getId() {
         return id;
     }
 
+    public void setId(int id) {
+        this.id = id;
+    }
+
     public String getFirstname() {
         return firstname;
     }
@@ -93,6 +117,14 @@ public class Patient {
         this.phoneNumber = phoneNumber;
     }
 
+    public int getVersion() {
+        return version;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
     @Override
     public String toString() {
         return "Patient{" +
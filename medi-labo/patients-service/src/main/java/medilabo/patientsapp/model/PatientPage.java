@@ -0,0 +1,30 @@
+package medilabo.patientsapp.model;
+
+import java.util.List;
+
+/**
+ * One page of patients, with the cursor that gives access to the next page.
+ *
+ * @param <T> Patient or PatientSummary
+ */
+public class PatientPage<T> {
+
+    private final List<T> patients;
+    private final String nextCursor;
+
+    public PatientPage(List<T> patients, String nextCursor) {
+        this.patients = patients;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<T> getPatients() {
+        return patients;
+    }
+
+    /**
+     * @return the cursor to send to get the next page, or null if this page is the last one
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+}
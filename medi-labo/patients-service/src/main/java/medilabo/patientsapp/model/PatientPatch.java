@@ -0,0 +1,100 @@
+package medilabo.patientsapp.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Partial update of a Patient, read from a JSON Merge Patch (RFC 7396). Only the fields present in the patch are updated, and a null field clears it.
+ * Jackson calls the setter of every field present in the document, including null ones, so the present fields are recorded by the setters.
+ * If a version is given, the update is only applied if the patient still has this version.
+ */
+public class PatientPatch {
+
+    private final Set<String> presentFields = new LinkedHashSet<>();
+
+    private String firstname;
+    private String lastname;
+    private LocalDate birthdate;
+    private String gender;
+    private String address;
+    private String phoneNumber;
+    private Integer version;
+
+    /**
+     * @return the names of the fields present in the patch, excluding version
+     */
+    @JsonIgnore
+    public Set<String> getPresentFields() {
+        return Collections.unmodifiableSet(presentFields);
+    }
+
+    public boolean isPresent(String field) {
+        return presentFields.contains(field);
+    }
+
+    public String getFirstname() {
+        return firstname;
+    }
+
+    public void setFirstname(String firstname) {
+        this.firstname = firstname;
+        presentFields.add("firstname");
+    }
+
+    public String getLastname() {
+        return lastname;
+    }
+
+    public void setLastname(String lastname) {
+        this.lastname = lastname;
+        presentFields.add("lastname");
+    }
+
+    public LocalDate getBirthdate() {
+        return birthdate;
+    }
+
+    public void setBirthdate(LocalDate birthdate) {
+        this.birthdate = birthdate;
+        presentFields.add("birthdate");
+    }
+
+    public String getGender() {
+        return gender;
+    }
+
+    public void setGender(String gender) {
+        this.gender = gender;
+        presentFields.add("gender");
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public void setAddress(String address) {
+        this.address = address;
+        presentFields.add("address");
+    }
+
+    public String getPhoneNumber() {
+        return phoneNumber;
+    }
+
+    public void setPhoneNumber(String phoneNumber) {
+        this.phoneNumber = phoneNumber;
+        presentFields.add("phoneNumber");
+    }
+
+    public Integer getVersion() {
+        return version;
+    }
+
+    public void setVersion(Integer version) {
+        this.version = version;
+    }
+}
@@ -0,0 +1,16 @@
+package medilabo.patientsapp.model;
+
+import java.time.LocalDate;
+
+/**
+ * Read-only view of a Patient with the fields displayed in patient lists.
+ * It is built by PatientRepo directly from the selected columns, so it is not managed by the persistence context.
+ *
+ * @see medilabo.patientsapp.repository.PatientRepo
+ */
+public record PatientSummary(int id, String firstname, String lastname, LocalDate birthdate, String gender) {
+
+    public static PatientSummary of(Patient patient) {
+        return new PatientSummary(patient.getId(), patient.getFirstname(), patient.getLastname(), patient.getBirthdate(), patient.getGender());
+    }
+}
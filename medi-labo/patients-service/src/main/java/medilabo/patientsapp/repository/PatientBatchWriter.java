@@ -0,0 +1,58 @@
+package medilabo.patientsapp.repository;
+
+import medilabo.patientsapp.model.Patient;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Inserts patients with JdbcTemplate. Patient ids are generated by the database (IDENTITY), which prevents Hibernate from batching inserts,
+ * so bulk imports bypass JPA and send the inserts as JDBC batches.
+ *
+ * @see PatientRepo
+ */
+@Repository
+public class PatientBatchWriter {
+
+    private static final String INSERT_SQL =
+            "INSERT INTO patients (firstname, lastname, birthdate, gender, address, phone_number) VALUES (?, ?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public PatientBatchWriter(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Inserts the patients in a single JDBC batch. The batch runs in a transaction, so that either all the patients are inserted or none is.
+     *
+     * @param patients
+     */
+    @Transactional
+    public void insertAll(List<Patient> patients) {
+        jdbcTemplate.batchUpdate(INSERT_SQL, patients, patients.size(), PatientBatchWriter::setValues);
+    }
+
+    /**
+     * Inserts a single patient.
+     *
+     * @param patient
+     */
+    public void insert(Patient patient) {
+        jdbcTemplate.update(INSERT_SQL, ps -> setValues(ps, patient));
+    }
+
+    private static void setValues(PreparedStatement ps, Patient patient) throws SQLException {
+        ps.setString(1, patient.getFirstname());
+        ps.setString(2, patient.getLastname());
+        ps.setDate(3, Date.valueOf(patient.getBirthdate()));
+        ps.setString(4, patient.getGender());
+        ps.setString(5, patient.getAddress());
+        ps.setString(6, patient.getPhoneNumber());
+    }
+}
@@ -1,10 +1,68 @@
 package medilabo.patientsapp.repository;
 
 import medilabo.patientsapp.model.Patient;
+import medilabo.patientsapp.model.PatientSummary;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 /**
  * The interface Patient repository used to perform CRUD operations on the database.
  */
-public interface PatientRepo extends JpaRepository<Patient, Integer> {
+public interface PatientRepo extends JpaRepository<Patient, Integer>, PatientUpdateRepo {
+
+    /**
+     * Deletes a patient with a single DELETE statement, without loading it first.
+     *
+     * @param id
+     * @return the number of deleted rows, 0 if no patient has this id
+     */
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM Patient p WHERE p.id = :id")
+    int deleteByIdReturningCount(@Param("id") int id);
+
+    /**
+     * Gets a page of patients by offset, without counting all the patients.
+     *
+     * @param pageable
+     * @return the Slice of patients
+     */
+    Slice<Patient> findAllBy(Pageable pageable);
+
+    /**
+     * Gets the patients following a keyset position, with a WHERE clause on the sort keys instead of an offset, so that deep pages are as fast as the first one.
+     *
+     * @param position the keys of the last patient of the previous page
+     * @param sort     must end with id, so that keys are unique
+     * @param limit    the page size
+     * @return the Window of patients
+     */
+    Window<Patient> findAllBy(ScrollPosition position, Sort sort, Limit limit);
+
+    /**
+     * Gets a page of patient summaries by offset. Only the summary columns are selected, and no entity is loaded in the persistence context.
+     *
+     * @param pageable
+     * @return the Slice of PatientSummary
+     */
+    Slice<PatientSummary> findSummariesBy(Pageable pageable);
+
+    /**
+     * Gets the patient summaries following a keyset position, like {@link #findAllBy(ScrollPosition, Sort, Limit)}.
+     *
+     * @param position the keys of the last patient of the previous page
+     * @param sort     must end with id, so that keys are unique
+     * @param limit    the page size
+     * @return the Window of PatientSummary
+     */
+    Window<PatientSummary> findSummariesBy(ScrollPosition position, Sort sort, Limit limit);
 }
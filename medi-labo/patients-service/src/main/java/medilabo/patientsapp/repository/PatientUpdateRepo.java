@@ -0,0 +1,21 @@
+package medilabo.patientsapp.repository;
+
+import java.util.Map;
+
+/**
+ * Updates patients with a single UPDATE statement, without loading them first. Implemented by PatientUpdateRepoImpl and exposed by PatientRepo.
+ *
+ * @see PatientRepo
+ */
+public interface PatientUpdateRepo {
+
+    /**
+     * Updates the given fields of a patient and increments its version. A null value clears the field.
+     *
+     * @param id              the id of the patient
+     * @param fields          the new values by field name, among firstname, lastname, birthdate, gender, address and phoneNumber
+     * @param expectedVersion the version the patient must have for the update to be applied, or null to update any version
+     * @return the new version of the patient, or null if no patient has this id, or if its version is not the expected one
+     */
+    Integer updateFields(int id, Map<String, Object> fields, Integer expectedVersion);
+}
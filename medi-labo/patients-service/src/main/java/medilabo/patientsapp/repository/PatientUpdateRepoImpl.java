@@ -0,0 +1,61 @@
+package medilabo.patientsapp.repository;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaUpdate;
+import jakarta.persistence.criteria.Path;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import medilabo.patientsapp.model.Patient;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Criteria implementation of PatientUpdateRepo. The statement only sets the given fields, so it is built for each update.
+ * The version is incremented by the statement and checked in its WHERE clause, like the @Version check of JPA, then read again in the same transaction.
+ * The updated row stays locked until the commit, so the version read is the one set by this update.
+ *
+ * @see PatientUpdateRepo
+ */
+public class PatientUpdateRepoImpl implements PatientUpdateRepo {
+
+    private static final Set<String> UPDATABLE_FIELDS = Set.of("firstname", "lastname", "birthdate", "gender", "address", "phoneNumber");
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    @Transactional
+    public Integer updateFields(int id, Map<String, Object> fields, Integer expectedVersion) {
+        if (fields.isEmpty()) {
+            throw new IllegalArgumentException("No field to update");
+        }
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaUpdate<Patient> update = builder.createCriteriaUpdate(Patient.class);
+        Root<Patient> patient = update.from(Patient.class);
+        for (Map.Entry<String, Object> field : fields.entrySet()) {
+            if (!UPDATABLE_FIELDS.contains(field.getKey())) {
+                throw new IllegalArgumentException("Field can not be updated: " + field.getKey());
+            }
+            // A null value is bound as a null parameter typed by the field
+            update.set(field.getKey(), field.getValue());
+        }
+        Path<Integer> version = patient.get("version");
+        update.set(version, builder.sum(version, 1));
+        Predicate where = builder.equal(patient.get("id"), id);
+        if (expectedVersion != null) {
+            where = builder.and(where, builder.equal(version, expectedVersion));
+        }
+        update.where(where);
+
+        if (entityManager.createQuery(update).executeUpdate() == 0) {
+            return null;
+        }
+        return entityManager.createQuery("SELECT p.version FROM Patient p WHERE p.id = :id", Integer.class)
+                .setParameter("id", id)
+                .getSingleResult();
+    }
+}
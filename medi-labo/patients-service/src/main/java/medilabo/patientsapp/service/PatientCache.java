@@ -0,0 +1,61 @@
+package medilabo.patientsapp.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import medilabo.cache.ExpiringCache;
+import medilabo.patientsapp.model.Patient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded cache of the patients read by id, used by PatientService.
+ * Entries expire after a time-to-live, and the entry that expires first is evicted when the maximum size is reached.
+ * The cache holds detached copies of the patients, and returns a new copy on every hit, so that a caller modifying a patient, or an entity managed by JPA, can not change what other requests read.
+ * Hits, misses, evictions and size are registered as cache.* metrics with the tag cache=patients.
+ *
+ * @see PatientService
+ * @see ExpiringCache
+ */
+@Component
+public class PatientCache extends ExpiringCache<Integer, Patient> {
+
+    static final String CACHE_NAME = "patients";
+
+    private final long ttlNanos;
+
+    @Autowired
+    public PatientCache(@Value("${medilabo.patients.cache.max-size}") int maxSize,
+                        @Value("${medilabo.patients.cache.ttl}") Duration ttl,
+                        MeterRegistry meterRegistry) {
+        this(maxSize, ttl, System::nanoTime);
+        bindMetrics(meterRegistry, CACHE_NAME);
+    }
+
+    public PatientCache(int maxSize, Duration ttl, LongSupplier ticker) {
+        super(maxSize, ticker);
+        this.ttlNanos = ttl.toNanos();
+    }
+
+    /**
+     * @param id
+     * @return a copy of the cached patient, or null if there is none or if it has expired
+     */
+    @Override
+    public Patient get(Integer id) {
+        Patient cached = super.get(id);
+        return cached == null ? null : new Patient(cached);
+    }
+
+    /**
+     * Caches a copy of a patient loaded from the database, unless an invalidation happened since its loading started.
+     *
+     * @param patient
+     * @param generation the generation read before loading the patient
+     */
+    public void put(Patient patient, long generation) {
+        put(patient.getId(), new Patient(patient), ttlNanos, generation);
+    }
+}
@@ -0,0 +1,229 @@
+package medilabo.patientsapp.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import medilabo.bulk.BulkInsertReport;
+import medilabo.patientsapp.model.Patient;
+import medilabo.patientsapp.repository.PatientBatchWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Service that imports patients in bulk from a CSV or NDJSON stream. Rows are parsed and validated as they are read,
+ * and valid rows are inserted by PatientBatchWriter in JDBC batches, so that the whole file is never held in memory.
+ * Invalid rows are reported in the BulkInsertReport, where items are line numbers, and do not stop the import.
+ *
+ * @see PatientBatchWriter
+ */
+@Service
+public class PatientImportService {
+    private final Logger logger = LoggerFactory.getLogger(PatientImportService.class);
+
+    private static final Set<String> CSV_COLUMNS = Set.of("firstname", "lastname", "birthdate", "gender", "address", "phonenumber");
+    private static final Set<String> REQUIRED_CSV_COLUMNS = Set.of("firstname", "lastname", "birthdate", "gender");
+
+    public enum Format {
+        CSV, NDJSON
+    }
+
+    private final PatientBatchWriter patientBatchWriter;
+    private final Validator validator;
+    private final ObjectMapper objectMapper;
+    private final int batchSize;
+    private final int maxReportedErrors;
+
+    public PatientImportService(PatientBatchWriter patientBatchWriter, Validator validator, ObjectMapper objectMapper,
+                                @Value("${medilabo.patients.import.batch-size}") int batchSize,
+                                @Value("${medilabo.patients.import.max-reported-errors}") int maxReportedErrors) {
+        this.patientBatchWriter = patientBatchWriter;
+        this.validator = validator;
+        this.objectMapper = objectMapper;
+        this.batchSize = batchSize;
+        this.maxReportedErrors = maxReportedErrors;
+    }
+
+    /**
+     * Imports patients from a stream. A CSV stream starts with a header line naming its columns, among firstname, lastname, birthdate (yyyy-MM-dd), gender, address and phoneNumber.
+     * A NDJSON stream has one Patient JSON object per line. Blank lines are ignored.
+     *
+     * @param input  the UTF-8 encoded stream
+     * @param format the format of the stream
+     * @return the BulkInsertReport, with one BatchResult per JDBC batch
+     * @throws IOException              if the stream can not be read
+     * @throws IllegalArgumentException if the CSV header is missing or invalid
+     */
+    public BulkInsertReport importPatients(InputStream input, Format format) throws IOException {
+        BulkInsertReport report = new BulkInsertReport(maxReportedErrors);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        List<Patient> batch = new ArrayList<>(batchSize);
+        List<Long> batchLines = new ArrayList<>(batchSize);
+        Map<String, Integer> csvColumns = format == Format.CSV ? readCsvHeader(reader.readLine()) : null;
+        long lineNumber = format == Format.CSV ? 1 : 0;
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.isBlank()) {
+                continue;
+            }
+            Patient patient;
+            try {
+                patient = format == Format.CSV ? parseCsvRow(line, csvColumns) : objectMapper.readValue(line, Patient.class);
+            } catch (JsonProcessingException e) {
+                report.reject(lineNumber, "Invalid JSON: " + e.getOriginalMessage());
+                continue;
+            } catch (IllegalArgumentException e) {
+                report.reject(lineNumber, e.getMessage());
+                continue;
+            }
+            Set<ConstraintViolation<Patient>> violations = validator.validate(patient);
+            if (!violations.isEmpty()) {
+                report.reject(lineNumber, violations.stream()
+                        .map(ConstraintViolation::getMessage)
+                        .sorted()
+                        .collect(Collectors.joining(", ")));
+                continue;
+            }
+            batch.add(patient);
+            batchLines.add(lineNumber);
+            if (batch.size() == batchSize) {
+                flush(batch, batchLines, report);
+                batch = new ArrayList<>(batchSize);
+                batchLines = new ArrayList<>(batchSize);
+            }
+        }
+        flush(batch, batchLines, report);
+        logger.info("Patient import done: {} imported in {} batches, {} rejected", report.getInserted(), report.getBatches().size(), report.getRejected());
+        return report;
+    }
+
+    /**
+     * Inserts a batch. If the batch is rejected by the database, it has been rolled back, and its rows are inserted one by one to find the faulty ones.
+     */
+    private void flush(List<Patient> batch, List<Long> batchLines, BulkInsertReport report) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        int inserted = 0;
+        try {
+            patientBatchWriter.insertAll(batch);
+            inserted = batch.size();
+        } catch (DataAccessException e) {
+            logger.warn("Batch of {} patients rejected, inserting them one by one", batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                try {
+                    patientBatchWriter.insert(batch.get(i));
+                    inserted++;
+                } catch (DataAccessException rowException) {
+                    report.reject(batchLines.get(i), "Rejected by the database: " + rowException.getMostSpecificCause().getMessage());
+                }
+            }
+        }
+        report.addBatch(new BulkInsertReport.BatchResult(report.getBatches().size() + 1, batchLines.get(0), batchLines.get(batchLines.size() - 1),
+                inserted, batch.size() - inserted));
+    }
+
+    private static Map<String, Integer> readCsvHeader(String header) {
+        if (header == null) {
+            throw new IllegalArgumentException("Missing CSV header");
+        }
+        List<String> names = splitCsvLine(header.startsWith("\uFEFF") ? header.substring(1) : header);
+        Map<String, Integer> columns = new HashMap<>();
+        for (int i = 0; i < names.size(); i++) {
+            String name = names.get(i).trim().toLowerCase(Locale.ROOT);
+            if (!CSV_COLUMNS.contains(name)) {
+                throw new IllegalArgumentException("Unknown CSV column: " + names.get(i));
+            }
+            columns.put(name, i);
+        }
+        if (!columns.keySet().containsAll(REQUIRED_CSV_COLUMNS)) {
+            throw new IllegalArgumentException("CSV header must contain the columns " + REQUIRED_CSV_COLUMNS);
+        }
+        return columns;
+    }
+
+    private static Patient parseCsvRow(String line, Map<String, Integer> columns) {
+        List<String> values = splitCsvLine(line);
+        if (values.size() != columns.size()) {
+            throw new IllegalArgumentException("Expected " + columns.size() + " values but found " + values.size());
+        }
+        Patient patient = new Patient();
+        patient.setFirstname(value(values, columns, "firstname"));
+        patient.setLastname(value(values, columns, "lastname"));
+        patient.setGender(value(values, columns, "gender"));
+        patient.setAddress(value(values, columns, "address"));
+        patient.setPhoneNumber(value(values, columns, "phonenumber"));
+        String birthdate = value(values, columns, "birthdate");
+        if (birthdate != null) {
+            try {
+                patient.setBirthdate(LocalDate.parse(birthdate));
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("Invalid birthdate: " + birthdate);
+            }
+        }
+        return patient;
+    }
+
+    private static String value(List<String> values, Map<String, Integer> columns, String column) {
+        Integer index = columns.get(column);
+        if (index == null) {
+            return null;
+        }
+        String value = values.get(index).trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    /**
+     * Splits a CSV line on commas. Values can be enclosed in double quotes to contain commas, and a double quote is escaped by doubling it.
+     */
+    private static List<String> splitCsvLine(String line) {
+        List<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    value.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    value.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(value.toString());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Unterminated quoted value");
+        }
+        values.add(value.toString());
+        return values;
+    }
+}
@@ -1,11 +1,34 @@
 package medilabo.patientsapp.service;
 
 import medilabo.patientsapp.exceptions.NonExistingPatientException;
+import medilabo.patientsapp.exceptions.PatientVersionConflictException;
 import medilabo.patientsapp.model.Patient;
+import medilabo.patientsapp.model.PatientPage;
+import medilabo.patientsapp.model.PatientPatch;
+import medilabo.patientsapp.model.PatientSummary;
 import medilabo.patientsapp.repository.PatientRepo;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
 
 /**
  * Service that performs operations on Patient objects. Its methods are called by PatientController, it calls PatientRepo to perform operations on the Database.
@@ -16,30 +39,94 @@ import java.util.List;
 @Service
 public class PatientService {
 
+    private static final Set<String> SORTABLE_PROPERTIES = Set.of("id", "lastname", "firstname", "birthdate");
+    private static final String CURSOR_SEPARATOR = "|";
+
     private final PatientRepo patientRepo;
+    private final PatientCache patientCache;
+    private final int idChunkSize;
 
-    public PatientService(PatientRepo patientRepo) {
+    public PatientService(PatientRepo patientRepo, PatientCache patientCache,
+                          @Value("${medilabo.patients.bulk.id-chunk-size}") int idChunkSize) {
         this.patientRepo = patientRepo;
+        this.patientCache = patientCache;
+        this.idChunkSize = idChunkSize;
+    }
+
+    /**
+     * Gets a page of patients. The first pages can be reached with a page number. Following pages are reached with the cursor returned with the previous page, which uses keyset pagination on the sort property and id.
+     *
+     * @param page   the page number, ignored if a cursor is given
+     * @param size   the number of patients per page
+     * @param sort   the sort property, among id, lastname, firstname and birthdate, optionally followed by ',asc' or ',desc'
+     * @param cursor the cursor returned with the previous page, or null
+     * @return the PatientPage
+     * @throws IllegalArgumentException if the sort is not supported, or if the cursor is invalid or was created with another sort
+     */
+    public PatientPage<Patient> getPatients(int page, int size, String sort, String cursor) {
+        return getPage(page, size, sort, cursor, patientRepo::findAllBy, patientRepo::findAllBy, PatientSummary::of);
+    }
+
+    /**
+     * Gets a page of patient summaries, in the same way as {@link #getPatients(int, int, String, String)}. Cursors of both methods are interchangeable.
+     *
+     * @param page   the page number, ignored if a cursor is given
+     * @param size   the number of patients per page
+     * @param sort   the sort property, among id, lastname, firstname and birthdate, optionally followed by ',asc' or ',desc'
+     * @param cursor the cursor returned with the previous page, or null
+     * @return the PatientPage of PatientSummary
+     * @throws IllegalArgumentException if the sort is not supported, or if the cursor is invalid or was created with another sort
+     */
+    public PatientPage<PatientSummary> getPatientSummaries(int page, int size, String sort, String cursor) {
+        return getPage(page, size, sort, cursor, patientRepo::findSummariesBy, patientRepo::findSummariesBy, summary -> summary);
     }
 
     /**
-     * Gets all patients.
+     * Gets the patients with the given ids. Patients are read from PatientCache when possible, and the others are looked up with one IN query per chunk,
+     * so that very large sets do not exceed the limits of the database on query parameters. The patients read from the database are added to the cache.
      *
-     * @return a List of all the patients
+     * @param ids the ids, possibly with duplicates
+     * @return the List of the existing patients, which are not shared with other callers. Unknown ids are ignored.
      */
-    public List<Patient> getAllPatients() {
-        return patientRepo.findAll();
+    public List<Patient> getPatientsByIds(Collection<Integer> ids) {
+        List<Integer> distinctIds = ids.stream().filter(Objects::nonNull).distinct().toList();
+        List<Patient> patients = new ArrayList<>(distinctIds.size());
+        List<Integer> missingIds = new ArrayList<>();
+        Map<Integer, Long> generations = new HashMap<>();
+        for (int id : distinctIds) {
+            Patient cached = patientCache.get(id);
+            if (cached != null) {
+                patients.add(cached);
+            } else {
+                missingIds.add(id);
+                generations.put(id, patientCache.generation(id));
+            }
+        }
+        for (int from = 0; from < missingIds.size(); from += idChunkSize) {
+            for (Patient patient : patientRepo.findAllById(missingIds.subList(from, Math.min(from + idChunkSize, missingIds.size())))) {
+                patientCache.put(patient, generations.get(patient.getId()));
+                patients.add(patient);
+            }
+        }
+        return patients;
     }
 
     /**
-     * Get patient by id.
+     * Get patient by id. Patients are read from PatientCache when possible.
      *
      * @param id the id
-     * @return the patient
+     * @return the patient, which is not shared with other callers
      * @throws NonExistingPatientException if no patient exists with that id
      */
     public Patient getPatientById(int id){
-        return patientRepo.findById(id).orElseThrow(()->new NonExistingPatientException("Patient not found for id: " + id));
+        Patient cached = patientCache.get(id);
+        if (cached != null) {
+            return cached;
+        }
+        long generation = patientCache.generation(id);
+        Patient patient = patientRepo.findById(id).orElseThrow(()->new NonExistingPatientException("Patient not found for id: " + id));
+        patientCache.put(patient, generation);
+        return patient;
     }
 
     /**
@@ -49,25 +136,170 @@ public class PatientService {
      * @return the saved patient
      */
     public Patient addPatient(Patient patient) {
-        return patientRepo.save(patient);
+        Patient saved = patientRepo.save(patient);
+        patientCache.invalidate(saved.getId());
+        return saved;
     }
 
     /**
-     * Updates an existing patient.
+     * Replaces all the fields of an existing patient with a single UPDATE statement, and removes it from the cache.
      *
-     * @param patient the data to be updated
-     * @return the updated patient
+     * @param id      the id of the patient
+     * @param patient the new data of the patient
+     * @return the given patient, with the id and the new version set by the update
+     * @throws NonExistingPatientException if no patient exists with that id
      */
-    public Patient updatePatient(Patient patient) {
-            return patientRepo.save(patient);
+    public Patient updatePatient(int id, Patient patient) {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("firstname", patient.getFirstname());
+        fields.put("lastname", patient.getLastname());
+        fields.put("birthdate", patient.getBirthdate());
+        fields.put("gender", patient.getGender());
+        fields.put("address", patient.getAddress());
+        fields.put("phoneNumber", patient.getPhoneNumber());
+        Integer version;
+        try {
+            version = patientRepo.updateFields(id, fields, null);
+        } finally {
+            patientCache.invalidate(id);
+        }
+        if (version == null) {
+            throw new NonExistingPatientException("Patient not found for id: " + id);
+        }
+        patient.setId(id);
+        patient.setVersion(version);
+        return patient;
     }
 
     /**
-     * Deletes patient.
+     * Updates the fields present in a patch with a single UPDATE statement, and removes the patient from the cache.
+     * A null optional field, address or phoneNumber, is cleared. Required fields can not be null or blank.
+     * If the patch has a version, the update is only applied if the patient still has this version.
      *
-     * @param patient the patient to be deleted
+     * @param id    the id of the patient
+     * @param patch the fields to update
+     * @return the new version of the patient
+     * @throws IllegalArgumentException         if the patch has no field to update, or a null or blank required field
+     * @throws NonExistingPatientException      if no patient exists with that id
+     * @throws PatientVersionConflictException if the patient does not have the version of the patch
      */
-    public void deletePatient(Patient patient) {
-        patientRepo.delete(patient);
+    public int patchPatient(int id, PatientPatch patch) {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        putRequired(fields, patch, "firstname", patch.getFirstname());
+        putRequired(fields, patch, "lastname", patch.getLastname());
+        putRequired(fields, patch, "birthdate", patch.getBirthdate());
+        putRequired(fields, patch, "gender", patch.getGender());
+        if (patch.isPresent("address")) {
+            fields.put("address", patch.getAddress());
+        }
+        if (patch.isPresent("phoneNumber")) {
+            fields.put("phoneNumber", patch.getPhoneNumber());
+        }
+        if (fields.isEmpty()) {
+            throw new IllegalArgumentException("No field to update");
+        }
+        Integer version;
+        try {
+            version = patientRepo.updateFields(id, fields, patch.getVersion());
+        } finally {
+            patientCache.invalidate(id);
+        }
+        if (version == null) {
+            // The version check is the only other reason for no row to be updated, so the patient is looked up on this path only
+            if (patch.getVersion() != null && patientRepo.existsById(id)) {
+                throw new PatientVersionConflictException("Patient " + id + " is no longer at version " + patch.getVersion());
+            }
+            throw new NonExistingPatientException("Patient not found for id: " + id);
+        }
+        return version;
+    }
+
+    /**
+     * Deletes a patient with a single DELETE statement, and removes it from the cache.
+     *
+     * @param id the id of the patient to be deleted
+     * @throws NonExistingPatientException if no patient exists with that id
+     */
+    public void deletePatient(int id) {
+        int deleted;
+        try {
+            deleted = patientRepo.deleteByIdReturningCount(id);
+        } finally {
+            patientCache.invalidate(id);
+        }
+        if (deleted == 0) {
+            throw new NonExistingPatientException("Patient not found for id: " + id);
+        }
+    }
+
+    private static void putRequired(Map<String, Object> fields, PatientPatch patch, String field, Object value) {
+        if (!patch.isPresent(field)) {
+            return;
+        }
+        if (value == null || (value instanceof String string && string.isBlank())) {
+            throw new IllegalArgumentException(field + " must not be null or blank");
+        }
+        fields.put(field, value);
+    }
+
+    /**
+     * The cursor holds the sort and the keys of the last patient of a page: sort property, direction, id and sort property value.
+     */
+    private static String encodeCursor(PatientSummary patient, String property, Sort.Direction direction) {
+        String value = switch (property) {
+            case "lastname" -> patient.lastname();
+            case "firstname" -> patient.firstname();
+            case "birthdate" -> patient.birthdate().toString();
+            default -> String.valueOf(patient.id());
+        };
+        String cursor = String.join(CURSOR_SEPARATOR, property, direction.name(), String.valueOf(patient.id()), value);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ScrollPosition decodeCursor(String cursor, String property, Sort.Direction direction) {
+        String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("\\" + CURSOR_SEPARATOR, 4);
+        if (parts.length != 4 || !parts[0].equals(property) || !parts[1].equals(direction.name())) {
+            throw new IllegalArgumentException("Cursor does not match sort " + property + "," + direction);
+        }
+        Map<String, Object> keys = new LinkedHashMap<>();
+        switch (property) {
+            case "lastname", "firstname" -> keys.put(property, parts[3]);
+            case "birthdate" -> keys.put(property, LocalDate.parse(parts[3]));
+            default -> {
+            }
+        }
+        keys.put("id", Integer.parseInt(parts[2]));
+        return ScrollPosition.forward(keys);
+    }
+
+    private <T> PatientPage<T> getPage(int page, int size, String sort, String cursor,
+                                       Function<Pageable, Slice<T>> pageQuery, ScrollQuery<T> scrollQuery,
+                                       Function<T, PatientSummary> keys) {
+        String[] sortParts = sort.split(",");
+        String property = sortParts[0].trim();
+        if (!SORTABLE_PROPERTIES.contains(property) || sortParts.length > 2) {
+            throw new IllegalArgumentException("Unsupported sort: " + sort);
+        }
+        Sort.Direction direction = sortParts.length == 2 ? Sort.Direction.fromString(sortParts[1].trim()) : Sort.Direction.ASC;
+        Sort keysetSort = property.equals("id") ? Sort.by(direction, "id") : Sort.by(direction, property, "id");
+
+        List<T> patients;
+        boolean hasNext;
+        if (cursor == null) {
+            Slice<T> slice = pageQuery.apply(PageRequest.of(page, size, keysetSort));
+            patients = slice.getContent();
+            hasNext = slice.hasNext();
+        } else {
+            Window<T> window = scrollQuery.scroll(decodeCursor(cursor, property, direction), keysetSort, Limit.of(size));
+            patients = window.getContent();
+            hasNext = window.hasNext();
+        }
+        String nextCursor = hasNext && !patients.isEmpty() ? encodeCursor(keys.apply(patients.get(patients.size() - 1)), property, direction) : null;
+        return new PatientPage<>(patients, nextCursor);
+    }
+
+    @FunctionalInterface
+    private interface ScrollQuery<T> {
+        Window<T> scroll(ScrollPosition position, Sort sort, Limit limit);
     }
 }
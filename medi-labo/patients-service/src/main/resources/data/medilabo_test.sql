@@ -17,6 +17,7 @@ CREATE TABLE `patients`
     `gender`       varchar(1)  NOT NULL,
     `address`      varchar(255) DEFAULT NULL,
     `phone_number` varchar(255) DEFAULT NULL,
+    `version`      int         NOT NULL DEFAULT 0,
     PRIMARY KEY (`id`)
 );
 
@@ -0,0 +1,6 @@
+--
+-- Migration of databases created before the version column existed
+-- The schema is validated at startup, so patients-service does not start until this script is run once on each database (medilabo and medilabo_test)
+--
+ALTER TABLE `patients`
+    ADD COLUMN `version` int NOT NULL DEFAULT 0;
@@ -0,0 +1,67 @@
+package medilabo.patientsapp;
+
+import medilabo.patientsapp.model.Patient;
+import medilabo.patientsapp.service.PatientCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PatientCacheTest {
+
+    private final AtomicLong time = new AtomicLong();
+    private PatientCache patientCache;
+
+    @BeforeEach
+    public void beforeEach() {
+        patientCache = new PatientCache(2, Duration.ofMinutes(10), time::get);
+    }
+
+    @Test
+    public void put_shouldCachePatientByIdUntilTtl() {
+
+        Patient patient = patient(1);
+        patientCache.put(patient, patientCache.generation(1));
+
+        assertEquals("lastname", patientCache.get(1).getLastname());
+        time.addAndGet(Duration.ofMinutes(10).toNanos());
+        assertNull(patientCache.get(1));
+    }
+
+    @Test
+    public void get_shouldReturnCopiesThatDoNotChangeCachedPatient() {
+
+        Patient patient = patient(1);
+        patientCache.put(patient, patientCache.generation(1));
+        patient.setLastname("loaded");
+
+        Patient first = patientCache.get(1);
+        first.setLastname("modified");
+        Patient second = patientCache.get(1);
+
+        assertNotSame(first, second);
+        assertEquals("lastname", second.getLastname());
+        assertEquals(1, second.getId());
+    }
+
+    @Test
+    public void put_afterInvalidation_shouldNotCacheStalePatient() {
+
+        long generation = patientCache.generation(1);
+        patientCache.invalidate(1);
+        patientCache.put(patient(1), generation);
+
+        assertNull(patientCache.get(1));
+        assertEquals(0, patientCache.size());
+    }
+
+    private static Patient patient(int id) {
+        Patient patient = new Patient("firstname", "lastname", LocalDate.of(2000, 1, 1), "F");
+        patient.setId(id);
+        return patient;
+    }
+}
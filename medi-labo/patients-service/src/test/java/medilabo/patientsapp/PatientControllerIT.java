@@ -6,8 +6,11 @@ import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import jakarta.transaction.Transactional;
 import medilabo.patientsapp.config.SecurityConfig;
+import medilabo.patientsapp.controller.PatientController;
 import medilabo.patientsapp.model.Patient;
+import medilabo.patientsapp.model.PatientSummary;
 import medilabo.patientsapp.repository.PatientRepo;
+import medilabo.patientsapp.service.PatientCache;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
@@ -29,6 +32,8 @@ import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @SpringBootTest
@@ -44,11 +49,16 @@ public class PatientControllerIT {
     @Autowired
     private PatientRepo patientRepo;
 
+    @Autowired
+    private PatientCache patientCache;
+
     private Patient validPatient;
     private ObjectMapper objectMapper;
 
     @BeforeEach
     public void setup() {
+        // Tests are rolled back, so patients cached by a test must not be seen by the next one
+        patientCache.invalidateAll();
         validPatient = new Patient("firstname", "lastname", LocalDate.now(), "g");
 
         //Allow Jackson to parse the LocalDate
@@ -74,6 +84,44 @@ public class PatientControllerIT {
         assertEquals(4, resultPatients.size());
     }
 
+    @Test
+    @WithMockUser
+    public void getAllPatients_withNextCursor_shouldReturnFollowingPatients() throws Exception {
+
+        MvcResult firstPage = mockMvc
+                .perform(get("/patients").param("size", "3").param("sort", "lastname"))
+                .andExpect(status().isOk())
+                .andReturn();
+        String cursor = firstPage.getResponse().getHeader(PatientController.NEXT_CURSOR_HEADER);
+
+        MvcResult result = mockMvc
+                .perform(get("/patients").param("size", "3").param("sort", "lastname").param("cursor", cursor))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(PatientController.NEXT_CURSOR_HEADER))
+                .andReturn();
+
+        List<Patient> resultPatients = objectMapper
+                .readValue(result.getResponse().getContentAsString(), new TypeReference<List<Patient>>() {
+                });
+        assertEquals(1, resultPatients.size());
+    }
+
+    @Test
+    @WithMockUser
+    public void getPatientSummaries_shouldReturnSummariesAndOk() throws Exception {
+
+        MvcResult result = mockMvc
+                .perform(get("/patients/list").param("sort", "birthdate,desc"))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        List<PatientSummary> resultPatients = objectMapper
+                .readValue(result.getResponse().getContentAsString(), new TypeReference<List<PatientSummary>>() {
+                });
+        assertEquals(4, resultPatients.size());
+        assertFalse(resultPatients.get(0).birthdate().isBefore(resultPatients.get(1).birthdate()));
+    }
+
     @Test
     @WithMockUser
     public void getAllPatients_withNoPatients_shouldReturnNoContent() throws Exception {
@@ -90,6 +138,42 @@ public class PatientControllerIT {
         assertTrue(resultContent.isEmpty());
     }
 
+    @Test
+    @WithMockUser
+    public void getPatientsByIds_shouldReturnExistingPatientsAndOk() throws Exception {
+
+        MvcResult result = mockMvc
+                .perform(get("/patients").param("ids", "1,2,999"))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        List<Patient> resultPatients = objectMapper
+                .readValue(result.getResponse().getContentAsString(), new TypeReference<List<Patient>>() {
+                });
+        assertEquals(2, resultPatients.size());
+    }
+
+    @Test
+    @WithMockUser
+    public void importPatientsFromCsv_shouldInsertValidRowsAndReportInvalidOnes() throws Exception {
+
+        long countBefore = patientRepo.count();
+
+        mockMvc.perform(post("/patients/import")
+                        .contentType("text/csv")
+                        .content("lastname,firstname,birthdate,gender,address\n"
+                                + "Import,One,2000-01-01,F,\"1, Main St\"\n"
+                                + "Import,Two,2000-13-01,M,\n"
+                                + "Import,Three,1990-05-05,M,\n"
+                                + "Import,Four,1980-05-05,F,\n"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.inserted").value(3))
+                .andExpect(jsonPath("$.rejected").value(1))
+                .andExpect(jsonPath("$.errors[0].item").value(3));
+
+        assertEquals(countBefore + 3, patientRepo.count());
+    }
+
     @Test
     @WithMockUser
     public void getPatientById_shouldReturnPatientAndOk() throws Exception {
@@ -139,6 +223,8 @@ public class PatientControllerIT {
                 });
 
         assertEquals(validPatient.getFirstname(), resultPatient.getFirstname());
+        assertEquals(1, resultPatient.getId());
+        assertEquals(1, resultPatient.getVersion());
     }
 
     @ParameterizedTest
@@ -167,6 +253,7 @@ public class PatientControllerIT {
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(objectMapper.writeValueAsString(validPatient)))
                 .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"patient-1-1\""))
                 .andReturn();
 
         String resultContent = result.getResponse().getContentAsString();
@@ -175,6 +262,8 @@ public class PatientControllerIT {
                 });
 
         assertEquals(validPatient.getFirstname(), resultPatient.getFirstname());
+        assertEquals(1, resultPatient.getId());
+        assertEquals(1, resultPatient.getVersion());
     }
 
     @ParameterizedTest
@@ -194,6 +283,75 @@ public class PatientControllerIT {
         assertEquals("Validation error", resultContent);
     }
 
+    @Test
+    @WithMockUser
+    public void updatePatient_withInvalidId_shouldReturnNotFound() throws Exception {
+
+        mockMvc.perform(put("/patients/123456789")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(validPatient)))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    @WithMockUser
+    public void patchPatient_shouldUpdateFieldsAndCheckVersion() throws Exception {
+
+        mockMvc.perform(patch("/patients/1")
+                        .contentType(PatientController.MERGE_PATCH_JSON)
+                        .content("{\"address\": \"10 New St\", \"version\": 0}"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"patient-1-1\""));
+
+        mockMvc.perform(patch("/patients/1")
+                        .contentType(PatientController.MERGE_PATCH_JSON)
+                        .content("{\"address\": \"20 New St\", \"version\": 0}"))
+                .andExpect(status().isConflict());
+
+        mockMvc.perform(get("/patients/1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.address").value("10 New St"))
+                .andExpect(jsonPath("$.version").value(1));
+    }
+
+    @Test
+    @WithMockUser
+    public void patchPatient_withNullOptionalField_shouldClearIt() throws Exception {
+
+        mockMvc.perform(patch("/patients/1")
+                        .contentType(PatientController.MERGE_PATCH_JSON)
+                        .content("{\"address\": null}"))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(get("/patients/1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.address").doesNotExist())
+                .andExpect(jsonPath("$.lastname").value("TestNone"));
+    }
+
+    @Test
+    @WithMockUser
+    public void getPatientById_withETag_shouldReturnNotModifiedUntilPatientIsUpdated() throws Exception {
+
+        String eTag = mockMvc.perform(get("/patients/1"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+
+        mockMvc.perform(get("/patients/1").header("If-None-Match", eTag))
+                .andExpect(status().isNotModified());
+
+        mockMvc.perform(patch("/patients/1")
+                        .contentType(PatientController.MERGE_PATCH_JSON)
+                        .content("{\"address\": \"10 New St\"}"))
+                .andExpect(status().isOk());
+
+        String newETag = mockMvc.perform(get("/patients/1").header("If-None-Match", eTag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.address").value("10 New St"))
+                .andReturn().getResponse().getHeader("ETag");
+        assertNotEquals(eTag, newETag);
+    }
+
     @Test
     @WithMockUser
     public void deletePatient_shouldDeletePatientAndReturnOk() throws Exception {
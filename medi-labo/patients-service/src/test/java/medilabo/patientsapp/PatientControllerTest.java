@@ -4,11 +4,18 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import medilabo.bulk.BulkInsertReport;
 import medilabo.patientsapp.config.SecurityConfig;
 import medilabo.patientsapp.controller.PatientController;
 import medilabo.patientsapp.exceptions.NonExistingPatientException;
+import medilabo.patientsapp.exceptions.PatientVersionConflictException;
 import medilabo.patientsapp.model.Patient;
+import medilabo.patientsapp.model.PatientPage;
+import medilabo.patientsapp.model.PatientPatch;
+import medilabo.patientsapp.model.PatientSummary;
+import medilabo.patientsapp.service.PatientImportService;
 import medilabo.patientsapp.service.PatientService;
+import medilabo.security.ServiceToken;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
@@ -24,16 +31,24 @@ import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 
+import java.time.Duration;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @WebMvcTest(controllers = PatientController.class)
@@ -44,9 +59,15 @@ public class PatientControllerTest {
     @Autowired
     MockMvc mockMvc;
 
+    @Autowired
+    ServiceToken serviceToken;
+
     @MockitoBean
     PatientService patientService;
 
+    @MockitoBean
+    PatientImportService patientImportService;
+
     private Patient patient;
     private ObjectMapper objectMapper;
 
@@ -60,15 +81,35 @@ public class PatientControllerTest {
         objectMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
     }
 
+    @Test
+    public void getAllPatients_withServiceToken_shouldReturnOk() throws Exception {
+
+        when(patientService.getPatients(anyInt(), anyInt(), anyString(), any())).thenReturn(new PatientPage<>(List.of(new Patient()), null));
+        String token = serviceToken.issue("user", Duration.ofMinutes(5));
+
+        mockMvc.perform(get("/patients").header("Authorization", "Bearer " + token))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    public void getAllPatients_withForgedServiceToken_shouldReturnUnauthorized() throws Exception {
+
+        String token = new ServiceToken("another-secret").issue("user", Duration.ofMinutes(5));
+
+        mockMvc.perform(get("/patients").header("Authorization", "Bearer " + token))
+                .andExpect(status().isUnauthorized());
+    }
+
     @Test
     @WithMockUser
     public void getAllPatients_shouldReturnPatientsAndOk() throws Exception {
 
-        when(patientService.getAllPatients()).thenReturn(List.of(new Patient()));
+        when(patientService.getPatients(anyInt(), anyInt(), anyString(), any())).thenReturn(new PatientPage<>(List.of(new Patient()), "next"));
 
         MvcResult result = mockMvc
                 .perform(get("/patients"))
                 .andExpect(status().isOk())
+                .andExpect(header().string(PatientController.NEXT_CURSOR_HEADER, "next"))
                 .andReturn();
 
         String resultContent = result.getResponse().getContentAsString();
@@ -77,14 +118,76 @@ public class PatientControllerTest {
                 });
 
         assertEquals(1, resultPatients.size());
-        verify(patientService).getAllPatients();
+        verify(patientService).getPatients(0, 50, "id", null);
+    }
+
+    @Test
+    @WithMockUser
+    public void getAllPatients_withPageParameters_shouldCapSizeAndPassThem() throws Exception {
+
+        when(patientService.getPatients(anyInt(), anyInt(), anyString(), any())).thenReturn(new PatientPage<>(List.of(new Patient()), null));
+
+        mockMvc.perform(get("/patients")
+                        .param("size", "10000")
+                        .param("sort", "lastname,desc")
+                        .param("cursor", "abc"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(PatientController.NEXT_CURSOR_HEADER));
+
+        verify(patientService).getPatients(0, 500, "lastname,desc", "abc");
+    }
+
+    @Test
+    @WithMockUser
+    public void getAllPatients_withInvalidSortOrCursor_shouldReturnBadRequest() throws Exception {
+
+        when(patientService.getPatients(anyInt(), anyInt(), anyString(), any())).thenThrow(IllegalArgumentException.class);
+
+        mockMvc.perform(get("/patients").param("sort", "address"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @WithMockUser
+    public void getPatientSummaries_shouldReturnSummariesAndOk() throws Exception {
+
+        PatientSummary summary = new PatientSummary(1, "firstname", "lastname", LocalDate.of(2000, 1, 1), "F");
+        when(patientService.getPatientSummaries(anyInt(), anyInt(), anyString(), any())).thenReturn(new PatientPage<>(List.of(summary), "next"));
+
+        mockMvc.perform(get("/patients/list").param("sort", "lastname"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(PatientController.NEXT_CURSOR_HEADER, "next"))
+                .andExpect(jsonPath("$[0].lastname").value("lastname"))
+                .andExpect(jsonPath("$[0].address").doesNotExist());
+
+        verify(patientService).getPatientSummaries(0, 50, "lastname", null);
+    }
+
+    @Test
+    @WithMockUser
+    public void getPatientSummaries_withNoPatients_shouldReturnNoContent() throws Exception {
+
+        when(patientService.getPatientSummaries(anyInt(), anyInt(), anyString(), any())).thenReturn(new PatientPage<>(List.of(), null));
+
+        mockMvc.perform(get("/patients/list"))
+                .andExpect(status().isNoContent());
+    }
+
+    @Test
+    @WithMockUser
+    public void getAllPatients_withNegativePage_shouldReturnBadRequest() throws Exception {
+
+        mockMvc.perform(get("/patients").param("page", "-1"))
+                .andExpect(status().isBadRequest());
+
+        verify(patientService, never()).getPatients(anyInt(), anyInt(), anyString(), any());
     }
 
     @Test
     @WithMockUser
     public void getAllPatients_withNoPatients_shouldReturnNoContent() throws Exception {
 
-        when(patientService.getAllPatients()).thenReturn(new ArrayList<>());
+        when(patientService.getPatients(anyInt(), anyInt(), anyString(), any())).thenReturn(new PatientPage<>(new ArrayList<>(), null));
 
         MvcResult result = mockMvc
                 .perform(get("/patients"))
@@ -94,7 +197,103 @@ public class PatientControllerTest {
         String resultContent = result.getResponse().getContentAsString();
 
         assertTrue(resultContent.isEmpty());
-        verify(patientService).getAllPatients();
+        verify(patientService).getPatients(anyInt(), anyInt(), anyString(), any());
+    }
+
+    @Test
+    @WithMockUser
+    public void getPatientsByIds_shouldReturnPatientsAndOk() throws Exception {
+
+        when(patientService.getPatientsByIds(anyList())).thenReturn(List.of(new Patient(), new Patient()));
+
+        mockMvc.perform(get("/patients").param("ids", "1,2,3"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2));
+
+        verify(patientService).getPatientsByIds(List.of(1, 2, 3));
+        verify(patientService, never()).getPatients(anyInt(), anyInt(), anyString(), any());
+    }
+
+    @Test
+    @WithMockUser
+    public void getPatientsByIdsInBody_shouldReturnPatientsAndOk() throws Exception {
+
+        when(patientService.getPatientsByIds(anyList())).thenReturn(List.of(new Patient()));
+
+        mockMvc.perform(post("/patients/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[1, 2]"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1));
+
+        verify(patientService).getPatientsByIds(List.of(1, 2));
+    }
+
+    @Test
+    @WithMockUser
+    public void getPatientsByIds_withTooManyIds_shouldReturnBadRequest() throws Exception {
+
+        mockMvc.perform(get("/patients").param("ids", "1,2,3,4"))
+                .andExpect(status().isBadRequest());
+
+        mockMvc.perform(post("/patients/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[1, 2, 3, 4]"))
+                .andExpect(status().isBadRequest());
+
+        verify(patientService, never()).getPatientsByIds(anyList());
+    }
+
+    @Test
+    @WithMockUser
+    public void getPatientsByIdsInBody_withNoExistingPatient_shouldReturnNoContent() throws Exception {
+
+        when(patientService.getPatientsByIds(anyList())).thenReturn(List.of());
+
+        mockMvc.perform(post("/patients/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[99]"))
+                .andExpect(status().isNoContent());
+    }
+
+    @Test
+    @WithMockUser
+    public void importPatientsFromCsv_shouldUseCsvFormat() throws Exception {
+
+        when(patientImportService.importPatients(any(), any())).thenReturn(new BulkInsertReport(10));
+
+        mockMvc.perform(post("/patients/import")
+                        .contentType("text/csv")
+                        .content("firstname,lastname,birthdate,gender\nA,B,2000-01-01,F\n"))
+                .andExpect(status().isOk());
+
+        verify(patientImportService).importPatients(any(), eq(PatientImportService.Format.CSV));
+    }
+
+    @Test
+    @WithMockUser
+    public void importPatientsFromNdjson_shouldUseNdjsonFormat() throws Exception {
+
+        when(patientImportService.importPatients(any(), any())).thenReturn(new BulkInsertReport(10));
+
+        mockMvc.perform(post("/patients/import")
+                        .contentType("application/x-ndjson")
+                        .content("{\"firstname\":\"A\"}\n"))
+                .andExpect(status().isOk());
+
+        verify(patientImportService).importPatients(any(), eq(PatientImportService.Format.NDJSON));
+    }
+
+    @Test
+    @WithMockUser
+    public void importPatients_withInvalidHeader_shouldReturnBadRequest() throws Exception {
+
+        when(patientImportService.importPatients(any(), any())).thenThrow(new IllegalArgumentException("Missing CSV header"));
+
+        mockMvc.perform(post("/patients/import")
+                        .contentType("text/csv")
+                        .content(""))
+                .andExpect(status().isBadRequest());
     }
 
     @Test
@@ -116,6 +315,27 @@ public class PatientControllerTest {
         verify(patientService).getPatientById(anyInt());
     }
 
+    @Test
+    @WithMockUser
+    public void getPatientById_withMatchingETag_shouldReturnNotModifiedWithoutBody() throws Exception {
+
+        when(patientService.getPatientById(anyInt())).thenReturn(patient);
+
+        String eTag = mockMvc.perform(get("/patients/1"))
+                .andExpect(status().isOk())
+                .andExpect(header().exists("ETag"))
+                .andReturn().getResponse().getHeader("ETag");
+
+        MvcResult result = mockMvc.perform(get("/patients/1").header("If-None-Match", eTag))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", eTag))
+                .andReturn();
+
+        assertTrue(result.getResponse().getContentAsString().isEmpty());
+        mockMvc.perform(get("/patients/1").header("If-None-Match", "\"patient-1-999\""))
+                .andExpect(status().isOk());
+    }
+
     @Test
     @WithMockUser
     public void getPatientById_withException_shouldReturnNotFound() throws Exception {
@@ -192,23 +412,29 @@ public class PatientControllerTest {
 
     @Test
     @WithMockUser
-    public void updatePatient_shouldReturnPatientAndOK() throws Exception {
+    public void updatePatient_shouldReturnUpdatedPatientAndOKWithoutReadingIt() throws Exception {
 
-        when(patientService.updatePatient(any(Patient.class))).thenReturn(patient);
+        Patient updatedPatient = new Patient("firstname", "lastname", LocalDate.now(), "g");
+        updatedPatient.setId(1);
+        updatedPatient.setVersion(3);
+        when(patientService.updatePatient(eq(1), any(Patient.class))).thenReturn(updatedPatient);
 
         MvcResult result = mockMvc
                 .perform(put("/patients/1")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(objectMapper.writeValueAsString(patient)))
                 .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"patient-1-3\""))
                 .andReturn();
 
         String resultContent = result.getResponse().getContentAsString();
         Patient resultPatient = objectMapper.readValue(resultContent, new TypeReference<Patient>() {
         });
 
-        assertEquals(patient.getId(), resultPatient.getId());
-        verify(patientService).updatePatient(any(Patient.class));
+        assertEquals(1, resultPatient.getId());
+        assertEquals(3, resultPatient.getVersion());
+        verify(patientService).updatePatient(eq(1), any(Patient.class));
+        verify(patientService, never()).getPatientById(anyInt());
     }
 
     @ParameterizedTest
@@ -232,7 +458,7 @@ public class PatientControllerTest {
     @WithMockUser
     public void updatePatient_withException_shouldInternalServerError() throws Exception {
 
-        when(patientService.updatePatient(any(Patient.class))).thenThrow(new RuntimeException());
+        doThrow(new RuntimeException()).when(patientService).updatePatient(anyInt(), any(Patient.class));
 
         MvcResult result = mockMvc
                 .perform(put("/patients/1")
@@ -244,31 +470,91 @@ public class PatientControllerTest {
         String resultContent = result.getResponse().getContentAsString();
 
         assertTrue(resultContent.isEmpty());
-        verify(patientService).updatePatient(any(Patient.class));
+        verify(patientService).updatePatient(eq(1), any(Patient.class));
+    }
+
+    @Test
+    @WithMockUser
+    public void updatePatient_withNonExistingPatient_shouldReturnNotFound() throws Exception {
+
+        doThrow(new NonExistingPatientException()).when(patientService).updatePatient(anyInt(), any(Patient.class));
+
+        mockMvc.perform(put("/patients/1")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(patient)))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    @WithMockUser
+    public void patchPatient_shouldReturnOkWithNewVersion() throws Exception {
+
+        when(patientService.patchPatient(eq(1), any(PatientPatch.class))).thenReturn(3);
+
+        mockMvc.perform(patch("/patients/1")
+                        .contentType(PatientController.MERGE_PATCH_JSON)
+                        .content("{\"address\": \"1 Main St\", \"phoneNumber\": null, \"version\": 2}"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"patient-1-3\""));
+
+        verify(patientService).patchPatient(eq(1), argThat(patch -> patch.getAddress().equals("1 Main St")
+                && patch.getVersion() == 2 && patch.getPresentFields().equals(Set.of("address", "phoneNumber"))));
+    }
+
+    @Test
+    @WithMockUser
+    public void patchPatient_withPlainJson_shouldReturnUnsupportedMediaType() throws Exception {
+
+        mockMvc.perform(patch("/patients/1")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"address\": \"1 Main St\"}"))
+                .andExpect(status().isUnsupportedMediaType());
+
+        verify(patientService, never()).patchPatient(anyInt(), any(PatientPatch.class));
+    }
+
+    @ParameterizedTest
+    @MethodSource("patchExceptionProvider")
+    @WithMockUser
+    public void patchPatient_withException_shouldReturnMatchingStatus(RuntimeException exception, int expectedStatus) throws Exception {
+
+        doThrow(exception).when(patientService).patchPatient(anyInt(), any(PatientPatch.class));
+
+        mockMvc.perform(patch("/patients/1")
+                        .contentType(PatientController.MERGE_PATCH_JSON)
+                        .content("{\"lastname\": \"lastname\", \"version\": 2}"))
+                .andExpect(status().is(expectedStatus));
     }
 
     @Test
     @WithMockUser
     public void deletePatient_shouldReturnOk() throws Exception {
-        when(patientService.getPatientById(anyInt())).thenReturn(new Patient());
-        doNothing().when(patientService).deletePatient(any(Patient.class));
+        doNothing().when(patientService).deletePatient(anyInt());
 
         mockMvc.perform(delete("/patients/1"))
                 .andExpect((status().isOk()));
 
-        verify(patientService).deletePatient(any(Patient.class));
+        verify(patientService).deletePatient(1);
+        verify(patientService, never()).getPatientById(anyInt());
     }
 
     @Test
     @WithMockUser
     public void deletePatient_withException_shouldReturnNotFound() throws Exception {
-        when(patientService.getPatientById(anyInt())).thenReturn(new Patient());
-        doThrow(new NonExistingPatientException()).when(patientService).deletePatient(any(Patient.class));
+        doThrow(new NonExistingPatientException()).when(patientService).deletePatient(anyInt());
 
         mockMvc.perform(delete("/patients/1"))
                 .andExpect((status().isNotFound()));
 
-        verify(patientService).deletePatient(any(Patient.class));
+        verify(patientService).deletePatient(1);
+    }
+
+    private static Stream<Arguments> patchExceptionProvider() {
+        return Stream.of(
+                Arguments.of(new IllegalArgumentException("No field to update"), 400),
+                Arguments.of(new NonExistingPatientException(), 404),
+                Arguments.of(new PatientVersionConflictException("conflict"), 409)
+        );
     }
 
     private static Stream<Arguments> invalidPatientProvider() {
@@ -0,0 +1,106 @@
+package medilabo.patientsapp;
+
+import medilabo.bulk.BulkInsertReport;
+import medilabo.patientsapp.model.Patient;
+import medilabo.patientsapp.repository.PatientBatchWriter;
+import medilabo.patientsapp.service.PatientImportService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.*;
+
+@SpringBootTest
+@ActiveProfiles("test")
+public class PatientImportServiceTest {
+
+    @Autowired
+    private PatientImportService patientImportService;
+
+    @MockitoBean
+    private PatientBatchWriter patientBatchWriter;
+
+    @Test
+    public void importPatients_withCsv_shouldInsertValidRowsByBatchesAndReportInvalidOnes() throws IOException {
+
+        String csv = """
+                firstname,lastname,birthdate,gender,address,phoneNumber
+                Anna,Smith,1980-01-01,F,"1, Main St",100-222-3333
+                Bob,,1980-01-01,M,,
+                Carl,Jones,1980-02-30,M,,
+
+                Dana,Brown,1990-05-05,F,,
+                Eric,White,1970-07-07,M,,
+                """;
+
+        BulkInsertReport report = patientImportService.importPatients(stream(csv), PatientImportService.Format.CSV);
+
+        assertEquals(List.of(3L, 4L), report.getErrors().stream().map(BulkInsertReport.ItemError::item).toList());
+        assertEquals(List.of(new BulkInsertReport.BatchResult(1, 2, 6, 2, 0), new BulkInsertReport.BatchResult(2, 7, 7, 1, 0)),
+                report.getBatches());
+        assertEquals("lastname must not be blank", report.getErrors().get(0).message());
+        verify(patientBatchWriter).insertAll(argThat(batch -> batch.size() == 2
+                && batch.get(0).getAddress().equals("1, Main St")
+                && batch.get(1).getBirthdate().equals(LocalDate.of(1990, 5, 5))));
+        verify(patientBatchWriter).insertAll(argThat(batch -> batch.size() == 1));
+    }
+
+    @Test
+    public void importPatients_withNdjson_shouldParseOnePatientPerLine() throws IOException {
+
+        String ndjson = """
+                {"firstname":"Anna","lastname":"Smith","birthdate":"1980-01-01","gender":"F"}
+                {"firstname":"Bob",
+                {"firstname":"Carl","lastname":"Jones","birthdate":"1980-01-01"}
+                """;
+
+        BulkInsertReport report = patientImportService.importPatients(stream(ndjson), PatientImportService.Format.NDJSON);
+
+        assertEquals(1, report.getInserted());
+        assertTrue(report.getErrors().get(0).message().startsWith("Invalid JSON"));
+        assertEquals("gender must be M or F", report.getErrors().get(1).message());
+    }
+
+    @Test
+    public void importPatients_withRejectedBatch_shouldInsertRowsOneByOne() throws IOException {
+
+        doThrow(new DataIntegrityViolationException("batch")).when(patientBatchWriter).insertAll(anyList());
+        doNothing().doThrow(new DataIntegrityViolationException("Data too long for column 'lastname'"))
+                .when(patientBatchWriter).insert(any(Patient.class));
+        String csv = "firstname,lastname,birthdate,gender\nAnna,Smith,1980-01-01,F\nBob,Toolong,1980-01-01,M\n";
+
+        BulkInsertReport report = patientImportService.importPatients(stream(csv), PatientImportService.Format.CSV);
+
+        assertEquals(new BulkInsertReport.ItemError(3, "Rejected by the database: Data too long for column 'lastname'"), report.getErrors().get(0));
+        assertEquals(List.of(new BulkInsertReport.BatchResult(1, 2, 3, 1, 1)), report.getBatches());
+        verify(patientBatchWriter, times(2)).insert(any(Patient.class));
+    }
+
+    @Test
+    public void importPatients_withUnknownCsvColumn_shouldThrowException() {
+
+        String csv = "firstname,lastname,birthdate,gender,email\n";
+
+        assertThrows(IllegalArgumentException.class,
+                () -> patientImportService.importPatients(stream(csv), PatientImportService.Format.CSV));
+        verifyNoInteractions(patientBatchWriter);
+    }
+
+    private static InputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -1,22 +1,41 @@
 package medilabo.patientsapp;
 
 import medilabo.patientsapp.exceptions.NonExistingPatientException;
+import medilabo.patientsapp.exceptions.PatientVersionConflictException;
 import medilabo.patientsapp.model.Patient;
+import medilabo.patientsapp.model.PatientPage;
+import medilabo.patientsapp.model.PatientPatch;
+import medilabo.patientsapp.model.PatientSummary;
 import medilabo.patientsapp.repository.PatientRepo;
+import medilabo.patientsapp.service.PatientCache;
 import medilabo.patientsapp.service.PatientService;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.stream.IntStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyIterable;
+import static org.mockito.ArgumentMatchers.anyMap;
 import static org.mockito.Mockito.*;
 
 @SpringBootTest
@@ -29,15 +48,111 @@ public class PatientServiceTest {
     @MockitoBean
     private PatientRepo patientRepo;
 
+    @Autowired
+    private PatientCache patientCache;
+
+    @BeforeEach
+    public void beforeEach() {
+        patientCache.invalidateAll();
+    }
+
+    @Test
+    public void getPatients_withPageNumber_shouldCallRepoAndReturnPageWithCursor() {
+
+        Patient patient = new Patient("firstname", "lastname", LocalDate.of(2000, 1, 1), "F");
+        when(patientRepo.findAllBy(any(Pageable.class)))
+                .thenReturn(new SliceImpl<>(List.of(patient), PageRequest.of(0, 1), true));
+
+        PatientPage<Patient> page = patientService.getPatients(0, 1, "lastname,desc", null);
+
+        assertEquals(1, page.getPatients().size());
+        assertNotNull(page.getNextCursor());
+        verify(patientRepo).findAllBy(PageRequest.of(0, 1, Sort.by(Sort.Direction.DESC, "lastname", "id")));
+    }
+
+    @Test
+    public void getPatients_withCursor_shouldScrollFromCursorKeys() {
+
+        Patient patient = new Patient("firstname", "lastname", LocalDate.of(2000, 1, 1), "F");
+        when(patientRepo.findAllBy(any(Pageable.class)))
+                .thenReturn(new SliceImpl<>(List.of(patient), PageRequest.of(0, 1), true));
+        when(patientRepo.findAllBy(any(ScrollPosition.class), any(Sort.class), any(Limit.class)))
+                .thenReturn(Window.from(List.of(new Patient()), i -> ScrollPosition.offset(), false));
+        String cursor = patientService.getPatients(0, 1, "birthdate", null).getNextCursor();
+
+        PatientPage<Patient> page = patientService.getPatients(0, 1, "birthdate", cursor);
+
+        assertEquals(1, page.getPatients().size());
+        assertNull(page.getNextCursor());
+        Map<String, Object> keys = new LinkedHashMap<>();
+        keys.put("birthdate", LocalDate.of(2000, 1, 1));
+        keys.put("id", 0);
+        verify(patientRepo).findAllBy(ScrollPosition.forward(keys), Sort.by(Sort.Direction.ASC, "birthdate", "id"), Limit.of(1));
+    }
+
     @Test
-    public void getAllPatients_shouldCallRepoAndReturnPatients() {
+    public void getPatientSummaries_shouldCallSummaryQueryAndReturnPageWithCursor() {
 
-        when(patientRepo.findAll()).thenReturn(List.of(new Patient()));
+        PatientSummary summary = new PatientSummary(3, "firstname", "lastname", LocalDate.of(2000, 1, 1), "F");
+        when(patientRepo.findSummariesBy(any(Pageable.class)))
+                .thenReturn(new SliceImpl<>(List.of(summary), PageRequest.of(0, 1), true));
 
-        List<Patient> patients = patientService.getAllPatients();
+        PatientPage<PatientSummary> page = patientService.getPatientSummaries(0, 1, "firstname", null);
 
-        assertEquals(1, patients.size());
-        verify(patientRepo).findAll();
+        assertEquals(List.of(summary), page.getPatients());
+        assertNotNull(page.getNextCursor());
+        verify(patientRepo).findSummariesBy(PageRequest.of(0, 1, Sort.by(Sort.Direction.ASC, "firstname", "id")));
+        verify(patientRepo, never()).findAllBy(any(Pageable.class));
+    }
+
+    @Test
+    public void getPatients_withUnsupportedSort_shouldThrowException() {
+
+        assertThrows(IllegalArgumentException.class, () -> patientService.getPatients(0, 1, "address", null));
+        verifyNoInteractions(patientRepo);
+    }
+
+    @Test
+    public void getPatients_withCursorOfAnotherSort_shouldThrowException() {
+
+        Patient patient = new Patient("firstname", "lastname", LocalDate.of(2000, 1, 1), "F");
+        when(patientRepo.findAllBy(any(Pageable.class)))
+                .thenReturn(new SliceImpl<>(List.of(patient), PageRequest.of(0, 1), true));
+        String cursor = patientService.getPatients(0, 1, "lastname", null).getNextCursor();
+
+        assertThrows(IllegalArgumentException.class, () -> patientService.getPatients(0, 1, "firstname", cursor));
+    }
+
+    @Test
+    public void getPatientsByIds_shouldQueryDistinctIdsByChunks() {
+
+        List<Integer> ids = new ArrayList<>(IntStream.rangeClosed(1, 501).boxed().toList());
+        ids.add(1);
+        when(patientRepo.findAllById(anyIterable())).thenReturn(List.of(new Patient()));
+
+        List<Patient> patients = patientService.getPatientsByIds(ids);
+
+        assertEquals(2, patients.size());
+        verify(patientRepo).findAllById(IntStream.rangeClosed(1, 500).boxed().toList());
+        verify(patientRepo).findAllById(List.of(501));
+    }
+
+    @Test
+    public void getPatientsByIds_shouldQueryOnlyUncachedIdsAndCacheThem() {
+
+        Patient cachedPatient = new Patient();
+        cachedPatient.setId(1);
+        patientCache.put(cachedPatient, patientCache.generation(1));
+        Patient loadedPatient = new Patient();
+        loadedPatient.setId(2);
+        when(patientRepo.findAllById(anyIterable())).thenReturn(List.of(loadedPatient));
+
+        List<Patient> patients = patientService.getPatientsByIds(List.of(1, 2));
+
+        assertEquals(List.of(1, 2), patients.stream().map(Patient::getId).toList());
+        assertNotSame(cachedPatient, patients.get(0));
+        assertEquals(2, patientCache.get(2).getId());
+        verify(patientRepo).findAllById(List.of(2));
     }
 
     @Test
@@ -61,6 +176,34 @@ public class PatientServiceTest {
         verify(patientRepo).findById(anyInt());
     }
 
+    @Test
+    public void getPatientById_withCachedPatient_shouldCallRepoOnce() {
+
+        when(patientRepo.findById(anyInt())).thenReturn(Optional.of(new Patient()));
+
+        Patient first = patientService.getPatientById(0);
+        first.setLastname("modified");
+        Patient second = patientService.getPatientById(0);
+
+        assertNotSame(first, second);
+        assertNull(second.getLastname());
+        verify(patientRepo, times(1)).findById(0);
+    }
+
+    @Test
+    public void updatePatient_shouldInvalidateCachedPatient() {
+
+        Patient patient = new Patient("firstname", "lastname", LocalDate.now(), "F");
+        when(patientRepo.findById(anyInt())).thenReturn(Optional.of(patient));
+        when(patientRepo.updateFields(anyInt(), anyMap(), any())).thenReturn(1);
+        patientService.getPatientById(0);
+
+        patientService.updatePatient(0, patient);
+        patientService.getPatientById(0);
+
+        verify(patientRepo, times(2)).findById(0);
+    }
+
     @Test
     public void addPatient_shouldCallRepoAndReturnPatient() {
 
@@ -74,23 +217,113 @@ public class PatientServiceTest {
     }
 
     @Test
-    public void updatePatient_shouldCallRepoAndReturnPatient() {
-        Patient patient = new Patient("firstname", "lastname", LocalDate.now(), "g");
-        when(patientRepo.save(any(Patient.class))).thenReturn(patient);
+    public void updatePatient_shouldUpdateAllColumnsWithoutVersion() {
+        Patient patient = new Patient("firstname", "lastname", LocalDate.of(2000, 1, 1), "F");
+        when(patientRepo.updateFields(anyInt(), anyMap(), any())).thenReturn(4);
 
-        Patient updatedPatient = patientService.updatePatient(patient);
+        Patient updatedPatient = patientService.updatePatient(1, patient);
 
-        assertEquals(patient.getId(), updatedPatient.getId());
-        verify(patientRepo).save(any(Patient.class));
+        assertEquals(1, updatedPatient.getId());
+        assertEquals(4, updatedPatient.getVersion());
+
+        Map<String, Object> columns = new LinkedHashMap<>();
+        columns.put("firstname", "firstname");
+        columns.put("lastname", "lastname");
+        columns.put("birthdate", LocalDate.of(2000, 1, 1));
+        columns.put("gender", "F");
+        columns.put("address", null);
+        columns.put("phoneNumber", null);
+        verify(patientRepo).updateFields(1, columns, null);
+        verify(patientRepo, never()).save(any(Patient.class));
     }
 
     @Test
-    public void deletePatient_shouldCallRepo() {
-        Patient patient = new Patient("firstname", "lastname", LocalDate.now(), "g");
-        doNothing().when(patientRepo).delete(any(Patient.class));
+    public void updatePatient_withNoUpdatedRow_shouldThrowException() {
+        when(patientRepo.updateFields(anyInt(), anyMap(), any())).thenReturn(null);
+
+        assertThrows(NonExistingPatientException.class,
+                () -> patientService.updatePatient(1, new Patient("firstname", "lastname", LocalDate.now(), "F")));
+    }
+
+    @Test
+    public void patchPatient_shouldUpdateNonNullFieldsWithVersion() {
+        PatientPatch patch = new PatientPatch();
+        patch.setAddress("1 Main St");
+        patch.setVersion(3);
+        when(patientRepo.updateFields(anyInt(), anyMap(), any())).thenReturn(4);
+
+        int version = patientService.patchPatient(1, patch);
+
+        assertEquals(4, version);
+
+        verify(patientRepo).updateFields(1, Map.of("address", "1 Main St"), 3);
+        verify(patientRepo, never()).existsById(anyInt());
+    }
+
+    @Test
+    public void patchPatient_withNullOptionalFields_shouldClearThem() {
+        PatientPatch patch = new PatientPatch();
+        patch.setAddress(null);
+        patch.setPhoneNumber(null);
+        when(patientRepo.updateFields(anyInt(), anyMap(), any())).thenReturn(4);
 
-        patientService.deletePatient(patient);
+        patientService.patchPatient(1, patch);
+
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("address", null);
+        fields.put("phoneNumber", null);
+        verify(patientRepo).updateFields(1, fields, null);
+    }
+
+    @Test
+    public void patchPatient_withOutdatedVersion_shouldThrowConflict() {
+        PatientPatch patch = new PatientPatch();
+        patch.setLastname("lastname");
+        patch.setVersion(3);
+        when(patientRepo.updateFields(anyInt(), anyMap(), any())).thenReturn(null);
+        when(patientRepo.existsById(1)).thenReturn(true);
+
+        assertThrows(PatientVersionConflictException.class, () -> patientService.patchPatient(1, patch));
+    }
+
+    @Test
+    public void patchPatient_withNoPatient_shouldThrowNotFound() {
+        PatientPatch patch = new PatientPatch();
+        patch.setLastname("lastname");
+        patch.setVersion(3);
+        when(patientRepo.updateFields(anyInt(), anyMap(), any())).thenReturn(null);
+        when(patientRepo.existsById(1)).thenReturn(false);
+
+        assertThrows(NonExistingPatientException.class, () -> patientService.patchPatient(1, patch));
+    }
+
+    @Test
+    public void patchPatient_withBlankOrNoField_shouldThrowException() {
+        PatientPatch blankPatch = new PatientPatch();
+        blankPatch.setFirstname(" ");
+        PatientPatch nullPatch = new PatientPatch();
+        nullPatch.setBirthdate(null);
+
+        assertThrows(IllegalArgumentException.class, () -> patientService.patchPatient(1, blankPatch));
+        assertThrows(IllegalArgumentException.class, () -> patientService.patchPatient(1, nullPatch));
+        assertThrows(IllegalArgumentException.class, () -> patientService.patchPatient(1, new PatientPatch()));
+        verify(patientRepo, never()).updateFields(anyInt(), anyMap(), any());
+    }
+
+    @Test
+    public void deletePatient_shouldDeleteById() {
+        when(patientRepo.deleteByIdReturningCount(1)).thenReturn(1);
+
+        patientService.deletePatient(1);
+
+        verify(patientRepo).deleteByIdReturningCount(1);
+        verify(patientRepo, never()).findById(anyInt());
+    }
+
+    @Test
+    public void deletePatient_withNoDeletedRow_shouldThrowException() {
+        when(patientRepo.deleteByIdReturningCount(1)).thenReturn(0);
 
-        verify(patientRepo).delete(any(Patient.class));
+        assertThrows(NonExistingPatientException.class, () -> patientService.deletePatient(1));
     }
 }
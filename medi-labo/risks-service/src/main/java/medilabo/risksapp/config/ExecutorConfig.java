@@ -0,0 +1,34 @@
+package medilabo.risksapp.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+@Configuration
+public class ExecutorConfig {
+
+    @Value("${medilabo.risks.executor.pool-size}")
+    private int poolSize;
+
+    @Value("${medilabo.risks.executor.queue-capacity}")
+    private int queueCapacity;
+
+    /**
+     * Bounded executor used to issue calls to other services concurrently. When the queue is full, the calling thread runs the task itself instead of rejecting it.
+     *
+     * @return the executor used by RiskService
+     */
+    @Bean
+    public ThreadPoolTaskExecutor riskExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("risk-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        return executor;
+    }
+}
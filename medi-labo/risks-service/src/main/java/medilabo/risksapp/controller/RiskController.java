@@ -2,6 +2,7 @@ package medilabo.risksapp.controller;
 
 import medilabo.risksapp.exceptions.NotesNotFoundException;
 import medilabo.risksapp.exceptions.PatientNotFoundException;
+import medilabo.risksapp.model.RiskAssessment;
 import medilabo.risksapp.model.RiskLevel;
 import medilabo.risksapp.service.RiskService;
 import org.slf4j.Logger;
@@ -10,7 +11,13 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+
+import java.util.List;
+import java.util.Map;
 
 @RestController
 public class RiskController {
@@ -24,22 +31,52 @@ public class RiskController {
 
     /**
      * Asks riskService for RiskLevel according to a patient ID.
+     * The ETag is the version of the data the level was calculated from: the patient version, the trigger state of the notes and the current date. The level is still calculated, as the trigger state is only known once the new notes are evaluated, but a 304 spares the client its body and lets it revalidate its cached response.
+     * A NOT_APPLICABLE level has no ETag, since no trigger state could be evaluated.
      *
      * @param id the patient ID
-     * @return a ResponseEntity containing the RiskLevel as String with 200 status, an empty one with 404 status if no patient matches the ID, or with 500 status if an error occurs.
+     * @param webRequest the request, checked against the ETag of the risk
+     * @return a ResponseEntity containing the RiskLevel as String with 200 status, an empty one with 304 status if the If-None-Match header matches the ETag, with 404 status if no patient matches the ID, or with 500 status if an error occurs.
      */
     @GetMapping("/risks/{id}")
-    public ResponseEntity<String> getRiskLevelByPatientId(@PathVariable("id") int id) {
+    public ResponseEntity<String> getRiskLevelByPatientId(@PathVariable("id") int id, WebRequest webRequest) {
         logger.info("GetMapping for /risks/{id}");
+        String riskLevel;
         try {
-            String riskLevel = riskService.calculateRisk(id).toString();
-            return new ResponseEntity<>(riskLevel, HttpStatus.OK);
+            RiskAssessment riskAssessment = riskService.assessRisk(id);
+            // Also sets the ETag header of the response
+            if (webRequest.checkNotModified(riskETag(id, riskAssessment.getVersion()))) {
+                return new ResponseEntity<>(HttpStatus.NOT_MODIFIED);
+            }
+            riskLevel = riskAssessment.getRiskLevel().toString();
         } catch (NotesNotFoundException e) {
-            return new ResponseEntity<>(RiskLevel.NOT_APPLICABLE.toString(), HttpStatus.OK);
+            riskLevel = RiskLevel.NOT_APPLICABLE.toString();
         } catch (PatientNotFoundException e) {
             return new ResponseEntity<>(HttpStatus.NOT_FOUND);
         } catch (Exception e) {
             return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
         }
+        return new ResponseEntity<>(riskLevel, HttpStatus.OK);
+    }
+
+    /**
+     * Asks riskService for the RiskLevel of several patients at once, instead of one request per patient.
+     *
+     * @param patientIds the patient IDs
+     * @return a ResponseEntity containing a Map of patient ID to RiskLevel with 200 status, or an empty one with 500 status if an error occurs. Patients that are not found are absent from the Map.
+     */
+    @PostMapping("/risks/batch")
+    public ResponseEntity<Map<Integer, RiskLevel>> getRiskLevelsByPatientIds(@RequestBody List<Integer> patientIds) {
+        logger.info("PostMapping for /risks/batch with {} IDs", patientIds.size());
+        try {
+            return new ResponseEntity<>(riskService.calculateRisks(patientIds), HttpStatus.OK);
+        } catch (Exception e) {
+            logger.error("Batch risk calculation failed", e);
+            return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    private static String riskETag(int id, String version) {
+        return "\"risk-" + id + "-" + version + "\"";
     }
 }
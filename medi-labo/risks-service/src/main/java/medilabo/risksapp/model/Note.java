@@ -2,6 +2,7 @@ package medilabo.risksapp.model;
 
 public class Note {
 
+    private String id;
     private int patientId;
     private String content;
 
@@ -12,6 +13,19 @@ public class Note {
         this.content = content;
     }
 
+    public Note(String id, String content) {
+        this.id = id;
+        this.content = content;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
     public int getPatientId() {
         return patientId;
     }
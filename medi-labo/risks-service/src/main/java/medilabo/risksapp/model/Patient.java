@@ -1,15 +1,19 @@
 package medilabo.risksapp.model;
 
+import com.fasterxml.jackson.annotation.JsonAlias;
+
 import java.time.LocalDate;
 
 public class Patient {
 
+    @JsonAlias("id")
     private int patientId;
     private String gender;
     private LocalDate birthdate;
     private int age;
     private int numOfTriggers;
     private RiskLevel riskLevel;
+    private int version;
 
     public int getPatientId() {
         return patientId;
@@ -58,4 +62,12 @@ public class Patient {
     public void setRiskLevel(RiskLevel riskLevel) {
         this.riskLevel = riskLevel;
     }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
 }
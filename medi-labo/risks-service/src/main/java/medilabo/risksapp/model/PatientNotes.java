@@ -0,0 +1,36 @@
+package medilabo.risksapp.model;
+
+import java.util.List;
+
+/**
+ * The notes of one patient, newest first, as returned by notes-service for several patients at once.
+ */
+public class PatientNotes {
+
+    private int patientId;
+    private List<Note> notes;
+
+    public PatientNotes() {
+    }
+
+    public PatientNotes(int patientId, List<Note> notes) {
+        this.patientId = patientId;
+        this.notes = notes;
+    }
+
+    public int getPatientId() {
+        return patientId;
+    }
+
+    public void setPatientId(int patientId) {
+        this.patientId = patientId;
+    }
+
+    public List<Note> getNotes() {
+        return notes;
+    }
+
+    public void setNotes(List<Note> notes) {
+        this.notes = notes;
+    }
+}
@@ -0,0 +1,34 @@
+package medilabo.risksapp.model;
+
+/**
+ * RiskLevel of a patient, and the version of the data it was calculated from: the version of the patient, the trigger state of their notes and the date, since the age depends on it.
+ * The same version always gives the same RiskLevel, so it can be used as a validator of the risk.
+ *
+ * @see TriggerState
+ */
+public class RiskAssessment {
+
+    private final RiskLevel riskLevel;
+    private final String version;
+
+    public RiskAssessment(RiskLevel riskLevel, String version) {
+        this.riskLevel = riskLevel;
+        this.version = version;
+    }
+
+    public RiskLevel getRiskLevel() {
+        return riskLevel;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    @Override
+    public String toString() {
+        return "RiskAssessment{" +
+                "riskLevel=" + riskLevel +
+                ", version='" + version + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,34 @@
+package medilabo.risksapp.model;
+
+/**
+ * Triggers already found in the notes of a patient, and the ID of the last note that was evaluated.
+ * Only notes with a greater ID, or within the overlap window before it, are evaluated again to update the state.
+ *
+ * @see medilabo.triggers.Triggers
+ */
+public class TriggerState {
+
+    private final int triggerMask;
+    private final String lastNoteId;
+
+    public TriggerState(int triggerMask, String lastNoteId) {
+        this.triggerMask = triggerMask;
+        this.lastNoteId = lastNoteId;
+    }
+
+    public int getTriggerMask() {
+        return triggerMask;
+    }
+
+    public String getLastNoteId() {
+        return lastNoteId;
+    }
+
+    @Override
+    public String toString() {
+        return "TriggerState{" +
+                "triggerMask=" + triggerMask +
+                ", lastNoteId='" + lastNoteId + '\'' +
+                '}';
+    }
+}
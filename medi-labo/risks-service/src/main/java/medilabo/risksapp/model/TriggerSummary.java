@@ -0,0 +1,49 @@
+package medilabo.risksapp.model;
+
+/**
+ * Result of the trigger evaluation performed by notes-service on the notes of a patient.
+ *
+ * @see medilabo.triggers.Triggers
+ */
+public class TriggerSummary {
+
+    private int triggerMask;
+    private int triggerCount;
+    private int noteCount;
+    private String lastNoteId;
+
+    public TriggerSummary() {
+    }
+
+    public int getTriggerMask() {
+        return triggerMask;
+    }
+
+    public void setTriggerMask(int triggerMask) {
+        this.triggerMask = triggerMask;
+    }
+
+    public int getTriggerCount() {
+        return triggerCount;
+    }
+
+    public void setTriggerCount(int triggerCount) {
+        this.triggerCount = triggerCount;
+    }
+
+    public int getNoteCount() {
+        return noteCount;
+    }
+
+    public void setNoteCount(int noteCount) {
+        this.noteCount = noteCount;
+    }
+
+    public String getLastNoteId() {
+        return lastNoteId;
+    }
+
+    public void setLastNoteId(String lastNoteId) {
+        this.lastNoteId = lastNoteId;
+    }
+}
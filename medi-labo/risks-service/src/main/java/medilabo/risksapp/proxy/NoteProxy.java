@@ -2,13 +2,20 @@ package medilabo.risksapp.proxy;
 
 import medilabo.risksapp.config.FeignConfig;
 import medilabo.risksapp.model.Note;
+import medilabo.risksapp.model.PatientNotes;
+import medilabo.risksapp.model.TriggerSummary;
 import org.springframework.cloud.openfeign.FeignClient;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Repository;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * This interface uses Feign Client to build requests that are sent to the notes-service module, through the gateway.
@@ -19,6 +26,29 @@ import java.util.List;
 @FeignClient(name = "gateway-service", contextId = "notes-service", configuration = FeignConfig.class)
 public interface NoteProxy {
 
+    String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    /**
+     * Gets a page of the notes of a patient, newest first. The cursor of the next page, if any, is sent in the X-Next-Cursor header.
+     */
     @GetMapping("/notes-service/notes/{patientId}")
-    ResponseEntity<List<Note>> getNotesByPatientId(@PathVariable("patientId") int patientId);
+    ResponseEntity<List<Note>> getNotesByPatientId(@PathVariable("patientId") int patientId,
+                                                   @RequestParam("limit") int limit,
+                                                   @RequestParam(value = "cursor", required = false) String cursor);
+
+    /**
+     * Gets the notes of several patients with one request, grouped by patient. Patients without notes are absent from the response.
+     */
+    @PostMapping("/notes-service/notes/by-patients")
+    ResponseEntity<List<PatientNotes>> getNotesByPatientIds(@RequestBody Collection<Integer> patientIds);
+
+    /**
+     * Gets the triggers present in the notes of several patients with one request, without their content. Patients without notes are absent from the response.
+     */
+    @PostMapping("/notes-service/notes/by-patients/triggers")
+    ResponseEntity<Map<Integer, TriggerSummary>> getTriggersByPatientIds(@RequestBody Collection<Integer> patientIds);
+
+    @GetMapping("/notes-service/notes/{patientId}/triggers")
+    ResponseEntity<TriggerSummary> getTriggersByPatientId(@PathVariable("patientId") int patientId,
+                                                          @RequestParam(value = "after", required = false) String after);
 }
@@ -7,6 +7,9 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Repository;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.Collection;
+import java.util.List;
+
 /**
  * This interface uses Feign Client to build requests that are sent to the patients-service module, through the gateway.
  *
@@ -18,4 +21,7 @@ public interface PatientProxy {
 
     @GetMapping("/patients-service/patients/{id}")
     ResponseEntity<Patient> getPatient(@PathVariable("id") int id);
+
+    @PostMapping("/patients-service/patients/batch")
+    ResponseEntity<List<Patient>> getPatientsByIds(@RequestBody Collection<Integer> ids);
 }
@@ -1,17 +1,31 @@
 package medilabo.risksapp.service;
 
 import feign.FeignException;
+import medilabo.risksapp.exceptions.NotesNotFoundException;
 import medilabo.risksapp.exceptions.PatientNotFoundException;
 import medilabo.risksapp.model.Patient;
+import medilabo.risksapp.model.RiskAssessment;
 import medilabo.risksapp.model.RiskLevel;
+import medilabo.risksapp.model.TriggerState;
 import medilabo.risksapp.proxy.PatientProxy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDate;
 import java.time.Period;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 /**
  * Service called by RiskController. Uses TriggerUtil and PatientsProxy to gather data needed for Risk calculation.
@@ -22,28 +36,114 @@ public class RiskService {
 
     private final PatientProxy patientProxy;
     private final TriggerUtil triggerUtil;
+    private final Executor riskExecutor;
 
-    public RiskService(PatientProxy patientProxy, TriggerUtil triggerUtil) {
+    public RiskService(PatientProxy patientProxy, TriggerUtil triggerUtil, @Qualifier("riskExecutor") Executor riskExecutor) {
         this.patientProxy = patientProxy;
         this.triggerUtil = triggerUtil;
+        this.riskExecutor = riskExecutor;
     }
 
     /**
      * Calculates the risk of diabetes type-2 for a patient based on age, gender, and the number of triggers present in their notes.
+     * Notes are fetched on riskExecutor while the patient is fetched on the calling thread, as the two calls do not depend on each other.
+     * If the patient can not be retrieved, its exception takes precedence over any exception related to notes. The notes are still awaited, so that no call to notes-service outlives the request.
      *
      * @param patientId
      * @return the RiskLevel
+     * @see #assessRisk(int)
      */
     public RiskLevel calculateRisk(int patientId) {
+        return assessRisk(patientId).getRiskLevel();
+    }
+
+    /**
+     * Calculates the risk of a patient as calculateRisk does, along with the version of the data it was calculated from.
+     * The version is made of the patient version, the trigger mask and last evaluated note of the same evaluation as the risk, and the date used for the age.
+     *
+     * @param patientId
+     * @return the RiskAssessment
+     */
+    public RiskAssessment assessRisk(int patientId) {
 
-        Patient patient = getPatientById(patientId);
+        CompletableFuture<TriggerState> triggersFuture = CompletableFuture
+                .supplyAsync(() -> triggerUtil.evaluateTriggers(patientId), riskExecutor);
+
+        Patient patient;
+        try {
+            patient = getPatientById(patientId);
+        } catch (RuntimeException e) {
+            triggersFuture.handle((triggers, notesException) -> null).join();
+            throw e;
+        }
+
+        TriggerState triggerState = join(triggersFuture);
+        LocalDate today = LocalDate.now();
+        RiskLevel riskLevel = evaluateRisk(patient, Integer.bitCount(triggerState.getTriggerMask()), today);
+        String version = patient.getVersion() + "-" + Integer.toHexString(triggerState.getTriggerMask())
+                + "-" + triggerState.getLastNoteId() + "-" + today;
+        return new RiskAssessment(riskLevel, version);
+    }
 
-        Period period = Period.between(patient.getBirthdate(), LocalDate.now());
+    /**
+     * Calculates the risk for several patients. The triggers of all the patients are counted with a single request on riskExecutor: their trigger masks in remote evaluation mode, or their notes in local evaluation mode.
+     * All the patients are fetched in a single bulk request on the calling thread meanwhile.
+     * Patients that can not be retrieved are absent from the result. Patients whose notes can not be retrieved are NOT_APPLICABLE, as for a single calculation.
+     *
+     * @param patientIds
+     * @return a Map of patient ID to RiskLevel, in the order of the given IDs
+     */
+    public Map<Integer, RiskLevel> calculateRisks(Collection<Integer> patientIds) {
+
+        Map<Integer, CompletableFuture<Integer>> triggersFutures = new LinkedHashMap<>();
+        Set<Integer> distinctIds = new LinkedHashSet<>(patientIds);
+        CompletableFuture<Map<Integer, Integer>> bulkFuture = CompletableFuture
+                .supplyAsync(() -> triggerUtil.countMatchingTriggers(distinctIds), riskExecutor);
+        for (int patientId : distinctIds) {
+            triggersFutures.put(patientId, bulkFuture.thenApply(counts -> {
+                Integer triggers = counts.get(patientId);
+                if (triggers == null) {
+                    throw new NotesNotFoundException("No notes found with patient ID " + patientId);
+                }
+                return triggers;
+            }));
+        }
+
+        Map<Integer, Patient> patients = getPatientsByIds(triggersFutures.keySet());
+
+        Map<Integer, RiskLevel> risks = new LinkedHashMap<>();
+        triggersFutures.forEach((patientId, triggersFuture) -> {
+            Patient patient = patients.get(patientId);
+            if (patient == null) {
+                logger.error("Risk could not be calculated for patient {}: patient not retrieved", patientId);
+                return;
+            }
+            RiskLevel riskLevel = triggersFuture
+                    .handle((triggers, e) -> triggers != null ? evaluateRisk(patient, triggers, LocalDate.now()) : handleBatchException(patientId, e))
+                    .join();
+            if (riskLevel != null) {
+                risks.put(patientId, riskLevel);
+            }
+        });
+        logger.info("Risk calculated for {} patients out of {}", risks.size(), triggersFutures.size());
+        return risks;
+    }
+
+    private RiskLevel handleBatchException(int patientId, Throwable e) {
+        Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+        if (cause instanceof NotesNotFoundException) {
+            return RiskLevel.NOT_APPLICABLE;
+        }
+        logger.error("Risk could not be calculated for patient {}: {}", patientId, cause.getMessage());
+        return null;
+    }
+
+    private RiskLevel evaluateRisk(Patient patient, int triggers, LocalDate today) {
+
+        Period period = Period.between(patient.getBirthdate(), today);
         int age = period.getYears();
         String gender = patient.getGender();
 
-        int triggers = triggerUtil.countMatchingTriggers(patientId);
-
         if (triggers == 0) {
             return RiskLevel.NONE;
         } else if (age > 30) {
@@ -75,6 +175,18 @@ public class RiskService {
         return RiskLevel.NONE;
     }
 
+    // Rethrows the original exception so that RiskController can map it as if the call was synchronous
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
     private Patient getPatientById(int patientId) {
         try {
             ResponseEntity<Patient> response = patientProxy.getPatient(patientId);
@@ -90,5 +202,21 @@ public class RiskService {
             throw new PatientNotFoundException("Error retrieving patient with ID " + patientId, e);
         }
     }
-}
 
+    private Map<Integer, Patient> getPatientsByIds(Collection<Integer> patientIds) {
+        Map<Integer, Patient> patients = new HashMap<>();
+        try {
+            ResponseEntity<List<Patient>> response = patientProxy.getPatientsByIds(patientIds);
+            int statusCode = response.getStatusCode().value();
+            if (statusCode == 200 && response.getBody() != null) {
+                response.getBody().forEach(patient -> patients.put(patient.getPatientId(), patient));
+                logger.info("{} patients retrieved out of {}", patients.size(), patientIds.size());
+            } else if (statusCode != 204) {
+                logger.error("Problem retrieving patients. Status code: {}", statusCode);
+            }
+        } catch (FeignException e) {
+            logger.error("Error retrieving {} patients", patientIds.size(), e);
+        }
+        return patients;
+    }
+}
@@ -0,0 +1,271 @@
+package medilabo.risksapp.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import medilabo.risksapp.model.TriggerState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * In-memory store of the trigger state of each patient, used by TriggerUtil to only evaluate notes added since the last evaluation.
+ * States are kept in an open-addressing hash table keyed by patient ID, with a short mask per patient, which is enough for the 12 triggers.
+ * The ID of the last evaluated note is an ObjectId, kept as its 4-byte timestamp and 8 remaining bytes in parallel primitive arrays, so that no object is allocated per patient.
+ * The table is saved to a binary snapshot file periodically and on shutdown, and loaded on startup. Snapshots of version 1, which stored note IDs as strings, are still read.
+ *
+ * @see TriggerUtil
+ * @see TriggerState
+ */
+@Component
+public class TriggerStateStore {
+    private final Logger logger = LoggerFactory.getLogger(TriggerStateStore.class);
+
+    private static final int SNAPSHOT_VERSION = 2;
+    private static final int STRING_ID_SNAPSHOT_VERSION = 1;
+    private static final int EMPTY = Integer.MIN_VALUE;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final Path snapshotPath;
+
+    private int[] patientIds;
+    private short[] masks;
+    private int[] lastNoteTimes;
+    private long[] lastNoteCounters;
+    private int size;
+    private boolean dirty;
+
+    public TriggerStateStore(@Value("${medilabo.risks.trigger-state.snapshot-path:}") String snapshotPath) {
+        this.snapshotPath = snapshotPath == null || snapshotPath.isBlank() ? null : Path.of(snapshotPath);
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * @param patientId
+     * @return the TriggerState of this patient, or null if no note of this patient has been evaluated yet
+     */
+    public synchronized TriggerState get(int patientId) {
+        int slot = find(patientId);
+        if (patientIds[slot] == EMPTY) {
+            return null;
+        }
+        return state(slot);
+    }
+
+    /**
+     * Folds newly evaluated notes into the state of a patient. Masks are OR-ed and the greatest note ID is kept, so that concurrent evaluations can not move the state backwards.
+     *
+     * @param patientId
+     * @param triggerMask the triggers found in the new notes
+     * @param lastNoteId  the ID of the most recent new note, as a hexadecimal ObjectId
+     * @return the updated TriggerState
+     */
+    public synchronized TriggerState merge(int patientId, int triggerMask, String lastNoteId) {
+        if (patientId == EMPTY) {
+            throw new IllegalArgumentException("Unsupported patient ID: " + patientId);
+        }
+        if (!isObjectId(lastNoteId)) {
+            throw new IllegalArgumentException("Unsupported note ID: " + lastNoteId);
+        }
+        int time = Integer.parseUnsignedInt(lastNoteId, 0, 8, 16);
+        long counter = Long.parseUnsignedLong(lastNoteId, 8, 24, 16);
+        int slot = find(patientId);
+        if (patientIds[slot] == EMPTY) {
+            if ((size + 1) * 4 > patientIds.length * 3) {
+                resize();
+                slot = find(patientId);
+            }
+            patientIds[slot] = patientId;
+            lastNoteTimes[slot] = time;
+            lastNoteCounters[slot] = counter;
+            size++;
+        }
+        masks[slot] = (short) (masks[slot] | triggerMask);
+        int comparison = Integer.compareUnsigned(time, lastNoteTimes[slot]);
+        if (comparison > 0 || (comparison == 0 && Long.compareUnsigned(counter, lastNoteCounters[slot]) > 0)) {
+            lastNoteTimes[slot] = time;
+            lastNoteCounters[slot] = counter;
+        }
+        dirty = true;
+        return state(slot);
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    @PostConstruct
+    public void loadSnapshot() {
+        if (snapshotPath == null || !Files.exists(snapshotPath)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotPath)))) {
+            read(in);
+            logger.info("Trigger state loaded for {} patients", size);
+        } catch (IOException e) {
+            logger.error("Trigger state snapshot could not be read, starting empty", e);
+            synchronized (this) {
+                allocate(INITIAL_CAPACITY);
+            }
+        }
+    }
+
+    /**
+     * Writes the snapshot if the state changed since the last one. The states are serialized in memory, written next to the snapshot and then moved, so that a crash can not leave a partial snapshot.
+     */
+    @Scheduled(fixedDelayString = "${medilabo.risks.trigger-state.snapshot-interval-ms:60000}")
+    @PreDestroy
+    public void saveSnapshot() {
+        if (snapshotPath == null) {
+            return;
+        }
+        try {
+            Path absolutePath = snapshotPath.toAbsolutePath();
+            Files.createDirectories(absolutePath.getParent());
+            ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+            if (!write(snapshot)) {
+                return;
+            }
+            Path tempPath = absolutePath.resolveSibling(absolutePath.getFileName() + ".tmp");
+            Files.write(tempPath, snapshot.toByteArray());
+            Files.move(tempPath, absolutePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.debug("Trigger state saved to {}", absolutePath);
+        } catch (IOException e) {
+            logger.error("Trigger state snapshot could not be written", e);
+            synchronized (this) {
+                dirty = true;
+            }
+        }
+    }
+
+    /**
+     * Writes the states if they changed since the last call.
+     *
+     * @param output
+     * @return true if the states were written
+     * @throws IOException
+     */
+    synchronized boolean write(OutputStream output) throws IOException {
+        if (!dirty) {
+            return false;
+        }
+        DataOutputStream out = new DataOutputStream(output);
+        out.writeInt(SNAPSHOT_VERSION);
+        out.writeInt(size);
+        for (int slot = 0; slot < patientIds.length; slot++) {
+            if (patientIds[slot] != EMPTY) {
+                out.writeInt(patientIds[slot]);
+                out.writeShort(masks[slot]);
+                out.writeInt(lastNoteTimes[slot]);
+                out.writeLong(lastNoteCounters[slot]);
+            }
+        }
+        out.flush();
+        dirty = false;
+        return true;
+    }
+
+    synchronized void read(InputStream input) throws IOException {
+        DataInputStream in = new DataInputStream(input);
+        int version = in.readInt();
+        if (version != SNAPSHOT_VERSION && version != STRING_ID_SNAPSHOT_VERSION) {
+            throw new IOException("Unsupported trigger state snapshot version: " + version);
+        }
+        int count = in.readInt();
+        allocate(Math.max(INITIAL_CAPACITY, Integer.highestOneBit(Math.max(1, count * 2)) << 1));
+        for (int i = 0; i < count; i++) {
+            int patientId = in.readInt();
+            short mask = in.readShort();
+            int time;
+            long counter;
+            if (version == STRING_ID_SNAPSHOT_VERSION) {
+                String lastNoteId = in.readUTF();
+                if (!isObjectId(lastNoteId)) {
+                    // Without a valid watermark, the notes of this patient are evaluated again from the start
+                    continue;
+                }
+                time = Integer.parseUnsignedInt(lastNoteId, 0, 8, 16);
+                counter = Long.parseUnsignedLong(lastNoteId, 8, 24, 16);
+            } else {
+                time = in.readInt();
+                counter = in.readLong();
+            }
+            int slot = find(patientId);
+            if (patientIds[slot] == EMPTY) {
+                size++;
+            }
+            patientIds[slot] = patientId;
+            masks[slot] = mask;
+            lastNoteTimes[slot] = time;
+            lastNoteCounters[slot] = counter;
+        }
+        // A converted snapshot is written again in the current version
+        dirty = version != SNAPSHOT_VERSION;
+    }
+
+    private TriggerState state(int slot) {
+        return new TriggerState(masks[slot] & 0xFFFF, String.format("%08x%016x", lastNoteTimes[slot], lastNoteCounters[slot]));
+    }
+
+    private static boolean isObjectId(String noteId) {
+        if (noteId == null || noteId.length() != 24) {
+            return false;
+        }
+        for (int i = 0; i < noteId.length(); i++) {
+            if (Character.digit(noteId.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int find(int patientId) {
+        int mask = patientIds.length - 1;
+        int hash = patientId * 0x9E3779B9;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (patientIds[slot] != EMPTY && patientIds[slot] != patientId) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void resize() {
+        int[] oldPatientIds = patientIds;
+        short[] oldMasks = masks;
+        int[] oldLastNoteTimes = lastNoteTimes;
+        long[] oldLastNoteCounters = lastNoteCounters;
+        allocate(oldPatientIds.length * 2);
+        for (int i = 0; i < oldPatientIds.length; i++) {
+            if (oldPatientIds[i] != EMPTY) {
+                int slot = find(oldPatientIds[i]);
+                patientIds[slot] = oldPatientIds[i];
+                masks[slot] = oldMasks[i];
+                lastNoteTimes[slot] = oldLastNoteTimes[i];
+                lastNoteCounters[slot] = oldLastNoteCounters[i];
+                size++;
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        patientIds = new int[capacity];
+        Arrays.fill(patientIds, EMPTY);
+        masks = new short[capacity];
+        lastNoteTimes = new int[capacity];
+        lastNoteCounters = new long[capacity];
+        size = 0;
+    }
+}
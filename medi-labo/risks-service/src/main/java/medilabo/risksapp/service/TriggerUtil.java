@@ -3,66 +3,260 @@ package medilabo.risksapp.service;
 import feign.FeignException;
 import medilabo.risksapp.exceptions.NotesNotFoundException;
 import medilabo.risksapp.model.Note;
-import medilabo.risksapp.model.Triggers;
+import medilabo.risksapp.model.PatientNotes;
+import medilabo.risksapp.model.TriggerState;
+import medilabo.risksapp.model.TriggerSummary;
 import medilabo.risksapp.proxy.NoteProxy;
+import medilabo.triggers.TriggerMatcher;
+import medilabo.triggers.Triggers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Utility service that calculates triggers on Notes. Its method is used in RiskService class.
  *
  * @see RiskService
- * @see Triggers
+ * @see medilabo.triggers.Triggers
+ * @see medilabo.triggers.TriggerMatcher
+ * @see TriggerStateStore
  */
 @Service
 public class TriggerUtil {
     private final Logger logger = LoggerFactory.getLogger(TriggerUtil.class);
 
+    private static final TriggerMatcher triggerMatcher = new TriggerMatcher(Triggers.getTriggers());
+
     private final NoteProxy noteProxy;
+    private final TriggerStateStore triggerStateStore;
+    private final boolean remoteEvaluation;
+    private final int notesPageSize;
+    private final long watermarkOverlapSeconds;
 
-    public TriggerUtil(NoteProxy noteProxy) {
+    public TriggerUtil(NoteProxy noteProxy, TriggerStateStore triggerStateStore,
+                       @Value("${medilabo.risks.trigger-evaluation}") String triggerEvaluation,
+                       @Value("${medilabo.risks.notes.page-size}") int notesPageSize,
+                       @Value("${medilabo.risks.trigger-state.watermark-overlap}") Duration watermarkOverlap) {
         this.noteProxy = noteProxy;
+        this.triggerStateStore = triggerStateStore;
+        this.remoteEvaluation = "remote".equalsIgnoreCase(triggerEvaluation);
+        this.notesPageSize = notesPageSize;
+        this.watermarkOverlapSeconds = watermarkOverlap.toSeconds();
+        logger.debug("Trigger evaluation mode: {}", remoteEvaluation ? "remote" : "local");
     }
 
     /**
      * Uses private method to recover a list of Notes from a patient ID, then counts the number of triggers that are present in the notes. The number of occurrences for each trigger is not relevant.
+     * Each note is scanned separately by the TriggerMatcher, so a trigger can not be matched across two notes.
+     * In remote mode, the evaluation is delegated to notes-service and only the resulting count is received.
+     * The triggers already found for the patient are kept in TriggerStateStore, so only notes newer than the last evaluated note, minus the watermark overlap, are scanned, and their triggers are folded into the stored mask.
+     * In local mode, notes are received by pages, newest first, so no more page is requested once an already evaluated note is reached or once every trigger is found.
      * If Exceptions are thrown, they are handled down the line in RiskController.
      *
      * @param patientId
      * @return numTrigger - can be 0
+     * @see #evaluateTriggers(int)
      */
     public int countMatchingTriggers(int patientId) {
+        return Integer.bitCount(evaluateTriggers(patientId).getTriggerMask());
+    }
+
+    /**
+     * Evaluates the triggers of a patient as countMatchingTriggers does, but returns the resulting state rather than its count.
+     * The state identifies the notes the triggers were found in, so RiskService can derive a validator from the same evaluation as the risk.
+     *
+     * @param patientId
+     * @return the TriggerState after the evaluation. Its lastNoteId is null if no note of this patient has an ID.
+     */
+    public TriggerState evaluateTriggers(int patientId) {
+
+        TriggerState state = triggerStateStore.get(patientId);
+        String lastEvaluatedId = state == null ? null : state.getLastNoteId();
+        String after = overlap(lastEvaluatedId);
+        int knownTriggers = state == null ? 0 : state.getTriggerMask();
+
+        int newTriggers;
+        String lastNoteId;
+        if (remoteEvaluation) {
+            TriggerSummary triggerSummary = getTriggersByPatientId(patientId, after);
+            newTriggers = triggerSummary.getTriggerMask();
+            lastNoteId = triggerSummary.getLastNoteId();
+        } else {
+            LocalScan scan = new LocalScan(after, lastEvaluatedId, knownTriggers);
+            String cursor = null;
+            do {
+                ResponseEntity<List<Note>> response = getNotesByPatientId(patientId, cursor);
+                scan.scan(response.getBody() == null ? List.of() : response.getBody());
+                cursor = response.getHeaders().getFirst(NoteProxy.NEXT_CURSOR_HEADER);
+            } while (!scan.done && cursor != null);
+            newTriggers = scan.newTriggers;
+            lastNoteId = scan.lastNoteId;
+        }
+
+        return store(patientId, knownTriggers, newTriggers, lastNoteId);
+    }
+
+    /**
+     * Counts the triggers of several patients with a single request.
+     * In remote mode, notes-service OR-reduces the trigger masks of the notes of each patient, and only the masks are received. They are folded into the stored state of each patient.
+     * In local mode, the notes of all the patients are downloaded and scanned here, and only notes newer than the stored state of each patient, minus the watermark overlap, are scanned.
+     *
+     * @param patientIds
+     * @return a Map of patient ID to numTrigger. Patients without notes are absent.
+     * @throws NotesNotFoundException if the triggers or the notes can not be retrieved
+     */
+    public Map<Integer, Integer> countMatchingTriggers(Collection<Integer> patientIds) {
+        Map<Integer, Integer> counts = new HashMap<>();
+        if (remoteEvaluation) {
+            getTriggersByPatientIds(patientIds).forEach((patientId, triggerSummary) -> {
+                TriggerState state = triggerStateStore.get(patientId);
+                int knownTriggers = state == null ? 0 : state.getTriggerMask();
+                counts.put(patientId, Integer.bitCount(store(patientId, knownTriggers, triggerSummary.getTriggerMask(), triggerSummary.getLastNoteId()).getTriggerMask()));
+            });
+            return counts;
+        }
+        for (PatientNotes patientNotes : getNotesByPatientIds(patientIds)) {
+            int patientId = patientNotes.getPatientId();
+            TriggerState state = triggerStateStore.get(patientId);
+            int knownTriggers = state == null ? 0 : state.getTriggerMask();
+            String lastEvaluatedId = state == null ? null : state.getLastNoteId();
+            LocalScan scan = new LocalScan(overlap(lastEvaluatedId), lastEvaluatedId, knownTriggers);
+            scan.scan(patientNotes.getNotes() == null ? List.of() : patientNotes.getNotes());
+            counts.put(patientId, Integer.bitCount(store(patientId, knownTriggers, scan.newTriggers, scan.lastNoteId).getTriggerMask()));
+        }
+        return counts;
+    }
+
+    private TriggerState store(int patientId, int knownTriggers, int newTriggers, String lastNoteId) {
+        // Notes without ID can not be used as watermark, so nothing is stored for them
+        if (lastNoteId == null) {
+            return new TriggerState(knownTriggers | newTriggers, null);
+        }
+        return triggerStateStore.merge(patientId, newTriggers, lastNoteId);
+    }
+
+    /**
+     * Scan of the notes of a patient received newest first. It is done once a note already evaluated is reached, or once every trigger is found, since the newest note, which is the watermark, has then been seen.
+     */
+    private static class LocalScan {
+
+        private final String after;
+        private final int knownTriggers;
+        private int newTriggers;
+        private String lastNoteId;
+        private boolean done;
+
+        private LocalScan(String after, String lastEvaluatedId, int knownTriggers) {
+            this.after = after;
+            this.knownTriggers = knownTriggers;
+            this.lastNoteId = lastEvaluatedId;
+        }
+
+        private void scan(List<Note> notes) {
+            for (Note note : notes) {
+                if (!isAfter(note.getId(), after)) {
+                    done = true;
+                    return;
+                }
+                if (note.getId() != null && (lastNoteId == null || note.getId().compareTo(lastNoteId) > 0)) {
+                    lastNoteId = note.getId();
+                }
+                if (!triggerMatcher.isComplete(knownTriggers | newTriggers)) {
+                    newTriggers |= triggerMatcher.match(note.getContent());
+                }
+            }
+            done |= triggerMatcher.isComplete(knownTriggers | newTriggers);
+        }
+    }
 
-        int numTriggers = 0;
-        List<Note> notes = getNotesByPatientId(patientId);
+    /**
+     * Note IDs are MongoDB ObjectIds, whose hexadecimal form starts with the creation timestamp, so they can be compared as strings.
+     */
+    private static boolean isAfter(String noteId, String after) {
+        return after == null || noteId == null || noteId.compareTo(after) > 0;
+    }
 
-        //Concatenate all patient notes to search for each trigger only once
-        StringBuilder allNotes = new StringBuilder();
-        for (Note note : notes) {
-            String content = note.getContent().toLowerCase();
-            allNotes.append(content);
+    /**
+     * ObjectIds are only ordered by their timestamp, in seconds. Within a second, or with clocks that differ between notes-service instances, a note can be inserted with a lower ID than the last evaluated note.
+     * Notes are therefore evaluated again from the start of the second of the watermark, minus the overlap. Evaluating a note twice is harmless, since its triggers are OR-ed into the mask.
+     *
+     * @param lastNoteId the ID of the last evaluated note
+     * @return the lowest ObjectId of the overlap window, or null if every note must be evaluated
+     */
+    private String overlap(String lastNoteId) {
+        if (lastNoteId == null || lastNoteId.length() != 24) {
+            return lastNoteId;
         }
+        long seconds = Long.parseLong(lastNoteId.substring(0, 8), 16) - watermarkOverlapSeconds;
+        return seconds <= 0 ? null : String.format("%08x%016x", seconds, 0);
+    }
 
-        for (String trigger : Triggers.getTriggers()) {
-            if (allNotes.toString().contains(trigger.toLowerCase())) {
-                numTriggers++;
+    private TriggerSummary getTriggersByPatientId(int patientId, String after) {
+        try {
+            ResponseEntity<TriggerSummary> response = noteProxy.getTriggersByPatientId(patientId, after);
+            TriggerSummary triggerSummary = response.getBody();
+            int statusCode = response.getStatusCode().value();
+            if (statusCode == 200 && triggerSummary != null) {
+                logger.info("Triggers retrieved successfully");
+                return triggerSummary;
             }
+            logger.error("Problem occurred retrieving triggers. StatusCode: {}", statusCode);
+            throw new NotesNotFoundException("Error retrieving triggers with patient ID " + patientId + ". Status code: " + statusCode);
+        } catch (FeignException e) {
+            throw new NotesNotFoundException("Error retrieving triggers with patient ID " + patientId, e);
         }
-        return numTriggers;
     }
 
-    private List<Note> getNotesByPatientId(int patientId) {
+    private Map<Integer, TriggerSummary> getTriggersByPatientIds(Collection<Integer> patientIds) {
+        try {
+            ResponseEntity<Map<Integer, TriggerSummary>> response = noteProxy.getTriggersByPatientIds(patientIds);
+            Map<Integer, TriggerSummary> triggerSummaries = response.getBody();
+            int statusCode = response.getStatusCode().value();
+            if (statusCode == 200 && triggerSummaries != null) {
+                logger.info("Triggers of {} patients retrieved successfully", triggerSummaries.size());
+                return triggerSummaries;
+            }
+            logger.error("Problem occurred retrieving triggers of several patients. StatusCode: {}", statusCode);
+            throw new NotesNotFoundException("Error retrieving triggers of " + patientIds.size() + " patients. Status code: " + statusCode);
+        } catch (FeignException e) {
+            throw new NotesNotFoundException("Error retrieving triggers of " + patientIds.size() + " patients", e);
+        }
+    }
+
+    private List<PatientNotes> getNotesByPatientIds(Collection<Integer> patientIds) {
+        try {
+            ResponseEntity<List<PatientNotes>> response = noteProxy.getNotesByPatientIds(patientIds);
+            List<PatientNotes> patientNotes = response.getBody();
+            int statusCode = response.getStatusCode().value();
+            if (statusCode == 200 && patientNotes != null) {
+                logger.info("Notes of {} patients retrieved successfully", patientNotes.size());
+                return patientNotes;
+            }
+            logger.error("Problem occurred retrieving notes of several patients. StatusCode: {}", statusCode);
+            throw new NotesNotFoundException("Error retrieving notes of " + patientIds.size() + " patients. Status code: " + statusCode);
+        } catch (FeignException e) {
+            throw new NotesNotFoundException("Error retrieving notes of " + patientIds.size() + " patients", e);
+        }
+    }
+
+    /**
+     * Gets a page of notes. A patient without notes is an error, but an empty page after the first one only means that there are no more notes.
+     */
+    private ResponseEntity<List<Note>> getNotesByPatientId(int patientId, String cursor) {
         try {
-            ResponseEntity<List<Note>> response = noteProxy.getNotesByPatientId(patientId);
-            List<Note> notes = response.getBody();
+            ResponseEntity<List<Note>> response = noteProxy.getNotesByPatientId(patientId, notesPageSize, cursor);
             int statusCode = response.getStatusCode().value();
-            if (statusCode == 200 && notes != null) {
+            if ((statusCode == 200 && response.getBody() != null) || (statusCode == 204 && cursor != null)) {
                 logger.info("Notes retrieved successfully");
-                return notes;
+                return response;
             }
             logger.error("Problem occurred retrieving notes. StatusCode: {}", statusCode);
             throw new NotesNotFoundException("Error retrieving notes with patient ID " + patientId + ". Status code: " + statusCode);
@@ -0,0 +1,131 @@
+package medilabo.risksapp;
+
+import feign.FeignException;
+import medilabo.risksapp.exceptions.NotesNotFoundException;
+import medilabo.risksapp.model.TriggerSummary;
+import medilabo.risksapp.proxy.NoteProxy;
+import medilabo.risksapp.service.TriggerUtil;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@SpringBootTest(properties = "medilabo.risks.trigger-evaluation=remote")
+@ActiveProfiles("test")
+public class RemoteTriggerUtilTest {
+
+    @MockitoBean
+    private NoteProxy noteProxy;
+
+    @Autowired
+    private TriggerUtil triggerUtil;
+
+    @Test
+    public void countMatchingTriggers_shouldReturnRemoteCount() {
+
+        TriggerSummary triggerSummary = new TriggerSummary();
+        triggerSummary.setTriggerMask(0b111);
+        triggerSummary.setTriggerCount(3);
+        when(noteProxy.getTriggersByPatientId(anyInt(), any()))
+                .thenReturn(new ResponseEntity<>(triggerSummary, HttpStatus.OK));
+
+        int result = triggerUtil.countMatchingTriggers(1);
+
+        assertEquals(3, result);
+        verify(noteProxy).getTriggersByPatientId(anyInt(), any());
+        verify(noteProxy, never()).getNotesByPatientId(anyInt(), anyInt(), any());
+    }
+
+    @Test
+    public void countMatchingTriggers_withKnownState_shouldOnlyRequestNotesFromOverlapWindow() {
+
+        TriggerSummary firstSummary = new TriggerSummary();
+        firstSummary.setTriggerMask(0b011);
+        firstSummary.setLastNoteId("665f1a2b0000000000000001");
+        TriggerSummary secondSummary = new TriggerSummary();
+        secondSummary.setTriggerMask(0b100);
+        secondSummary.setLastNoteId("665f1a2b0000000000000002");
+        when(noteProxy.getTriggersByPatientId(eq(101), isNull()))
+                .thenReturn(new ResponseEntity<>(firstSummary, HttpStatus.OK));
+        when(noteProxy.getTriggersByPatientId(101, "665f1a260000000000000000"))
+                .thenReturn(new ResponseEntity<>(secondSummary, HttpStatus.OK));
+
+        int firstResult = triggerUtil.countMatchingTriggers(101);
+        int secondResult = triggerUtil.countMatchingTriggers(101);
+
+        assertEquals(2, firstResult);
+        assertEquals(3, secondResult);
+        verify(noteProxy).getTriggersByPatientId(101, "665f1a260000000000000000");
+    }
+
+    @Test
+    public void countMatchingTriggers_withNoContent_shouldThrow() {
+
+        when(noteProxy.getTriggersByPatientId(anyInt(), any()))
+                .thenReturn(new ResponseEntity<>(HttpStatus.NO_CONTENT));
+
+        assertThrows(NotesNotFoundException.class, () -> triggerUtil.countMatchingTriggers(1));
+        verify(noteProxy).getTriggersByPatientId(anyInt(), any());
+    }
+
+    @Test
+    public void countMatchingTriggers_withException_shouldThrow() {
+
+        when(noteProxy.getTriggersByPatientId(anyInt(), any()))
+                .thenThrow(new TestFeignException());
+
+        assertThrows(NotesNotFoundException.class, () -> triggerUtil.countMatchingTriggers(1));
+        verify(noteProxy).getTriggersByPatientId(anyInt(), any());
+    }
+
+    @Test
+    public void countMatchingTriggers_withSeveralPatients_shouldRequestTriggersOnceWithoutNotes() {
+
+        TriggerSummary firstSummary = new TriggerSummary();
+        firstSummary.setTriggerMask(0b011);
+        firstSummary.setLastNoteId("665f1a2b0000000000000001");
+        TriggerSummary secondSummary = new TriggerSummary();
+        secondSummary.setTriggerMask(0b1);
+        when(noteProxy.getTriggersByPatientIds(anyCollection()))
+                .thenReturn(new ResponseEntity<>(Map.of(201, firstSummary, 202, secondSummary), HttpStatus.OK));
+
+        Map<Integer, Integer> result = triggerUtil.countMatchingTriggers(List.of(201, 202, 203));
+
+        assertEquals(Map.of(201, 2, 202, 1), result);
+        verify(noteProxy).getTriggersByPatientIds(List.of(201, 202, 203));
+        verify(noteProxy, never()).getNotesByPatientIds(anyCollection());
+        verify(noteProxy, never()).getTriggersByPatientId(anyInt(), any());
+    }
+
+    @Test
+    public void countMatchingTriggers_withSeveralPatientsAndException_shouldThrow() {
+
+        when(noteProxy.getTriggersByPatientIds(anyCollection()))
+                .thenThrow(new TestFeignException());
+
+        assertThrows(NotesNotFoundException.class, () -> triggerUtil.countMatchingTriggers(List.of(1, 2)));
+    }
+
+    private static class TestFeignException extends FeignException {
+        protected TestFeignException() {
+            super(500, "message");
+        }
+    }
+}
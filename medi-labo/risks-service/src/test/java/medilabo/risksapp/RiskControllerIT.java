@@ -26,6 +26,7 @@ import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -68,7 +69,7 @@ public class RiskControllerIT {
 
         when(patientProxy.getPatient(anyInt()))
                 .thenReturn(new ResponseEntity<>(patient, HttpStatus.OK));
-        when(noteProxy.getNotesByPatientId(anyInt()))
+        when(noteProxy.getNotesByPatientId(anyInt(), anyInt(), any()))
                 .thenReturn(new ResponseEntity<>(notes, HttpStatus.OK));
 
         MvcResult result = mockMvc
@@ -80,7 +81,7 @@ public class RiskControllerIT {
 
         assertEquals(RiskLevel.BORDERLINE.toString(), resultContent);
         verify(patientProxy).getPatient(anyInt());
-        verify(noteProxy).getNotesByPatientId(anyInt());
+        verify(noteProxy).getNotesByPatientId(anyInt(), anyInt(), any());
     }
 
     @Test
@@ -89,7 +90,7 @@ public class RiskControllerIT {
 
         when(patientProxy.getPatient(anyInt()))
                 .thenReturn(new ResponseEntity<>(patient, HttpStatus.OK));
-        when(noteProxy.getNotesByPatientId(anyInt()))
+        when(noteProxy.getNotesByPatientId(anyInt(), anyInt(), any()))
                 .thenReturn(new ResponseEntity<>(HttpStatus.NO_CONTENT));
 
         MvcResult result = mockMvc
@@ -101,7 +102,7 @@ public class RiskControllerIT {
 
         assertEquals(RiskLevel.NOT_APPLICABLE.toString(), resultContent);
         verify(patientProxy).getPatient(anyInt());
-        verify(noteProxy).getNotesByPatientId(anyInt());
+        verify(noteProxy).getNotesByPatientId(anyInt(), anyInt(), any());
     }
 
     @Test
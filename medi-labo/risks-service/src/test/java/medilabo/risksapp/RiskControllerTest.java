@@ -4,24 +4,32 @@ import medilabo.risksapp.config.SecurityConfig;
 import medilabo.risksapp.controller.RiskController;
 import medilabo.risksapp.exceptions.NotesNotFoundException;
 import medilabo.risksapp.exceptions.PatientNotFoundException;
+import medilabo.risksapp.model.RiskAssessment;
 import medilabo.risksapp.model.RiskLevel;
 import medilabo.risksapp.service.RiskService;
+import medilabo.security.ServiceToken;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.context.annotation.Import;
+import org.springframework.http.MediaType;
 import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 
+import java.time.Duration;
+import java.util.Map;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyCollection;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @WebMvcTest(RiskController.class)
@@ -32,14 +40,36 @@ public class RiskControllerTest {
     @Autowired
     private MockMvc mockMvc;
 
+    @Autowired
+    private ServiceToken serviceToken;
+
     @MockitoBean
     private RiskService riskService;
 
+    @Test
+    public void getRiskLevelByPatientId_withServiceToken_shouldReturnOk() throws Exception {
+
+        when(riskService.assessRisk(anyInt())).thenReturn(new RiskAssessment(RiskLevel.NONE, "1-0-null-2026-01-01"));
+        String token = serviceToken.issue("user", Duration.ofMinutes(5));
+
+        mockMvc.perform(get("/risks/1").header("Authorization", "Bearer " + token))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    public void getRiskLevelByPatientId_withForgedServiceToken_shouldReturnUnauthorized() throws Exception {
+
+        String token = new ServiceToken("another-secret").issue("user", Duration.ofMinutes(5));
+
+        mockMvc.perform(get("/risks/1").header("Authorization", "Bearer " + token))
+                .andExpect(status().isUnauthorized());
+    }
+
     @Test
     @WithMockUser
     public void getRiskLevelByPatientId_shouldReturnRiskAndOk() throws Exception {
 
-        when(riskService.calculateRisk(anyInt())).thenReturn(RiskLevel.NONE);
+        when(riskService.assessRisk(anyInt())).thenReturn(new RiskAssessment(RiskLevel.NONE, "1-0-null-2026-01-01"));
 
         MvcResult result = mockMvc
                 .perform(get("/risks/1"))
@@ -49,14 +79,63 @@ public class RiskControllerTest {
         String resultContent = result.getResponse().getContentAsString();
 
         assertEquals(RiskLevel.NONE.toString(), resultContent);
-        verify(riskService).calculateRisk(anyInt());
+        verify(riskService).assessRisk(anyInt());
+    }
+
+    @Test
+    @WithMockUser
+    public void getRiskLevelByPatientId_shouldReturnETagFromRiskVersion() throws Exception {
+
+        when(riskService.assessRisk(anyInt()))
+                .thenReturn(new RiskAssessment(RiskLevel.BORDERLINE, "3-7-65a000000000000000000001-2026-01-01"));
+
+        mockMvc.perform(get("/risks/1"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"risk-1-3-7-65a000000000000000000001-2026-01-01\""));
+    }
+
+    @Test
+    @WithMockUser
+    public void getRiskLevelByPatientId_withMatchingIfNoneMatch_shouldReturnNotModified() throws Exception {
+
+        when(riskService.assessRisk(anyInt())).thenReturn(new RiskAssessment(RiskLevel.NONE, "1-0-null-2026-01-01"));
+
+        MvcResult result = mockMvc
+                .perform(get("/risks/1").header("If-None-Match", "\"risk-1-1-0-null-2026-01-01\""))
+                .andExpect(status().isNotModified())
+                .andReturn();
+
+        assertTrue(result.getResponse().getContentAsString().isEmpty());
+        verify(riskService).assessRisk(1);
+    }
+
+    @Test
+    @WithMockUser
+    public void getRiskLevelByPatientId_withOutdatedIfNoneMatch_shouldReturnRiskAndOk() throws Exception {
+
+        when(riskService.assessRisk(anyInt())).thenReturn(new RiskAssessment(RiskLevel.NONE, "2-0-null-2026-01-01"));
+
+        mockMvc.perform(get("/risks/1").header("If-None-Match", "\"risk-1-1-0-null-2026-01-01\""))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"risk-1-2-0-null-2026-01-01\""));
+    }
+
+    @Test
+    @WithMockUser
+    public void getRiskLevelByPatientId_withNotesException_shouldReturnNAWithoutETag() throws Exception {
+
+        when(riskService.assessRisk(anyInt())).thenThrow(new NotesNotFoundException());
+
+        mockMvc.perform(get("/risks/1").header("If-None-Match", "\"risk-1-1-0-null-2026-01-01\""))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist("ETag"));
     }
 
     @Test
     @WithMockUser
     public void getRiskLevelByPatientId_withNotesException_shouldReturnNAAndOk() throws Exception {
 
-        when(riskService.calculateRisk(anyInt())).thenThrow(new NotesNotFoundException());
+        when(riskService.assessRisk(anyInt())).thenThrow(new NotesNotFoundException());
 
         MvcResult result = mockMvc
                 .perform(get("/risks/1"))
@@ -66,14 +145,14 @@ public class RiskControllerTest {
         String resultContent = result.getResponse().getContentAsString();
 
         assertEquals(RiskLevel.NOT_APPLICABLE.toString(), resultContent);
-        verify(riskService).calculateRisk(anyInt());
+        verify(riskService).assessRisk(anyInt());
     }
 
     @Test
     @WithMockUser
     public void getRiskLevelByPatientId_withPatientException_shouldReturnNotFound() throws Exception {
 
-        when(riskService.calculateRisk(anyInt())).thenThrow(new PatientNotFoundException());
+        when(riskService.assessRisk(anyInt())).thenThrow(new PatientNotFoundException());
 
         MvcResult result = mockMvc
                 .perform(get("/risks/1"))
@@ -83,14 +162,14 @@ public class RiskControllerTest {
         String resultContent = result.getResponse().getContentAsString();
 
         assertTrue(resultContent.isEmpty());
-        verify(riskService).calculateRisk(anyInt());
+        verify(riskService).assessRisk(anyInt());
     }
 
     @Test
     @WithMockUser
     public void getRiskLevelByPatientId_withException_shouldReturnServerError() throws Exception {
 
-        when(riskService.calculateRisk(anyInt())).thenThrow(new RuntimeException());
+        when(riskService.assessRisk(anyInt())).thenThrow(new RuntimeException());
 
         MvcResult result = mockMvc
                 .perform(get("/risks/1"))
@@ -100,7 +179,45 @@ public class RiskControllerTest {
         String resultContent = result.getResponse().getContentAsString();
 
         assertTrue(resultContent.isEmpty());
-        verify(riskService).calculateRisk(anyInt());
+        verify(riskService).assessRisk(anyInt());
     }
 
+    @Test
+    @WithMockUser
+    public void getRiskLevelsByPatientIds_shouldReturnRisksAndOk() throws Exception {
+
+        when(riskService.calculateRisks(anyCollection()))
+                .thenReturn(Map.of(1, RiskLevel.NONE, 2, RiskLevel.BORDERLINE));
+
+        MvcResult result = mockMvc
+                .perform(post("/risks/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[1, 2, 3]"))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        String resultContent = result.getResponse().getContentAsString();
+
+        assertTrue(resultContent.contains("\"2\":\"BORDERLINE\""));
+        verify(riskService).calculateRisks(anyCollection());
+    }
+
+    @Test
+    @WithMockUser
+    public void getRiskLevelsByPatientIds_withException_shouldReturnServerError() throws Exception {
+
+        when(riskService.calculateRisks(anyCollection())).thenThrow(new RuntimeException());
+
+        MvcResult result = mockMvc
+                .perform(post("/risks/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[1, 2, 3]"))
+                .andExpect(status().isInternalServerError())
+                .andReturn();
+
+        String resultContent = result.getResponse().getContentAsString();
+
+        assertTrue(resultContent.isEmpty());
+        verify(riskService).calculateRisks(anyCollection());
+    }
 }
@@ -1,9 +1,12 @@
 package medilabo.risksapp;
 
 import feign.FeignException;
+import medilabo.risksapp.exceptions.NotesNotFoundException;
 import medilabo.risksapp.exceptions.PatientNotFoundException;
 import medilabo.risksapp.model.Patient;
+import medilabo.risksapp.model.RiskAssessment;
 import medilabo.risksapp.model.RiskLevel;
+import medilabo.risksapp.model.TriggerState;
 import medilabo.risksapp.proxy.PatientProxy;
 import medilabo.risksapp.service.RiskService;
 import medilabo.risksapp.service.TriggerUtil;
@@ -20,11 +23,17 @@ import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 
 import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyCollection;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -59,13 +68,13 @@ public class RiskServiceTest {
         when(patientProxy.getPatient(anyInt()))
                 .thenReturn(new ResponseEntity<>(patient, HttpStatus.OK));
 
-        when(triggerUtil.countMatchingTriggers(anyInt())).thenReturn(triggers);
+        when(triggerUtil.evaluateTriggers(anyInt())).thenReturn(new TriggerState((1 << triggers) - 1, null));
 
         RiskLevel result = riskService.calculateRisk(1);
 
         assertEquals(expectedRiskLevel, result);
         verify(patientProxy).getPatient(anyInt());
-        verify(triggerUtil).countMatchingTriggers(anyInt());
+        verify(triggerUtil).evaluateTriggers(anyInt());
     }
 
     @Test
@@ -76,6 +85,7 @@ public class RiskServiceTest {
 
         assertThrows(PatientNotFoundException.class, ()->riskService.calculateRisk(1));
         verify(patientProxy).getPatient(anyInt());
+        verify(triggerUtil).evaluateTriggers(anyInt());
     }
 
     @Test
@@ -85,6 +95,105 @@ public class RiskServiceTest {
 
         assertThrows(PatientNotFoundException.class, ()->riskService.calculateRisk(1));
         verify(patientProxy).getPatient(anyInt());
+        verify(triggerUtil).evaluateTriggers(anyInt());
+    }
+
+    @Test
+    public void calculateRisk_withNotesException_shouldThrowNotesException() {
+
+        patient.setBirthdate(LocalDate.now().minusYears(40));
+        patient.setGender("F");
+        when(patientProxy.getPatient(anyInt()))
+                .thenReturn(new ResponseEntity<>(patient, HttpStatus.OK));
+        when(triggerUtil.evaluateTriggers(anyInt())).thenThrow(new NotesNotFoundException());
+
+        assertThrows(NotesNotFoundException.class, ()->riskService.calculateRisk(1));
+        verify(patientProxy).getPatient(anyInt());
+        verify(triggerUtil).evaluateTriggers(anyInt());
+    }
+
+    @Test
+    public void calculateRisk_withPatientAndNotesExceptions_shouldThrowPatientException() {
+
+        when(patientProxy.getPatient(anyInt()))
+                .thenReturn(new ResponseEntity<>(HttpStatus.NOT_FOUND));
+        when(triggerUtil.evaluateTriggers(anyInt())).thenThrow(new NotesNotFoundException());
+
+        assertThrows(PatientNotFoundException.class, ()->riskService.calculateRisk(1));
+        verify(patientProxy).getPatient(anyInt());
+        verify(triggerUtil).evaluateTriggers(anyInt());
+    }
+
+    @Test
+    public void assessRisk_shouldReturnVersionOfPatientAndTriggerState() {
+
+        patient.setBirthdate(LocalDate.now().minusYears(40));
+        patient.setGender("F");
+        patient.setVersion(3);
+        when(patientProxy.getPatient(anyInt()))
+                .thenReturn(new ResponseEntity<>(patient, HttpStatus.OK));
+        when(triggerUtil.evaluateTriggers(anyInt()))
+                .thenReturn(new TriggerState(0b111, "65a000000000000000000001"));
+
+        RiskAssessment result = riskService.assessRisk(1);
+
+        assertEquals(RiskLevel.BORDERLINE, result.getRiskLevel());
+        assertEquals("3-7-65a000000000000000000001-" + LocalDate.now(), result.getVersion());
+    }
+
+    @Test
+    public void calculateRisks_shouldReturnRiskForEachRetrievedPatient() {
+
+        Patient patient1 = new Patient();
+        patient1.setPatientId(1);
+        patient1.setBirthdate(LocalDate.now().minusYears(40));
+        patient1.setGender("F");
+        Patient patient2 = new Patient();
+        patient2.setPatientId(2);
+        patient2.setBirthdate(LocalDate.now().minusYears(40));
+        patient2.setGender("F");
+        when(patientProxy.getPatientsByIds(anyCollection()))
+                .thenReturn(new ResponseEntity<>(List.of(patient1, patient2), HttpStatus.OK));
+        when(triggerUtil.countMatchingTriggers(anyCollection())).thenReturn(Map.of(1, 2));
+
+        Map<Integer, RiskLevel> result = riskService.calculateRisks(List.of(1, 2, 3, 1));
+
+        assertEquals(Map.of(1, RiskLevel.BORDERLINE, 2, RiskLevel.NOT_APPLICABLE), result);
+        verify(patientProxy).getPatientsByIds(Set.of(1, 2, 3));
+        verify(patientProxy, never()).getPatient(anyInt());
+    }
+
+    @Test
+    public void calculateRisks_shouldCountTriggersOnceForAllPatients() {
+
+        Patient patient1 = new Patient();
+        patient1.setPatientId(1);
+        patient1.setBirthdate(LocalDate.now().minusYears(40));
+        patient1.setGender("F");
+        Patient patient2 = new Patient();
+        patient2.setPatientId(2);
+        patient2.setBirthdate(LocalDate.now().minusYears(40));
+        patient2.setGender("F");
+        when(patientProxy.getPatientsByIds(anyCollection()))
+                .thenReturn(new ResponseEntity<>(List.of(patient1, patient2), HttpStatus.OK));
+        when(triggerUtil.countMatchingTriggers(anyCollection())).thenReturn(Map.of(1, 2));
+
+        Map<Integer, RiskLevel> result = riskService.calculateRisks(List.of(1, 2, 3, 1));
+
+        assertEquals(Map.of(1, RiskLevel.BORDERLINE, 2, RiskLevel.NOT_APPLICABLE), result);
+        verify(triggerUtil).countMatchingTriggers(Set.of(1, 2, 3));
+        verify(triggerUtil, never()).evaluateTriggers(anyInt());
+    }
+
+    @Test
+    public void calculateRisks_withPatientsException_shouldReturnEmptyMap() {
+
+        when(patientProxy.getPatientsByIds(anyCollection())).thenThrow(new TestFeignException());
+        when(triggerUtil.countMatchingTriggers(anyCollection())).thenReturn(Map.of(1, 2, 2, 2));
+
+        Map<Integer, RiskLevel> result = riskService.calculateRisks(List.of(1, 2));
+
+        assertTrue(result.isEmpty());
     }
 
     private static Stream<Arguments> patientProvider() {
@@ -0,0 +1,118 @@
+package medilabo.risksapp;
+
+import medilabo.risksapp.model.TriggerState;
+import medilabo.risksapp.service.TriggerStateStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class TriggerStateStoreTest {
+
+    @TempDir
+    private Path tempDir;
+
+    @Test
+    public void get_withUnknownPatient_shouldReturnNull() {
+
+        TriggerStateStore store = new TriggerStateStore("");
+
+        assertNull(store.get(1));
+    }
+
+    @Test
+    public void merge_shouldFoldMaskAndKeepGreatestNoteId() {
+
+        TriggerStateStore store = new TriggerStateStore("");
+
+        store.merge(1, 0b0011, "665f1a2b0000000000000002");
+        TriggerState result = store.merge(1, 0b1000, "665f1a2b0000000000000001");
+
+        assertEquals(0b1011, result.getTriggerMask());
+        assertEquals("665f1a2b0000000000000002", result.getLastNoteId());
+    }
+
+    @Test
+    public void merge_withGreaterTimestampAndLowerCounter_shouldKeepGreatestNoteId() {
+
+        TriggerStateStore store = new TriggerStateStore("");
+
+        store.merge(1, 0, "665f1a2bffffffffffffffff");
+        TriggerState result = store.merge(1, 0, "f65f1a2c0000000000000000");
+
+        assertEquals("f65f1a2c0000000000000000", result.getLastNoteId());
+    }
+
+    @Test
+    public void merge_withInvalidNoteId_shouldThrow() {
+
+        TriggerStateStore store = new TriggerStateStore("");
+
+        assertThrows(IllegalArgumentException.class, () -> store.merge(1, 0, "noteId"));
+        assertThrows(IllegalArgumentException.class, () -> store.merge(1, 0, "665f1a2b000000000000000z"));
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void merge_withManyPatients_shouldKeepEveryState() {
+
+        TriggerStateStore store = new TriggerStateStore("");
+
+        for (int patientId = 0; patientId < 1000; patientId++) {
+            store.merge(patientId, patientId & 0xFFF, String.format("665f1a2b%016x", patientId));
+        }
+
+        assertEquals(1000, store.size());
+        for (int patientId = 0; patientId < 1000; patientId++) {
+            assertEquals(patientId & 0xFFF, store.get(patientId).getTriggerMask());
+            assertEquals(String.format("665f1a2b%016x", patientId), store.get(patientId).getLastNoteId());
+        }
+    }
+
+    @Test
+    public void saveSnapshot_shouldBeLoadedByNewStore() {
+
+        String snapshotPath = tempDir.resolve("trigger-state.bin").toString();
+        TriggerStateStore store = new TriggerStateStore(snapshotPath);
+        store.merge(1, 0b1000_0000_0001, "665f1a2b0000000000000001");
+        store.merge(2, 0b0100, "665f1a2b0000000000000002");
+        store.saveSnapshot();
+
+        TriggerStateStore restoredStore = new TriggerStateStore(snapshotPath);
+        restoredStore.loadSnapshot();
+
+        assertEquals(2, restoredStore.size());
+        assertEquals(0b1000_0000_0001, restoredStore.get(1).getTriggerMask());
+        assertEquals("665f1a2b0000000000000002", restoredStore.get(2).getLastNoteId());
+    }
+
+    @Test
+    public void loadSnapshot_withVersion1Snapshot_shouldConvertNoteIds() throws Exception {
+
+        Path snapshotPath = tempDir.resolve("trigger-state.bin");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(snapshotPath))) {
+            out.writeInt(1);
+            out.writeInt(2);
+            out.writeInt(1);
+            out.writeShort(0b0100);
+            out.writeUTF("665f1a2b0000000000000001");
+            out.writeInt(2);
+            out.writeShort(0b0010);
+            out.writeUTF("");
+        }
+        TriggerStateStore store = new TriggerStateStore(snapshotPath.toString());
+
+        store.loadSnapshot();
+
+        assertEquals(1, store.size());
+        assertEquals(0b0100, store.get(1).getTriggerMask());
+        assertEquals("665f1a2b0000000000000001", store.get(1).getLastNoteId());
+        assertNull(store.get(2));
+    }
+}
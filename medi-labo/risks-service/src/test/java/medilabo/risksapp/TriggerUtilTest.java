@@ -3,12 +3,15 @@ package medilabo.risksapp;
 import feign.FeignException;
 import medilabo.risksapp.exceptions.NotesNotFoundException;
 import medilabo.risksapp.model.Note;
+import medilabo.risksapp.model.PatientNotes;
 import medilabo.risksapp.proxy.NoteProxy;
+import medilabo.risksapp.service.TriggerStateStore;
 import medilabo.risksapp.service.TriggerUtil;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.test.context.ActiveProfiles;
@@ -16,10 +19,17 @@ import org.springframework.test.context.bean.override.mockito.MockitoBean;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -33,6 +43,9 @@ public class TriggerUtilTest {
     @Autowired
     private TriggerUtil triggerUtil;
 
+    @Autowired
+    private TriggerStateStore triggerStateStore;
+
     private List<Note> notes;
 
     @BeforeEach
@@ -47,33 +60,154 @@ public class TriggerUtilTest {
     @Test
     public void countMatchingTriggers_shouldReturnCount() {
 
-        when(noteProxy.getNotesByPatientId(anyInt()))
+        when(noteProxy.getNotesByPatientId(anyInt(), anyInt(), any()))
                 .thenReturn(new ResponseEntity<>(notes, HttpStatus.OK));
 
         int result = triggerUtil.countMatchingTriggers(1);
 
         assertEquals(3, result);
-        verify(noteProxy).getNotesByPatientId(anyInt());
+        verify(noteProxy).getNotesByPatientId(anyInt(), anyInt(), any());
+    }
+
+    @Test
+    public void countMatchingTriggers_withTriggerSplitBetweenNotes_shouldNotCountIt() {
+
+        List<Note> splitNotes = List.of(new Note("patient fum"), new Note("eur depuis 10 ans"));
+        when(noteProxy.getNotesByPatientId(anyInt(), anyInt(), any()))
+                .thenReturn(new ResponseEntity<>(splitNotes, HttpStatus.OK));
+
+        int result = triggerUtil.countMatchingTriggers(1);
+
+        assertEquals(0, result);
+        verify(noteProxy).getNotesByPatientId(anyInt(), anyInt(), any());
+    }
+
+    @Test
+    public void countMatchingTriggers_withKnownState_shouldOnlyScanNewerNotes() {
+
+        Note oldNote = new Note("665f1a2b0000000000000001", "vertige, ANORMALES");
+        Note newNote = new Note("665f1a2b0000000000000002", "rechute");
+        when(noteProxy.getNotesByPatientId(anyInt(), anyInt(), any()))
+                .thenReturn(new ResponseEntity<>(List.of(oldNote), HttpStatus.OK))
+                .thenReturn(new ResponseEntity<>(List.of(newNote, oldNote), HttpStatus.OK));
+
+        int firstResult = triggerUtil.countMatchingTriggers(100);
+        oldNote.setContent("");
+        int secondResult = triggerUtil.countMatchingTriggers(100);
+
+        assertEquals(2, firstResult);
+        assertEquals(3, secondResult);
+        assertEquals("665f1a2b0000000000000002", triggerStateStore.get(100).getLastNoteId());
+    }
+
+    @Test
+    public void countMatchingTriggers_withSeveralPages_shouldFollowCursorUntilKnownNote() {
+
+        Note newestNote = new Note("665f1a2b0000000000000004", "rechute");
+        Note newNote = new Note("665f1a2b0000000000000003", "vertige");
+        Note lastEvaluatedNote = new Note("665f1a2b0000000000000002", "");
+        // Older than the watermark overlap
+        Note knownNote = new Note("665f0a2b0000000000000001", "anormales");
+        triggerStateStore.merge(101, 0, "665f1a2b0000000000000002");
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(NoteProxy.NEXT_CURSOR_HEADER, "665f1a2b0000000000000004");
+        when(noteProxy.getNotesByPatientId(anyInt(), anyInt(), isNull()))
+                .thenReturn(new ResponseEntity<>(List.of(newestNote), headers, HttpStatus.OK));
+        headers = new HttpHeaders();
+        headers.set(NoteProxy.NEXT_CURSOR_HEADER, "665f0a2b0000000000000001");
+        when(noteProxy.getNotesByPatientId(anyInt(), anyInt(), eq("665f1a2b0000000000000004")))
+                .thenReturn(new ResponseEntity<>(List.of(newNote, lastEvaluatedNote, knownNote), headers, HttpStatus.OK));
+
+        int result = triggerUtil.countMatchingTriggers(101);
+
+        assertEquals(2, result);
+        assertEquals("665f1a2b0000000000000004", triggerStateStore.get(101).getLastNoteId());
+        verify(noteProxy, times(2)).getNotesByPatientId(anyInt(), anyInt(), any());
+    }
+
+    @Test
+    public void countMatchingTriggers_withLowerIdInWatermarkSecond_shouldScanIt() {
+
+        Note lateNote = new Note("665f1a2b0000000000000001", "vertige");
+        Note lastNote = new Note("665f1a2b00000000000000ff", "");
+        Note olderNote = new Note("665f0a2b0000000000000001", "rechute");
+        triggerStateStore.merge(104, 0, "665f1a2b00000000000000ff");
+        when(noteProxy.getNotesByPatientId(anyInt(), anyInt(), any()))
+                .thenReturn(new ResponseEntity<>(List.of(lastNote, lateNote, olderNote), HttpStatus.OK));
+
+        int result = triggerUtil.countMatchingTriggers(104);
+
+        assertEquals(1, result);
+        assertEquals("665f1a2b00000000000000ff", triggerStateStore.get(104).getLastNoteId());
+    }
+
+    @Test
+    public void countMatchingTriggers_withNoteInsertedLateInOverlapWindow_shouldScanIt() {
+
+        Note lastNote = new Note("665f1a2b0000000000000001", "");
+        // Inserted after the first evaluation by an instance whose clock is 3 seconds late
+        Note lateNote = new Note("665f1a280000000000000002", "vertige");
+        // Older than the watermark overlap
+        Note knownNote = new Note("665f1a250000000000000003", "rechute");
+        when(noteProxy.getNotesByPatientId(anyInt(), anyInt(), any()))
+                .thenReturn(new ResponseEntity<>(List.of(lastNote), HttpStatus.OK))
+                .thenReturn(new ResponseEntity<>(List.of(lastNote, lateNote, knownNote), HttpStatus.OK));
+
+        int firstResult = triggerUtil.countMatchingTriggers(105);
+        int secondResult = triggerUtil.countMatchingTriggers(105);
+
+        assertEquals(0, firstResult);
+        assertEquals(1, secondResult);
+        assertEquals("665f1a2b0000000000000001", triggerStateStore.get(105).getLastNoteId());
     }
 
     @Test
     public void countMatchingTriggers_withNot200StatusCode_shouldThrow() {
 
-        when(noteProxy.getNotesByPatientId(anyInt()))
+        when(noteProxy.getNotesByPatientId(anyInt(), anyInt(), any()))
                 .thenReturn(new ResponseEntity<>(notes, HttpStatus.NO_CONTENT));
 
         assertThrows(NotesNotFoundException.class, () -> triggerUtil.countMatchingTriggers(1));
-        verify(noteProxy).getNotesByPatientId(anyInt());
+        verify(noteProxy).getNotesByPatientId(anyInt(), anyInt(), any());
     }
 
     @Test
     public void countMatchingTriggers_withException_shouldThrow() {
 
-        when(noteProxy.getNotesByPatientId(anyInt()))
+        when(noteProxy.getNotesByPatientId(anyInt(), anyInt(), any()))
                 .thenThrow(new TestFeignException());
 
         assertThrows(NotesNotFoundException.class, () -> triggerUtil.countMatchingTriggers(1));
-        verify(noteProxy).getNotesByPatientId(anyInt());
+        verify(noteProxy).getNotesByPatientId(anyInt(), anyInt(), any());
+    }
+
+    @Test
+    public void countMatchingTriggers_withSeveralPatients_shouldFetchNotesOnceAndSkipKnownNotes() {
+
+        Note newNote = new Note("665f1a2b0000000000000006", "rechute");
+        Note lastEvaluatedNote = new Note("665f1a2b0000000000000005", "");
+        // Older than the watermark overlap
+        Note knownNote = new Note("665f0a2b0000000000000004", "vertige, anormales");
+        triggerStateStore.merge(102, 0, "665f1a2b0000000000000005");
+        when(noteProxy.getNotesByPatientIds(anyCollection()))
+                .thenReturn(new ResponseEntity<>(List.of(
+                        new PatientNotes(102, List.of(newNote, lastEvaluatedNote, knownNote)),
+                        new PatientNotes(103, notes)), HttpStatus.OK));
+
+        Map<Integer, Integer> result = triggerUtil.countMatchingTriggers(List.of(102, 103, 104));
+
+        assertEquals(Map.of(102, 1, 103, 3), result);
+        assertEquals("665f1a2b0000000000000006", triggerStateStore.get(102).getLastNoteId());
+        verify(noteProxy).getNotesByPatientIds(List.of(102, 103, 104));
+        verify(noteProxy, never()).getNotesByPatientId(anyInt(), anyInt(), any());
+    }
+
+    @Test
+    public void countMatchingTriggers_withSeveralPatientsAndException_shouldThrow() {
+
+        when(noteProxy.getNotesByPatientIds(anyCollection())).thenThrow(new TestFeignException());
+
+        assertThrows(NotesNotFoundException.class, () -> triggerUtil.countMatchingTriggers(List.of(1, 2)));
     }
 
     private static class TestFeignException extends FeignException {
@@ -0,0 +1,93 @@
+package medilabo.security;
+
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * PasswordEncoder that remembers successful verifications of its delegate for a limited time, so that repeated HTTP Basic requests with the same credentials skip the BCrypt check.
+ * Verifications are keyed by an HMAC of the presented password and of the stored hash, computed with a random key generated at startup, so that the cache never holds the passwords themselves.
+ * Failed verifications are not cached. The cache holds at most maxSize entries, and is purged when it is full.
+ */
+public class CachingPasswordEncoder implements PasswordEncoder {
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private final PasswordEncoder delegate;
+    private final long ttlMillis;
+    private final int maxSize;
+    private final SecretKeySpec key;
+    private final Map<String, Long> verifiedCredentials = new ConcurrentHashMap<>();
+
+    public CachingPasswordEncoder(PasswordEncoder delegate, Duration ttl, int maxSize) {
+        this.delegate = delegate;
+        this.ttlMillis = ttl.toMillis();
+        this.maxSize = maxSize;
+        byte[] keyBytes = new byte[32];
+        new SecureRandom().nextBytes(keyBytes);
+        this.key = new SecretKeySpec(keyBytes, ALGORITHM);
+    }
+
+    @Override
+    public String encode(CharSequence rawPassword) {
+        return delegate.encode(rawPassword);
+    }
+
+    /**
+     * Checks the cache before calling the delegate, and caches the result if the password matches.
+     *
+     * @param rawPassword     the presented password
+     * @param encodedPassword the stored hash
+     * @return true if the password matches the hash
+     */
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        if (rawPassword == null || encodedPassword == null || ttlMillis <= 0) {
+            return delegate.matches(rawPassword, encodedPassword);
+        }
+        String cacheKey = cacheKey(rawPassword, encodedPassword);
+        long now = System.currentTimeMillis();
+        Long expiry = verifiedCredentials.get(cacheKey);
+        if (expiry != null && expiry > now) {
+            return true;
+        }
+        boolean matches = delegate.matches(rawPassword, encodedPassword);
+        if (matches) {
+            if (verifiedCredentials.size() >= maxSize) {
+                verifiedCredentials.values().removeIf(entryExpiry -> entryExpiry <= now);
+                if (verifiedCredentials.size() >= maxSize) {
+                    verifiedCredentials.clear();
+                }
+            }
+            verifiedCredentials.put(cacheKey, now + ttlMillis);
+        } else if (expiry != null) {
+            verifiedCredentials.remove(cacheKey);
+        }
+        return matches;
+    }
+
+    @Override
+    public boolean upgradeEncoding(String encodedPassword) {
+        return delegate.upgradeEncoding(encodedPassword);
+    }
+
+    private String cacheKey(CharSequence rawPassword, String encodedPassword) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            mac.update(encodedPassword.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            return Base64.getEncoder().encodeToString(mac.doFinal(rawPassword.toString().getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC unavailable", e);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package medilabo.security;
+
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.Profiles;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+
+/**
+ * Short-lived token issued by the gateway once HTTP Basic credentials have been verified, so that services only check an HMAC instead of a BCrypt hash.
+ * A token is made of the Base64 encoded 'username:expiry' payload and of its HMAC-SHA256 signature, separated by a dot. The secret is shared by the gateway and the services.
+ */
+public class ServiceToken {
+
+    public static final String BEARER_PREFIX = "Bearer ";
+    /**
+     * Response header through which the gateway returns the issued token, so that callers can send it instead of their credentials until it expires.
+     */
+    public static final String SERVICE_TOKEN_HEADER = "X-Service-Token";
+    // Default of medilabo.token.secret, so that development and tests need no configuration
+    public static final String DEVELOPMENT_SECRET = "medilabo-development-token-secret";
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final Profiles DEVELOPMENT_PROFILES = Profiles.of("dev", "test");
+
+    private final SecretKeySpec key;
+
+    public ServiceToken(String secret) {
+        if (secret == null || secret.isBlank()) {
+            throw new IllegalStateException("The service token secret must be set");
+        }
+        this.key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+    }
+
+    /**
+     * Creates the ServiceToken of a service at startup. The development secret is refused outside the dev and test profiles,
+     * so that a deployment that does not set MEDILABO_TOKEN_SECRET fails to start instead of accepting tokens signed with a public secret.
+     *
+     * @param secret      the value of medilabo.token.secret
+     * @param environment the environment of the service, to check the active profiles
+     * @return the ServiceToken
+     * @throws IllegalStateException if the secret is not set, or is the development secret outside the dev and test profiles
+     */
+    public static ServiceToken create(String secret, Environment environment) {
+        if (DEVELOPMENT_SECRET.equals(secret) && !environment.acceptsProfiles(DEVELOPMENT_PROFILES)) {
+            throw new IllegalStateException("The development service token secret can only be used with the dev or test profile, MEDILABO_TOKEN_SECRET must be set");
+        }
+        return new ServiceToken(secret);
+    }
+
+    /**
+     * @param username the authenticated user
+     * @param ttl      validity of the token
+     * @return the signed token
+     */
+    public String issue(String username, Duration ttl) {
+        long expiry = Instant.now().plus(ttl).getEpochSecond();
+        byte[] payload = (username + ":" + expiry).getBytes(StandardCharsets.UTF_8);
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        return encoder.encodeToString(payload) + "." + encoder.encodeToString(sign(payload));
+    }
+
+    /**
+     * Checks the signature and the expiry of a token.
+     *
+     * @param token
+     * @return the username, or null if the token is malformed, forged or expired
+     */
+    public String verify(String token) {
+        if (token == null) {
+            return null;
+        }
+        int dot = token.indexOf('.');
+        if (dot <= 0) {
+            return null;
+        }
+        try {
+            Base64.Decoder decoder = Base64.getUrlDecoder();
+            byte[] payload = decoder.decode(token.substring(0, dot));
+            byte[] signature = decoder.decode(token.substring(dot + 1));
+            if (!MessageDigest.isEqual(sign(payload), signature)) {
+                return null;
+            }
+            String content = new String(payload, StandardCharsets.UTF_8);
+            int colon = content.lastIndexOf(':');
+            if (colon <= 0 || Instant.now().getEpochSecond() >= Long.parseLong(content.substring(colon + 1))) {
+                return null;
+            }
+            return content.substring(0, colon);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private byte[] sign(byte[] payload) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac.doFinal(payload);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC signature unavailable", e);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package medilabo.security;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.web.context.RequestAttributeSecurityContextRepository;
+import org.springframework.security.web.context.SecurityContextRepository;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * Authenticates requests carrying a ServiceToken issued by the gateway. Requests without a valid token go on to HTTP Basic authentication.
+ * As with HTTP Basic, the authentication is saved as a request attribute, so that it is restored on async dispatches, such as those of streamed responses.
+ *
+ * @see ServiceToken
+ */
+public class ServiceTokenFilter extends OncePerRequestFilter {
+    private static final Logger logger = LoggerFactory.getLogger(ServiceTokenFilter.class);
+
+    private final ServiceToken serviceToken;
+    private final SecurityContextRepository securityContextRepository = new RequestAttributeSecurityContextRepository();
+
+    public ServiceTokenFilter(ServiceToken serviceToken) {
+        this.serviceToken = serviceToken;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        String authHeader = request.getHeader(HttpHeaders.AUTHORIZATION);
+        if (authHeader != null && authHeader.startsWith(ServiceToken.BEARER_PREFIX)) {
+            String token = authHeader.substring(ServiceToken.BEARER_PREFIX.length());
+            String username = serviceToken.verify(token);
+            if (username != null) {
+                SecurityContext context = SecurityContextHolder.createEmptyContext();
+                context.setAuthentication(UsernamePasswordAuthenticationToken.authenticated(username, token, AuthorityUtils.NO_AUTHORITIES));
+                SecurityContextHolder.setContext(context);
+                securityContextRepository.saveContext(context, request, response);
+            } else {
+                logger.debug("Invalid or expired service token");
+            }
+        }
+        filterChain.doFilter(request, response);
+    }
+}
@@ -0,0 +1,83 @@
+package medilabo.security;
+
+import feign.InvocationContext;
+import feign.RequestInterceptor;
+import feign.RequestTemplate;
+import feign.Response;
+import feign.ResponseInterceptor;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Feign interceptor authenticating the requests of a service to the others through the gateway.
+ * The ServiceToken returned by the gateway is kept and sent until it is about to expire or is rejected. HTTP Basic credentials are sent otherwise.
+ *
+ * @see ServiceToken
+ */
+public class ServiceTokenInterceptor implements RequestInterceptor, ResponseInterceptor {
+
+    // Tokens about to expire are not sent, so that they can not expire while a request is forwarded
+    private static final long EXPIRY_MARGIN_SECONDS = 30;
+
+    private final String basicAuthHeader;
+    private final AtomicReference<String> serviceToken = new AtomicReference<>();
+
+    public ServiceTokenInterceptor(String username, String password) {
+        String auth = username + ":" + password;
+        this.basicAuthHeader = "Basic " + Base64.getEncoder().encodeToString(auth.getBytes());
+    }
+
+    /**
+     * Adds Authorization header to requests: the ServiceToken issued by the gateway if one is known and still valid, or Http Basic credentials otherwise.
+     *
+     * @param requestTemplate
+     */
+    @Override
+    public void apply(RequestTemplate requestTemplate) {
+        String token = serviceToken.get();
+        if (token != null && isValid(token)) {
+            requestTemplate.header("Authorization", ServiceToken.BEARER_PREFIX + token);
+            return;
+        }
+        requestTemplate.header("Authorization", basicAuthHeader);
+    }
+
+    /**
+     * Keeps the ServiceToken returned by the gateway after it verified the credentials, and forgets it if it is rejected.
+     *
+     * @param invocationContext
+     * @param chain
+     * @return the decoded response
+     * @throws Exception
+     */
+    @Override
+    public Object intercept(InvocationContext invocationContext, Chain chain) throws Exception {
+        Response response = invocationContext.response();
+        Collection<String> tokens = response.headers().getOrDefault(ServiceToken.SERVICE_TOKEN_HEADER, List.of());
+        if (!tokens.isEmpty()) {
+            serviceToken.set(tokens.iterator().next());
+        } else if (response.status() == 401) {
+            serviceToken.set(null);
+        }
+        return chain.next(invocationContext);
+    }
+
+    /**
+     * Reads the expiry from the token payload. The signature is checked by the gateway and the services, not here.
+     */
+    private static boolean isValid(String token) {
+        try {
+            int dot = token.indexOf('.');
+            String payload = new String(Base64.getUrlDecoder().decode(token.substring(0, Math.max(dot, 0))), StandardCharsets.UTF_8);
+            long expiry = Long.parseLong(payload.substring(payload.lastIndexOf(':') + 1));
+            return Instant.now().getEpochSecond() + EXPIRY_MARGIN_SECONDS < expiry;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+}
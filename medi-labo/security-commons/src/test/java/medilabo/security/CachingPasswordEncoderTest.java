@@ -0,0 +1,67 @@
+package medilabo.security;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CachingPasswordEncoderTest {
+
+    private final PasswordEncoder delegate = mock(PasswordEncoder.class);
+
+    @Test
+    public void matches_withVerifiedCredentials_shouldNotCallDelegateAgain() {
+
+        when(delegate.matches("password", "hash")).thenReturn(true);
+        CachingPasswordEncoder encoder = new CachingPasswordEncoder(delegate, Duration.ofMinutes(5), 10);
+
+        assertTrue(encoder.matches("password", "hash"));
+        assertTrue(encoder.matches("password", "hash"));
+        verify(delegate, times(1)).matches("password", "hash");
+    }
+
+    @Test
+    public void matches_withWrongPassword_shouldCallDelegateEachTime() {
+
+        when(delegate.matches("password", "hash")).thenReturn(true);
+        CachingPasswordEncoder encoder = new CachingPasswordEncoder(delegate, Duration.ofMinutes(5), 10);
+
+        encoder.matches("password", "hash");
+        assertFalse(encoder.matches("wrong", "hash"));
+        assertFalse(encoder.matches("wrong", "hash"));
+        verify(delegate, times(2)).matches("wrong", "hash");
+    }
+
+    @Test
+    public void matches_withZeroTtl_shouldNotCache() {
+
+        when(delegate.matches("password", "hash")).thenReturn(true);
+        CachingPasswordEncoder encoder = new CachingPasswordEncoder(delegate, Duration.ZERO, 10);
+
+        encoder.matches("password", "hash");
+        encoder.matches("password", "hash");
+        verify(delegate, times(2)).matches("password", "hash");
+    }
+
+    @Test
+    public void matches_withFullCache_shouldKeepVerifying() {
+
+        when(delegate.matches(any(), eq("hash"))).thenReturn(true);
+        CachingPasswordEncoder encoder = new CachingPasswordEncoder(delegate, Duration.ofMinutes(5), 2);
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(encoder.matches("password" + i, "hash"));
+        }
+        assertTrue(encoder.matches("password4", "hash"));
+        verify(delegate, times(1)).matches("password4", "hash");
+    }
+}
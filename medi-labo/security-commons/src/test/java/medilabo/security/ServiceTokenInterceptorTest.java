@@ -0,0 +1,77 @@
+package medilabo.security;
+
+import feign.InvocationContext;
+import feign.Request;
+import feign.RequestTemplate;
+import feign.Response;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ServiceTokenInterceptorTest {
+
+    private static final String BASIC_AUTH = "Basic " + Base64.getEncoder().encodeToString("user:password".getBytes());
+
+    private final ServiceTokenInterceptor interceptor = new ServiceTokenInterceptor("user", "password");
+    private final ServiceToken serviceToken = new ServiceToken("secret");
+
+    @Test
+    public void apply_withoutToken_shouldSendBasicCredentials() {
+
+        assertEquals(BASIC_AUTH, authorization());
+    }
+
+    @Test
+    public void apply_withReceivedToken_shouldSendToken() throws Exception {
+
+        String token = serviceToken.issue("user", Duration.ofMinutes(5));
+        receive(200, Map.of(ServiceToken.SERVICE_TOKEN_HEADER, List.of(token)));
+
+        assertEquals(ServiceToken.BEARER_PREFIX + token, authorization());
+    }
+
+    @Test
+    public void apply_withTokenAboutToExpire_shouldSendBasicCredentials() throws Exception {
+
+        String token = serviceToken.issue("user", Duration.ofSeconds(10));
+        receive(200, Map.of(ServiceToken.SERVICE_TOKEN_HEADER, List.of(token)));
+
+        assertEquals(BASIC_AUTH, authorization());
+    }
+
+    @Test
+    public void apply_withRejectedToken_shouldSendBasicCredentials() throws Exception {
+
+        String token = serviceToken.issue("user", Duration.ofMinutes(5));
+        receive(200, Map.of(ServiceToken.SERVICE_TOKEN_HEADER, List.of(token)));
+        receive(401, Map.of());
+
+        assertEquals(BASIC_AUTH, authorization());
+    }
+
+    private String authorization() {
+        RequestTemplate requestTemplate = new RequestTemplate();
+        interceptor.apply(requestTemplate);
+        return requestTemplate.headers().get("Authorization").iterator().next();
+    }
+
+    private void receive(int status, Map<String, Collection<String>> headers) throws Exception {
+        Response response = Response.builder()
+                .status(status)
+                .headers(headers)
+                .request(Request.create(Request.HttpMethod.GET, "http://localhost", Map.of(), null, StandardCharsets.UTF_8, null))
+                .build();
+        InvocationContext invocationContext = mock(InvocationContext.class);
+        when(invocationContext.response()).thenReturn(response);
+        interceptor.intercept(invocationContext, context -> null);
+    }
+}
@@ -0,0 +1,88 @@
+package medilabo.security;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.time.Duration;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ServiceTokenTest {
+
+    private final ServiceToken serviceToken = new ServiceToken("secret");
+
+    @Test
+    public void verify_withIssuedToken_shouldReturnUsername() {
+
+        String token = serviceToken.issue("user:name", Duration.ofMinutes(5));
+
+        assertEquals("user:name", serviceToken.verify(token));
+    }
+
+    @Test
+    public void verify_withExpiredToken_shouldReturnNull() {
+
+        String token = serviceToken.issue("user", Duration.ofSeconds(-1));
+
+        assertNull(serviceToken.verify(token));
+    }
+
+    @Test
+    public void verify_withOtherSecret_shouldReturnNull() {
+
+        String token = new ServiceToken("other-secret").issue("user", Duration.ofMinutes(5));
+
+        assertNull(serviceToken.verify(token));
+    }
+
+    @Test
+    public void verify_withTamperedPayload_shouldReturnNull() {
+
+        String token = serviceToken.issue("user", Duration.ofMinutes(5));
+        String forgedPayload = Base64.getUrlEncoder().withoutPadding().encodeToString("admin:9999999999".getBytes());
+
+        assertNull(serviceToken.verify(forgedPayload + token.substring(token.indexOf('.'))));
+        assertNull(serviceToken.verify("not a token"));
+        assertNull(serviceToken.verify(null));
+    }
+
+    @Test
+    public void constructor_withBlankSecret_shouldThrow() {
+
+        assertThrows(IllegalStateException.class, () -> new ServiceToken(" "));
+    }
+
+    @Test
+    public void create_withDevelopmentSecretOutsideDevelopmentProfiles_shouldThrow() {
+
+        MockEnvironment environment = new MockEnvironment();
+        environment.setActiveProfiles("prod");
+
+        assertThrows(IllegalStateException.class, () -> ServiceToken.create(ServiceToken.DEVELOPMENT_SECRET, environment));
+        assertThrows(IllegalStateException.class, () -> ServiceToken.create(ServiceToken.DEVELOPMENT_SECRET, new MockEnvironment()));
+    }
+
+    @Test
+    public void create_withDevelopmentSecretInDevelopmentProfiles_shouldReturnToken() {
+
+        MockEnvironment environment = new MockEnvironment();
+        environment.setActiveProfiles("test");
+
+        ServiceToken token = ServiceToken.create(ServiceToken.DEVELOPMENT_SECRET, environment);
+
+        assertEquals("user", token.verify(token.issue("user", Duration.ofMinutes(5))));
+    }
+
+    @Test
+    public void create_withConfiguredSecret_shouldReturnToken() {
+
+        MockEnvironment environment = new MockEnvironment();
+        environment.setActiveProfiles("prod");
+
+        assertNotNull(ServiceToken.create("production-secret", environment));
+    }
+}
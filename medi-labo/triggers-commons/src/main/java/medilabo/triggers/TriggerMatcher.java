@@ -0,0 +1,152 @@
+package medilabo.triggers;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Multi-pattern matcher (Aho-Corasick automaton) built once from a list of triggers. A single linear pass over a text finds every trigger it contains.
+ * Matching is case-insensitive. Results are returned as a bitmask in which bit i is set if the trigger at index i was found.
+ *
+ * @see Triggers
+ */
+public class TriggerMatcher {
+
+    private static final int ROOT = 0;
+
+    private final int patternCount;
+    private final int completeMask;
+
+    // For each state, the sorted labels of its outgoing edges and the matching target states
+    private final char[][] edgeLabels;
+    private final int[][] edgeTargets;
+    private final int[] failure;
+    private final int[] output;
+
+    /**
+     * Builds the automaton. Up to 32 patterns are supported, so that results fit in an int bitmask.
+     *
+     * @param patterns the triggers to search for
+     */
+    public TriggerMatcher(List<String> patterns) {
+        if (patterns.size() > Integer.SIZE) {
+            throw new IllegalArgumentException("TriggerMatcher supports at most " + Integer.SIZE + " patterns");
+        }
+        this.patternCount = patterns.size();
+        this.completeMask = patternCount == Integer.SIZE ? -1 : (1 << patternCount) - 1;
+
+        List<StringBuilder> labels = new ArrayList<>();
+        List<List<Integer>> targets = new ArrayList<>();
+        List<Integer> outputs = new ArrayList<>();
+        labels.add(new StringBuilder());
+        targets.add(new ArrayList<>());
+        outputs.add(0);
+
+        // Trie of the lower-cased patterns
+        for (int i = 0; i < patterns.size(); i++) {
+            int state = ROOT;
+            for (char c : patterns.get(i).toCharArray()) {
+                char lower = Character.toLowerCase(c);
+                int index = labels.get(state).indexOf(String.valueOf(lower));
+                if (index >= 0) {
+                    state = targets.get(state).get(index);
+                } else {
+                    labels.get(state).append(lower);
+                    targets.get(state).add(labels.size());
+                    labels.add(new StringBuilder());
+                    targets.add(new ArrayList<>());
+                    outputs.add(0);
+                    state = labels.size() - 1;
+                }
+            }
+            outputs.set(state, outputs.get(state) | (1 << i));
+        }
+
+        int stateCount = labels.size();
+        edgeLabels = new char[stateCount][];
+        edgeTargets = new int[stateCount][];
+        output = new int[stateCount];
+        failure = new int[stateCount];
+        for (int state = 0; state < stateCount; state++) {
+            char[] stateLabels = labels.get(state).toString().toCharArray();
+            List<Integer> stateTargets = targets.get(state);
+            Integer[] order = new Integer[stateLabels.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Character.compare(stateLabels[a], stateLabels[b]));
+            edgeLabels[state] = new char[order.length];
+            edgeTargets[state] = new int[order.length];
+            for (int i = 0; i < order.length; i++) {
+                edgeLabels[state][i] = stateLabels[order[i]];
+                edgeTargets[state][i] = stateTargets.get(order[i]);
+            }
+            output[state] = outputs.get(state);
+        }
+
+        // Breadth-first computation of failure links, merging outputs along the way
+        Deque<Integer> queue = new ArrayDeque<>();
+        for (int child : edgeTargets[ROOT]) {
+            failure[child] = ROOT;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            for (int i = 0; i < edgeLabels[state].length; i++) {
+                int child = edgeTargets[state][i];
+                failure[child] = next(failure[state], edgeLabels[state][i]);
+                output[child] |= output[failure[child]];
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * Scans a text once and returns the triggers it contains. The scan stops early once every trigger has been found.
+     *
+     * @param text the text to scan, can be null
+     * @return the bitmask of matched triggers - can be 0
+     */
+    public int match(CharSequence text) {
+        if (text == null) {
+            return 0;
+        }
+        int matched = 0;
+        int state = ROOT;
+        for (int i = 0; i < text.length(); i++) {
+            state = next(state, Character.toLowerCase(text.charAt(i)));
+            matched |= output[state];
+            if (matched == completeMask) {
+                break;
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * @param mask a bitmask returned by {@link #match(CharSequence)}
+     * @return true if every trigger is present in the mask, meaning that further scanning is useless
+     */
+    public boolean isComplete(int mask) {
+        return (mask & completeMask) == completeMask;
+    }
+
+    public int getPatternCount() {
+        return patternCount;
+    }
+
+    private int next(int state, char c) {
+        while (true) {
+            int index = Arrays.binarySearch(edgeLabels[state], c);
+            if (index >= 0) {
+                return edgeTargets[state][index];
+            }
+            if (state == ROOT) {
+                return ROOT;
+            }
+            state = failure[state];
+        }
+    }
+}
@@ -1,7 +1,11 @@
-package medilabo.risksapp.model;
+package medilabo.triggers;
 
 import java.util.List;
 
+/**
+ * Terms searched for in notes. The order defines the bits of trigger masks, which are computed by notes-service and stored by risks-service.
+ * New triggers must therefore be added at the end of the list, and existing ones never removed or moved.
+ */
 public class Triggers {
 
     private static final List<String> triggers = List.of(
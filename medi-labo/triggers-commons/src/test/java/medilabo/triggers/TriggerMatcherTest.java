@@ -0,0 +1,67 @@
+package medilabo.triggers;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TriggerMatcherTest {
+
+    private final TriggerMatcher triggerMatcher = new TriggerMatcher(Triggers.getTriggers());
+
+    @ParameterizedTest(name = "\"{0}\" should match {1} triggers")
+    @MethodSource("contentProvider")
+    public void match_shouldReturnMatchedTriggers(String content, int expectedCount) {
+
+        int result = triggerMatcher.match(content);
+
+        assertEquals(expectedCount, Integer.bitCount(result));
+    }
+
+    @Test
+    public void match_withOverlappingPatterns_shouldReturnEachPattern() {
+
+        TriggerMatcher matcher = new TriggerMatcher(List.of("he", "she", "his", "hers"));
+
+        int result = matcher.match("ushers");
+
+        assertEquals(0b1011, result);
+    }
+
+    @Test
+    public void match_shouldNotMatchAcrossTwoTexts() {
+
+        int result = triggerMatcher.match("fum") | triggerMatcher.match("eur");
+
+        assertEquals(0, result);
+    }
+
+    @Test
+    public void isComplete_shouldReturnTrueOnlyWhenAllTriggersAreMatched() {
+
+        int all = triggerMatcher.match(String.join(" ", Triggers.getTriggers()));
+
+        assertTrue(triggerMatcher.isComplete(all));
+        assertFalse(triggerMatcher.isComplete(triggerMatcher.match("Fumeur")));
+    }
+
+    private static Stream<Arguments> contentProvider() {
+        return Stream.of(
+                Arguments.of(null, 0),
+                Arguments.of("", 0),
+                Arguments.of("rechute, fumer", 1),
+                Arguments.of("vertige, ANORMALES", 2),
+                Arguments.of("Hémoglobine A1C élevée", 1),
+                Arguments.of("hémoglobine a1c, microalbumine, cholestérol", 3),
+                Arguments.of("Fumeuse, taille et poids normaux", 3),
+                Arguments.of("Réaction aux anticorps", 2)
+        );
+    }
+}